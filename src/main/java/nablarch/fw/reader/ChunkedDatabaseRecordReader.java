@@ -0,0 +1,99 @@
+package nablarch.fw.reader;
+
+import java.util.List;
+
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * データベースの参照結果を指定件数ごとにまとめて読み込むデータリーダ。
+ * <p/>
+ * 本リーダは、{@link DatabaseRecordReader}から読み込んだレコードをチャンクサイズ分まとめて、
+ * 1回の読み込みで{@link List}として返却する。
+ * これにより、リーダのロック取得やハンドラキューの実行がチャンク単位に1回となるため、
+ * 大量レコードを処理する場合のレコード毎のオーバーヘッドを削減できる。
+ * <p/>
+ * 本リーダは、チャンク単位に入力データを処理する業務アクション
+ * ({@code BatchAction<List<SqlRow>>})と組み合わせて使用する。
+ * <pre>{@code
+ *     DatabaseRecordReader reader = new DatabaseRecordReader().setStatement(statement);
+ *     return new ChunkedDatabaseRecordReader(reader, 100);
+ * }</pre>
+ *
+ * @see DatabaseRecordReader
+ */
+public class ChunkedDatabaseRecordReader implements DataReader<List<SqlRow>> {
+
+    /**
+     * データベースリーダ。
+     * <p/>
+     * データベースへのアクセスは、このリーダに処理を移譲する。
+     */
+    private final DatabaseRecordReader originalReader;
+
+    /** 1回の読み込みで返却する最大レコード数 */
+    private final int chunkSize;
+
+    /**
+     * チャンク単位にレコードを読み込むリーダを生成する。
+     *
+     * @param originalReader データベースレコードリーダ
+     * @param chunkSize 1回の読み込みで返却する最大レコード数
+     * @throws IllegalArgumentException チャンクサイズが1未満の場合
+     */
+    @Published
+    public ChunkedDatabaseRecordReader(DatabaseRecordReader originalReader, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "chunk size must be greater than 0. chunk size = [" + chunkSize + ']');
+        }
+        this.originalReader = originalReader;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 参照結果のレコードをチャンクサイズ分まとめて返却する。
+     * <p/>
+     * 参照結果に残っているレコードがチャンクサイズに満たない場合は、残りのレコードのみを返却する。<br/>
+     * 参照結果に次のレコードが存在しない場合、{@code null}を返す。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコードのリスト
+     */
+    @Override
+    public List<SqlRow> read(ExecutionContext ctx) {
+        return originalReader.read(ctx, chunkSize);
+    }
+
+    /**
+     * 参照結果から次のレコードが存在するかどうかを返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public boolean hasNext(ExecutionContext ctx) {
+        return originalReader.hasNext(ctx);
+    }
+
+    /**
+     * 内部的にキャッシュしている各種リソースを解放する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        originalReader.close(ctx);
+    }
+
+    /**
+     * チャンクサイズを取得する。
+     *
+     * @return 1回の読み込みで返却する最大レコード数
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+}
@@ -0,0 +1,379 @@
+package nablarch.fw.reader;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.statement.ResultSetIterator;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.util.StringUtil;
+
+/**
+ * カラムの情報を参照結果全体で共有し、カラムの値を配列で保持する{@link SqlRow}。
+ * <p/>
+ * {@link ResultSetIterator}が生成する{@link SqlRow}は、レコード毎にカラム名をキーとする{@link Map}と
+ * キー名の変換表を生成する。
+ * 本クラスは、カラム名とインデックスの対応およびキー名の変換表を参照結果全体で共有し、
+ * レコード毎にはカラムの値を格納する配列のみを生成する。
+ * <p/>
+ * カラムの値は、{@link ResultSetIterator}が生成したレコードから取得する。
+ * このため、ダイアレクトの{@link nablarch.core.db.statement.ResultSetConvertor}による値の変換は、
+ * 通常のレコードと同様に行われる。
+ * 変換元のレコードはカラムの値を取得した時点で破棄するため、保持し続けるのはカラムの値の配列のみとなる。
+ * <p/>
+ * 参照結果に含まれるカラムを削除することはできない。
+ *
+ * @see DatabaseRecordReader#setCompactRow(boolean)
+ */
+final class CompactSqlRow extends SqlRow {
+
+    /**
+     * {@code CompactSqlRow}を生成する。
+     *
+     * @param columns 参照結果のカラム情報
+     * @param values カラムの値
+     */
+    private CompactSqlRow(Columns columns, Object[] values) {
+        super(new ValueMap(columns, values), columns.colTypes);
+    }
+
+    /**
+     * 参照結果から{@code CompactSqlRow}を生成するイテレータを返却する。
+     *
+     * @param resultSet 参照結果
+     * @return レコードのイテレータ
+     */
+    static Iterator<SqlRow> iterator(ResultSetIterator resultSet) {
+        return new RowIterator(resultSet);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * キー名が参照結果のカラムに対応する場合は、そのカラムの値を置き換える。
+     */
+    @Override
+    public Object put(String key, Object value) {
+        String columnName = columns().resolve(key);
+        return super.put(columnName != null ? columnName : key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 参照結果のカラムは、共有しているキー名の変換表を使用するため、レコード毎の変換表には追加しない。
+     */
+    @Override
+    protected void addKeyConversion(String key) {
+        if (!columns().contains(key)) {
+            super.addKeyConversion(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 参照結果のカラムは、共有しているキー名の変換表からカラム名を取得する。
+     */
+    @Override
+    protected String getActualDataKey(String key) {
+        String columnName = columns().resolve(key);
+        return columnName != null ? columnName : super.getActualDataKey(key);
+    }
+
+    /**
+     * 参照結果のカラム情報を取得する。
+     *
+     * @return カラム情報
+     */
+    private Columns columns() {
+        return ((ValueMap) getDelegateMap()).columns;
+    }
+
+    /**
+     * 参照結果全体で共有するカラム情報。
+     */
+    private static final class Columns {
+
+        /** カラム名 */
+        private final String[] names;
+
+        /** カラム名とインデックスの対応 */
+        private final Map<String, Integer> indexes;
+
+        /** カラム名とカラムの型の対応 */
+        private final Map<String, Integer> colTypes;
+
+        /** キー名とカラム名の変換表 */
+        private final ConcurrentMap<String, String> keyConversions = new ConcurrentHashMap<String, String>();
+
+        /**
+         * 参照結果のメタデータからカラム情報を生成する。
+         *
+         * @param metaData 参照結果のメタデータ
+         * @throws SQLException メタデータの取得に失敗した場合
+         */
+        private Columns(ResultSetMetaData metaData) throws SQLException {
+            int count = metaData.getColumnCount();
+            names = new String[count];
+            indexes = new HashMap<String, Integer>(count * 2);
+            colTypes = new HashMap<String, Integer>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String name = metaData.getColumnLabel(i + 1).toUpperCase();
+                names[i] = name;
+                indexes.put(name, i);
+                colTypes.put(name, metaData.getColumnType(i + 1));
+                keyConversions.put(name, name);
+                keyConversions.put(StringUtil.lowerAndTrimUnderScore(name), name);
+            }
+        }
+
+        /**
+         * 参照結果のカラムか否か。
+         *
+         * @param name カラム名
+         * @return 参照結果のカラムの場合 {@code true}
+         */
+        private boolean contains(String name) {
+            return indexes.containsKey(name);
+        }
+
+        /**
+         * キー名に対応するカラム名を取得する。
+         *
+         * @param key キー名
+         * @return カラム名(参照結果のカラムでない場合は{@code null})
+         */
+        private String resolve(String key) {
+            String columnName = keyConversions.get(key);
+            if (columnName == null) {
+                columnName = keyConversions.get(StringUtil.lowerAndTrimUnderScore(key));
+                if (columnName != null) {
+                    keyConversions.putIfAbsent(key, columnName);
+                }
+            }
+            return columnName;
+        }
+    }
+
+    /**
+     * カラムの値を配列で保持する{@link Map}。
+     * <p/>
+     * 参照結果に含まれないキーの値は、追加された時点で生成する{@link Map}に保持する。
+     */
+    private static final class ValueMap extends AbstractMap<String, Object> {
+
+        /** カラム情報 */
+        private final Columns columns;
+
+        /** カラムの値 */
+        private final Object[] values;
+
+        /** 参照結果に含まれないキーの値 */
+        private Map<String, Object> additionalValues;
+
+        /**
+         * {@code ValueMap}を生成する。
+         *
+         * @param columns カラム情報
+         * @param values カラムの値
+         */
+        private ValueMap(Columns columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Integer index = columns.indexes.get(key);
+            if (index != null) {
+                return values[index];
+            }
+            return additionalValues == null ? null : additionalValues.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return columns.indexes.containsKey(key)
+                    || (additionalValues != null && additionalValues.containsKey(key));
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            Integer index = columns.indexes.get(key);
+            if (index != null) {
+                Object old = values[index];
+                values[index] = value;
+                return old;
+            }
+            if (additionalValues == null) {
+                additionalValues = new HashMap<String, Object>();
+            }
+            return additionalValues.put(key, value);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws UnsupportedOperationException 参照結果のカラムを削除しようとした場合
+         */
+        @Override
+        public Object remove(Object key) {
+            if (columns.indexes.containsKey(key)) {
+                throw new UnsupportedOperationException("column of result set can not be removed. key = [" + key + ']');
+            }
+            return additionalValues == null ? null : additionalValues.remove(key);
+        }
+
+        @Override
+        public int size() {
+            return values.length + (additionalValues == null ? 0 : additionalValues.size());
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return ValueMap.this.size();
+                }
+            };
+        }
+
+        /**
+         * 要素のイテレータ。
+         * <p/>
+         * 参照結果のカラムを順に返却した後、参照結果に含まれないキーの要素を返却する。
+         */
+        private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+            /** 次に返却するカラムのインデックス */
+            private int index = 0;
+
+            /** 参照結果に含まれないキーの要素のイテレータ */
+            private Iterator<Entry<String, Object>> additional;
+
+            @Override
+            public boolean hasNext() {
+                if (index < values.length) {
+                    return true;
+                }
+                if (additional == null) {
+                    if (additionalValues == null) {
+                        return false;
+                    }
+                    additional = additionalValues.entrySet().iterator();
+                }
+                return additional.hasNext();
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (index < values.length) {
+                    final int current = index++;
+                    return new Entry<String, Object>() {
+                        @Override
+                        public String getKey() {
+                            return columns.names[current];
+                        }
+
+                        @Override
+                        public Object getValue() {
+                            return values[current];
+                        }
+
+                        @Override
+                        public Object setValue(Object value) {
+                            Object old = values[current];
+                            values[current] = value;
+                            return old;
+                        }
+                    };
+                }
+                return additional.next();
+            }
+
+            @Override
+            public void remove() {
+                if (additional == null) {
+                    throw new UnsupportedOperationException("column of result set can not be removed.");
+                }
+                additional.remove();
+            }
+        }
+    }
+
+    /**
+     * 参照結果から{@code CompactSqlRow}を生成するイテレータ。
+     */
+    private static final class RowIterator implements Iterator<SqlRow> {
+
+        /** 参照結果 */
+        private final ResultSetIterator resultSet;
+
+        /** 参照結果が生成するレコードのイテレータ */
+        private final Iterator<SqlRow> rows;
+
+        /** カラム情報(最初のレコードを生成する際に作成する) */
+        private Columns columns;
+
+        /**
+         * {@code RowIterator}を生成する。
+         *
+         * @param resultSet 参照結果
+         */
+        private RowIterator(ResultSetIterator resultSet) {
+            this.resultSet = resultSet;
+            rows = resultSet.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows.hasNext();
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * {@link ResultSetIterator}が生成したレコードから、カラムの値を配列に移し替える。
+         */
+        @Override
+        public SqlRow next() {
+            SqlRow row = rows.next();
+            if (columns == null) {
+                try {
+                    columns = new Columns(resultSet.getMetaData());
+                } catch (SQLException e) {
+                    throw new DbAccessException("failed to get result set meta data.", e);
+                }
+            }
+            Object[] values = new Object[columns.names.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(columns.names[i]);
+            }
+            return new CompactSqlRow(columns, values);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove is not supported.");
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nablarch.fw.reader;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link DatabaseRecordReader}のステートメント実行から終了までの各契機で
+ * コールバックされるメソッドを定義するインタフェース。
+ * <p/>
+ * {@link DatabaseRecordListener}に定義されたデータベースアクセス前のコールバックに加えて、
+ * ステートメント実行後、参照結果の終端到達時、およびリーダを閉じた後にコールバックを受け取ることができる。
+ * <p/>
+ * コールバックは{@link DatabaseRecordReader}のロックを取得した状態で呼び出されるため、
+ * 時間のかかる処理を行わないこと。
+ *
+ * @see DatabaseRecordReader#setListener(DatabaseRecordListener)
+ * @see DatabaseRecordMetricsListener
+ */
+@Published
+public interface DatabaseRecordLifecycleListener extends DatabaseRecordListener {
+
+    /**
+     * 処理対象レコードを取得するステートメントの実行後に呼び出される。
+     * <p/>
+     * {@link DatabaseRecordReader#reopen(nablarch.fw.ExecutionContext)}によるステートメントの再実行時にも呼び出される。
+     *
+     * @param elapsedTime ステートメントの実行に要した時間(ミリ秒)
+     */
+    void afterReadRecords(long elapsedTime);
+
+    /**
+     * 参照結果の終端に到達した際に呼び出される。
+     * <p/>
+     * 本メソッドは、ステートメントの実行毎に1回のみ呼び出される。
+     *
+     * @param readCount 直近のステートメント実行以降に読み込んだレコード数
+     */
+    void afterAllRecordsRead(long readCount);
+
+    /**
+     * リーダを閉じた後に呼び出される。
+     */
+    void afterClose();
+}
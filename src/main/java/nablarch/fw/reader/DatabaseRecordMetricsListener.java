@@ -0,0 +1,205 @@
+package nablarch.fw.reader;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link DatabaseRecordReader}のステートメント実行時間および読み込んだレコード数を集計するリスナ。
+ * <p/>
+ * 集計した値は各取得メソッドで参照できる。
+ * また、{@link #setSlowQueryThreshold(long)}で閾値を設定した場合、
+ * ステートメントの実行時間が閾値以上となった際にINFOレベルのログを出力する。
+ * これにより、テーブルキューの監視や初回の参照に時間を要しているステートメントを特定できる。
+ * <pre>{@code
+ *     DatabaseRecordMetricsListener metrics = new DatabaseRecordMetricsListener("queue-reader")
+ *             .setSlowQueryThreshold(1000);
+ *     DatabaseRecordReader reader = new DatabaseRecordReader()
+ *             .setStatement(statement)
+ *             .setListener(metrics);
+ * }</pre>
+ * <p/>
+ * 本リスナは複数のリーダで共有することができる。
+ * その場合は、全てのリーダの値が集計される。
+ */
+public class DatabaseRecordMetricsListener implements DatabaseRecordLifecycleListener {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(DatabaseRecordMetricsListener.class);
+
+    /** ログに出力するリーダの名前 */
+    private final String name;
+
+    /** ステートメント実行時間の閾値(ミリ秒。0以下の場合はログを出力しない) */
+    private long slowQueryThreshold = 0;
+
+    /** ステートメントの実行回数 */
+    private long executeCount = 0;
+
+    /** ステートメント実行時間の合計(ミリ秒) */
+    private long totalExecuteTime = 0;
+
+    /** ステートメント実行時間の最大値(ミリ秒) */
+    private long maxExecuteTime = 0;
+
+    /** 直近のステートメント実行時間(ミリ秒) */
+    private long lastExecuteTime = 0;
+
+    /** 参照結果の終端に到達した回数 */
+    private long exhaustedCount = 0;
+
+    /** 直近の参照結果から読み込んだレコード数 */
+    private long lastReadCount = 0;
+
+    /** 読み込んだレコード数の合計 */
+    private long totalReadCount = 0;
+
+    /** リーダを閉じた回数 */
+    private long closeCount = 0;
+
+    /**
+     * {@code DatabaseRecordMetricsListener}を生成する。
+     *
+     * @param name ログに出力するリーダの名前
+     */
+    @Published
+    public DatabaseRecordMetricsListener(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 何もしない。
+     */
+    @Override
+    public void beforeReadRecords() {
+        // nop
+    }
+
+    /**
+     * ステートメントの実行時間を集計する。
+     * <p/>
+     * 実行時間が閾値以上の場合は、INFOレベルのログを出力する。
+     *
+     * @param elapsedTime ステートメントの実行に要した時間(ミリ秒)
+     */
+    @Override
+    public synchronized void afterReadRecords(long elapsedTime) {
+        executeCount++;
+        totalExecuteTime += elapsedTime;
+        lastExecuteTime = elapsedTime;
+        if (elapsedTime > maxExecuteTime) {
+            maxExecuteTime = elapsedTime;
+        }
+        if (slowQueryThreshold > 0 && elapsedTime >= slowQueryThreshold) {
+            LOGGER.logInfo("slow query detected. reader name = [" + name + "], elapsed time = ["
+                    + elapsedTime + "ms], threshold = [" + slowQueryThreshold + "ms]");
+        }
+    }
+
+    /**
+     * 読み込んだレコード数を集計する。
+     *
+     * @param readCount 直近のステートメント実行以降に読み込んだレコード数
+     */
+    @Override
+    public synchronized void afterAllRecordsRead(long readCount) {
+        exhaustedCount++;
+        lastReadCount = readCount;
+        totalReadCount += readCount;
+    }
+
+    /**
+     * リーダを閉じた回数を集計する。
+     */
+    @Override
+    public synchronized void afterClose() {
+        closeCount++;
+    }
+
+    /**
+     * ステートメント実行時間の閾値を設定する。
+     * <p/>
+     * ステートメントの実行時間が本設定値以上となった場合に、INFOレベルのログを出力する。
+     * 0以下を設定した場合は、ログを出力しない。デフォルトは0。
+     *
+     * @param slowQueryThreshold ステートメント実行時間の閾値(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized DatabaseRecordMetricsListener setSlowQueryThreshold(long slowQueryThreshold) {
+        this.slowQueryThreshold = slowQueryThreshold;
+        return this;
+    }
+
+    /**
+     * ステートメントの実行回数を取得する。
+     *
+     * @return ステートメントの実行回数
+     */
+    public synchronized long getExecuteCount() {
+        return executeCount;
+    }
+
+    /**
+     * ステートメント実行時間の合計を取得する。
+     *
+     * @return ステートメント実行時間の合計(ミリ秒)
+     */
+    public synchronized long getTotalExecuteTime() {
+        return totalExecuteTime;
+    }
+
+    /**
+     * ステートメント実行時間の最大値を取得する。
+     *
+     * @return ステートメント実行時間の最大値(ミリ秒)
+     */
+    public synchronized long getMaxExecuteTime() {
+        return maxExecuteTime;
+    }
+
+    /**
+     * 直近のステートメント実行時間を取得する。
+     *
+     * @return 直近のステートメント実行時間(ミリ秒)
+     */
+    public synchronized long getLastExecuteTime() {
+        return lastExecuteTime;
+    }
+
+    /**
+     * 参照結果の終端に到達した回数を取得する。
+     *
+     * @return 参照結果の終端に到達した回数
+     */
+    public synchronized long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+    /**
+     * 直近に終端まで読み込んだ参照結果のレコード数を取得する。
+     *
+     * @return 直近の参照結果から読み込んだレコード数
+     */
+    public synchronized long getLastReadCount() {
+        return lastReadCount;
+    }
+
+    /**
+     * 終端まで読み込んだ参照結果のレコード数の合計を取得する。
+     *
+     * @return 読み込んだレコード数の合計
+     */
+    public synchronized long getTotalReadCount() {
+        return totalReadCount;
+    }
+
+    /**
+     * リーダを閉じた回数を取得する。
+     *
+     * @return リーダを閉じた回数
+     */
+    public synchronized long getCloseCount() {
+        return closeCount;
+    }
+}
@@ -1,9 +1,12 @@
 package nablarch.fw.reader;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.ResultSetIterator;
 import nablarch.core.db.statement.SqlPStatement;
 import nablarch.core.db.statement.SqlRow;
 import nablarch.core.util.annotation.Published;
@@ -12,6 +15,14 @@ import nablarch.fw.ExecutionContext;
 
 /**
  * データベースの参照結果を1レコードづつ読み込むデータリーダ。
+ * <p/>
+ * 参照結果はカーソルから1レコードづつ取り出すため、ヒープ上に保持されるレコードは
+ * JDBCドライバが1回のフェッチで取得する件数分のみとなる。
+ * フェッチサイズは{@link #setFetchSize(int)}で指定できる。
+ * 指定しない場合は、JDBCドライバのデフォルト値が使用される。
+ * <p/>
+ * {@link #setCompactRow(boolean)}を有効にすると、カラムの情報を参照結果全体で共有し、
+ * レコード毎にはカラムの値のみを保持する軽量な{@link SqlRow}を返却する。
  *
  * @author Iwauo Tajima
  */
@@ -20,6 +31,9 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
     /** 参照結果レコードのイテレータ */
     private Iterator<SqlRow> records = null;
 
+    /** 参照結果 */
+    private ResultSetIterator resultSet = null;
+
     /** テーブル参照用SQLステートメント */
     private SqlPStatement statement;
 
@@ -32,6 +46,21 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
     /** データベースレコードリスナ */
     private DatabaseRecordListener listener;
 
+    /** フェッチサイズ(0の場合はJDBCドライバのデフォルト値) */
+    private int fetchSize = 0;
+
+    /** 軽量なレコード表現を使用するか否か */
+    private boolean compactRow = false;
+
+    /** 直近のステートメント実行以降に読み込んだレコード数 */
+    private long readCount = 0;
+
+    /** このリーダが読み込んだレコードの総数 */
+    private long totalReadCount = 0;
+
+    /** 直近のステートメント実行の参照結果を終端まで読み込んだか否か */
+    private boolean exhausted = false;
+
     /**
      * {@code DatabaseRecordReader}オブジェクトを生成する。
      */
@@ -54,7 +83,39 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
         if (records == null) {
             readRecords();
         }
-        return records.hasNext() ? records.next() : null;
+        if (!records.hasNext()) {
+            notifyExhausted();
+            return null;
+        }
+        countUp(1);
+        return records.next();
+    }
+
+    /**
+     * 参照結果のレコードを指定された件数分まとめて返却する。
+     * <p/>
+     * 初回読み込み時にデータベースからレコードを取得し、キャッシュする。<br/>
+     * 参照結果に残っているレコードが指定件数に満たない場合は、残りのレコードのみを返却する。<br/>
+     * 参照結果に次のレコードが存在しない場合、{@code null}を返す。
+     *
+     * @param ctx 実行コンテキスト
+     * @param maxCount 1回で返却する最大レコード数
+     * @return レコードのリスト
+     */
+    synchronized List<SqlRow> read(ExecutionContext ctx, int maxCount) {
+        if (records == null) {
+            readRecords();
+        }
+        if (!records.hasNext()) {
+            notifyExhausted();
+            return null;
+        }
+        List<SqlRow> chunk = new ArrayList<SqlRow>(maxCount);
+        while (chunk.size() < maxCount && records.hasNext()) {
+            chunk.add(records.next());
+        }
+        countUp(chunk.size());
+        return chunk;
     }
 
     /**
@@ -70,21 +131,29 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
         if (records == null) {
             readRecords();
         }
-        return records.hasNext();
+        if (!records.hasNext()) {
+            notifyExhausted();
+            return false;
+        }
+        return true;
     }
     
     /**
      *  内部的にキャッシュしている各種リソースを解放する。
      *  <p/>
-     *  この実装では、レコードの読み込みに使用したステートメントオブジェクトが
+     *  この実装では、参照結果およびレコードの読み込みに使用したステートメントオブジェクトが
      *  {@code null}でない場合、解放する。
      *
      *  @param ctx 実行コンテキスト
      */
     public synchronized void close(ExecutionContext ctx) {
+        closeResultSet();
         if (statement != null) {
             statement.close();
         }
+        if (listener instanceof DatabaseRecordLifecycleListener) {
+            ((DatabaseRecordLifecycleListener) listener).afterClose();
+        }
     }
 
     /**
@@ -100,6 +169,8 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
 
     /**
      * 参照結果のイテレータをキャッシュする。
+     * <p/>
+     * 前回の参照結果が残っている場合は、そのカーソルを閉じてからステートメントを再実行する。
      *
      * @throws IllegalStateException SQLステートメントが{@code null}の場合
      */
@@ -109,18 +180,66 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
             listener.beforeReadRecords();
         }
 
+        closeResultSet();
+        long start = System.currentTimeMillis();
         if (statement != null) {
-            records = statement.executeQuery().iterator();
+            if (fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            resultSet = statement.executeQuery();
         } else if (parameterizedSqlPStatement != null) {
+            if (fetchSize > 0) {
+                parameterizedSqlPStatement.setFetchSize(fetchSize);
+            }
             if (condition instanceof Map<?, ?>) {
-                records = parameterizedSqlPStatement.executeQueryByMap(
-                        (Map<String, ?>) condition).iterator();
+                resultSet = parameterizedSqlPStatement.executeQueryByMap((Map<String, ?>) condition);
             } else {
-                records = parameterizedSqlPStatement.executeQueryByObject(condition).iterator();
+                resultSet = parameterizedSqlPStatement.executeQueryByObject(condition);
             }
         } else {
             throw new IllegalStateException("Statement was not set.");
         }
+        records = compactRow ? CompactSqlRow.iterator(resultSet) : resultSet.iterator();
+        readCount = 0;
+        exhausted = false;
+        if (listener instanceof DatabaseRecordLifecycleListener) {
+            ((DatabaseRecordLifecycleListener) listener).afterReadRecords(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 参照結果の終端に到達したことをリスナに通知する。
+     * <p/>
+     * 通知はステートメントの実行毎に1回のみ行う。
+     */
+    private void notifyExhausted() {
+        if (exhausted) {
+            return;
+        }
+        exhausted = true;
+        if (listener instanceof DatabaseRecordLifecycleListener) {
+            ((DatabaseRecordLifecycleListener) listener).afterAllRecordsRead(readCount);
+        }
+    }
+
+    /**
+     * キャッシュしている参照結果のカーソルを閉じる。
+     */
+    private void closeResultSet() {
+        if (resultSet != null) {
+            resultSet.close();
+            resultSet = null;
+        }
+    }
+
+    /**
+     * 読み込んだレコード数を加算する。
+     *
+     * @param count 読み込んだレコード数
+     */
+    private void countUp(int count) {
+        readCount += count;
+        totalReadCount += count;
     }
 
     /**
@@ -158,6 +277,9 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
      * <p/>
      * 本リーダにリスナを設定することで、
      * 処理対象レコードをデータベースから取得する前に任意の処理を実行することができる。
+     * <p/>
+     * {@link DatabaseRecordLifecycleListener}を設定した場合は、ステートメント実行後、
+     * 参照結果の終端到達時、およびリーダを閉じた後にもコールバック処理が実行される。
      *
      * @param listener データベースレコードリスナ
      * @return このオブジェクト自体
@@ -167,4 +289,91 @@ public class DatabaseRecordReader implements DataReader<SqlRow> {
         this.listener = listener;
         return this;
     }
+
+    /**
+     * 参照結果を取得する際のフェッチサイズを設定する。
+     * <p/>
+     * JDBCドライバは、カーソルからレコードを取り出す際に本設定値分のレコードをまとめて取得する。
+     * 大量のレコードを読み込む場合は、本設定値によりヒープ上に保持されるレコード数と
+     * データベースとのラウンドトリップ回数のバランスを調整すること。
+     * <p/>
+     * 0以下を設定した場合は、JDBCドライバのデフォルト値が使用される。
+     *
+     * @param fetchSize フェッチサイズ
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized DatabaseRecordReader setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * 軽量なレコード表現を使用するか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合、カラム名とキー名の変換表を参照結果全体で共有し、
+     * レコード毎にはカラムの値を格納する配列のみを生成する。
+     * カラム数の多いレコードを大量に読み込む場合に、ヒープの使用量およびGCの負荷を抑えることができる。
+     * <p/>
+     * カラムの値には、通常のレコードと同様にダイアレクトによる値の変換
+     * ({@link nablarch.core.db.statement.ResultSetConvertor})が行われる。
+     * ただし、参照結果に含まれるカラムをレコードから削除することはできない。
+     * <p/>
+     * 設定値は、次回のステートメント実行時から有効となる。デフォルトは{@code false}。
+     *
+     * @param compactRow 軽量なレコード表現を使用する場合は{@code true}
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized DatabaseRecordReader setCompactRow(boolean compactRow) {
+        this.compactRow = compactRow;
+        return this;
+    }
+
+    /**
+     * 参照結果を取得する際のフェッチサイズを取得する。
+     * <p/>
+     * フェッチサイズを設定していない場合は0を返す。
+     *
+     * @return フェッチサイズ
+     */
+    public synchronized int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * データベースレコードリスナを取得する。
+     *
+     * @return データベースレコードリスナ(設定していない場合は{@code null})
+     */
+    DatabaseRecordListener getListener() {
+        return listener;
+    }
+
+    /**
+     * 軽量なレコード表現を使用するか否かを取得する。
+     *
+     * @return 軽量なレコード表現を使用する場合は{@code true}
+     */
+    synchronized boolean isCompactRow() {
+        return compactRow;
+    }
+
+    /**
+     * 直近のステートメント実行({@link #reopen(ExecutionContext)}を含む)以降に読み込んだレコード数を取得する。
+     *
+     * @return 読み込んだレコード数
+     */
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * このリーダが読み込んだレコードの総数を取得する。
+     *
+     * @return 読み込んだレコードの総数
+     */
+    public synchronized long getTotalReadCount() {
+        return totalReadCount;
+    }
 }
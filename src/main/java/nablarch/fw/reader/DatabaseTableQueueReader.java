@@ -1,15 +1,24 @@
 package nablarch.fw.reader;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
 import nablarch.core.db.statement.SqlRow;
 import nablarch.core.log.Logger;
 import nablarch.core.log.LoggerManager;
+import nablarch.core.util.StringUtil;
 import nablarch.core.util.annotation.Published;
 import nablarch.fw.DataReader;
 import nablarch.fw.ExecutionContext;
@@ -30,6 +39,54 @@ import nablarch.fw.ExecutionContext;
  * <p/>
  * 対象のレコードが、他のスレッドで処理中である場合には、次のレコードを読み込み再度チェックを行う。
  * 対象のレコードが、他のスレッドで処理中でない場合には、読み込んだレコードをクライアントに返却する。
+ * なお、処理中のまま終了したスレッドのレコードは、再検索の前に処理中のレコードから除外する。
+ * <p/>
+ * 処理対象レコードが存在しない場合の待機時間は、デフォルトでは常にコンストラクタで指定した待機時間となる。
+ * {@link #setMaxWaitTime(int)}で最大待機時間を設定した場合は、待機時間を以下のように調整する。
+ * <ul>
+ *     <li>再検索により処理対象レコードが取得できた場合、次回の待機時間を0とする。</li>
+ *     <li>再検索により処理対象レコードが取得できなかった場合、次回の待機時間を2倍にする(最大待機時間まで)。
+ *     待機時間が0の場合は、コンストラクタで指定した待機時間とする。</li>
+ * </ul>
+ * これにより、処理対象レコードが継続して登録される間は遅延なく処理し、
+ * 処理対象レコードが存在しない間はデータベースへのアクセス頻度を抑えることができる。
+ * <p/>
+ * 読み込んだレコードの識別情報は、デフォルトではレコード毎にログに出力する。
+ * 処理件数が多く、レコード毎のログ出力が負荷となる場合は、{@link #setSummaryLogInterval(long)}で
+ * 一定時間毎に読み込み件数を集計して出力する集計モードとすること。
+ * 集計モードでは、{@link #setLogSampleInterval(int)}で指定した件数毎に1件のみ、識別情報を出力する。
+ * いずれの場合も、ログ出力はリーダのロックを解放した後に行う。
+ * <p/>
+ * {@link #setSignal(TableQueueSignal)}で通知を設定した場合は、待機時間分スリープする代わりに、
+ * 処理対象レコードが登録されたことの通知を最大で待機時間分待ち、通知を受けた時点で再検索を行う。
+ * <p/>
+ * 処理対象レコードを取得するSQLの実行コストが高い場合は、{@link #setIncrementalStatement(ParameterizedSqlPStatement, Map, String)}で
+ * 差分検索用のステートメントを設定すること。
+ * 設定した場合、再検索時には返却済みのレコードのキー(ウォーターマーク)より大きいレコードのみを検索し、
+ * 処理中のレコードを毎回読み直すことを避ける。
+ * ウォーターマークより小さいキーで後から登録されたレコードや、処理に失敗して未処理に戻ったレコードを取りこぼさないよう、
+ * {@link #setFullScanInterval(int)}で指定した回数毎に、コンストラクタで指定したリーダによる全件の再検索を行う。
+ * <p/>
+ * 複数のプロセスで同一のテーブルを処理する場合は、{@link #setClaimer(TableQueueClaimer)}で
+ * レコードを確保するクラスを設定すること。
+ * レコードを確保するクラスにリース期限を設定した場合は、処理中のレコードのリース期限を
+ * バックグラウンドのスレッドで定期的に延長する。
+ * レコードの確保および確保の解除は、他のスレッドの読み込みを待たせないよう、リーダのロックを解放した後に行う。
+ * {@link TableQueueClaimer#setClaimSize(int)}で2以上を設定した場合は、複数のレコードをまとめて確保し、
+ * 確保したレコードを本リーダ内のバッファから順に返却する。
+ * <p/>
+ * 同一のキー(口座番号など)を持つレコードを登録順に処理する必要がある場合は、
+ * {@link #setPartitionColumn(String)}でキーとなるカラム名を設定すること。
+ * 設定した場合、他のスレッドで処理中のレコードと同じキーを持つレコードは読み飛ばし、
+ * 同じカーソル内の後続の同じキーを持つレコードも併せて読み飛ばす(読み飛ばしたレコードは再検索後に読み込む)。
+ * これにより、同じキーを持つレコードは処理対象レコードを取得するSQLのソート順に1件ずつ処理され、
+ * 異なるキーを持つレコードは全てのスレッドで並行して処理される。
+ * このため、処理対象レコードを取得するSQLは登録順にソートすること。
+ * <p/>
+ * 業務処理が失敗し続けるレコードを処理対象から除外する場合は、{@link #setQuarantine(TableQueueQuarantine)}で
+ * レコードを隔離するクラスを設定すること。
+ * 設定した場合、返却済みのレコードを再度読み込んだ時点で前回の処理が失敗したものとみなし、
+ * 失敗回数が上限に達したレコードを隔離する。
  *
  * @author hisaaki sioiri
  * @see DatabaseRecordReader
@@ -43,123 +100,1212 @@ public class DatabaseTableQueueReader implements DataReader<SqlRow> {
     private final WorkingInputDataHolder workingInputDataHolder = new WorkingInputDataHolder();
 
     /**
-     * データベースリーダ。
+     * データベースリーダ。
+     * <p/>
+     * データベースへのアクセスは、このリーダに処理を移譲する。
+     */
+    private final DatabaseRecordReader originalReader;
+
+    /**
+     * データが存在しない場合の待機時間(ミリ秒)。
+     */
+    private final int waitTime;
+
+    /** 主キーのカラム名リスト */
+    private final String[] primaryKeys;
+
+    /** リーダが閉じられているか否か */
+    private volatile boolean closed;
+
+    /** データが存在しない場合の最大待機時間(ミリ秒。待機時間以下の場合は待機時間を調整しない) */
+    private int maxWaitTime = 0;
+
+    /** 次回、データが存在しない場合に待機する時間(ミリ秒) */
+    private long effectiveWaitTime;
+
+    /** 再検索で処理対象レコードが取得できなかった回数 */
+    private long emptyPollCount = 0;
+
+    /** 再検索で処理対象レコードが連続して取得できなかった回数 */
+    private long consecutiveEmptyPollCount = 0;
+
+    /** レコードを確保するクラス({@code null}の場合は確保を行わない) */
+    private TableQueueClaimer claimer;
+
+    /** 差分検索のウォーターマークを設定するパラメータ名 */
+    private static final String WATERMARK_PARAMETER = "watermark";
+
+    /** まとめて読み込む際に、再検索する間隔の下限(ミリ秒) */
+    private static final long MIN_BATCH_POLL_INTERVAL = 10;
+
+    /** レコードの読み込みに使用中のリーダ(全件検索用または差分検索用) */
+    private DatabaseRecordReader activeReader;
+
+    /** 差分検索用のリーダ({@code null}の場合は差分検索を行わない) */
+    private DatabaseRecordReader incrementalReader;
+
+    /** 差分検索の条件 */
+    private final Map<String, Object> incrementalCondition = new HashMap<String, Object>();
+
+    /** ウォーターマークとするカラム名 */
+    private String watermarkColumn;
+
+    /** 返却済みのレコードのウォーターマークカラムの最大値 */
+    private Comparable<Object> watermark;
+
+    /** 全件の再検索を行う間隔(再検索の回数) */
+    private int fullScanInterval = 10;
+
+    /** 前回の全件検索以降に差分検索を行った回数 */
+    private int pollsSinceFullScan = 0;
+
+    /** 差分検索を行った回数 */
+    private long incrementalPollCount = 0;
+
+    /** 全件の再検索を行った回数 */
+    private long fullScanCount = 0;
+
+    /** 確保したレコードと、確保した時刻 */
+    private final Map<WorkingKey, Long> claimedTimes = new HashMap<WorkingKey, Long>();
+
+    /** リース期限を延長するスレッド */
+    private Thread leaseRenewer;
+
+    /** まとめて確保し、まだ返却していないレコード(確保した順) */
+    private final Map<WorkingKey, SqlRow> claimedRecords = new LinkedHashMap<WorkingKey, SqlRow>();
+
+    /** パーティションのカラム名({@code null}の場合はパーティション単位の逐次処理を行わない) */
+    private String partitionColumn;
+
+    /** スレッドと、そのスレッドが処理中のレコードのパーティション */
+    private final Map<Thread, List<Object>> workingPartitions = new HashMap<Thread, List<Object>>();
+
+    /** 処理中のパーティションと、そのパーティションのレコードを処理中のスレッド数 */
+    private final Map<Object, Integer> workingPartitionCounts = new HashMap<Object, Integer>();
+
+    /** 現在のカーソルで読み飛ばしたレコードのパーティション */
+    private final Set<Object> deferredPartitions = new HashSet<Object>();
+
+    /** パーティションが処理中のため読み飛ばしたレコードの件数 */
+    private long deferredCount = 0;
+
+    /** レコードを隔離するクラス({@code null}の場合は隔離を行わない) */
+    private TableQueueQuarantine quarantine;
+
+    /** 処理中のレコードから除外し、まだ確保の解除を行っていないレコードのキー */
+    private final List<WorkingKey> pendingReleases = new ArrayList<WorkingKey>();
+
+    /** 隔離の対象とし、まだデータベースの更新を行っていないレコード */
+    private final List<SqlRow> pendingQuarantines = new ArrayList<SqlRow>();
+
+    /** レコードを返却した回数(再度読み込んだ時点で、前回までの処理が失敗した回数となる) */
+    private final Map<WorkingKey, Integer> deliveryCounts = new HashMap<WorkingKey, Integer>();
+
+    /** 隔離したレコードのキー */
+    private final Set<WorkingKey> quarantinedKeys = new HashSet<WorkingKey>();
+
+    /** 前回の全件検索以降に読み込んだ、返却回数または隔離を記録済みのレコードのキー */
+    private final Set<WorkingKey> seenKeys = new HashSet<WorkingKey>();
+
+    /** 処理対象レコードの登録の通知({@code null}の場合は待機時間分スリープする) */
+    private volatile TableQueueSignal signal;
+
+    /** 待機中に通知を受けて再検索を行った回数 */
+    private long signaledCount = 0;
+
+    /** 読み込み件数を集計してログに出力する間隔(ミリ秒。0以下の場合はレコード毎に出力する) */
+    private volatile long summaryLogInterval = 0;
+
+    /** 集計モードで識別情報をログに出力する間隔(件数。0以下の場合は出力しない) */
+    private volatile int logSampleInterval = 0;
+
+    /** 返却したレコードの件数 */
+    private final AtomicLong readCount = new AtomicLong();
+
+    /** 前回の集計ログ出力以降に返却したレコードの件数 */
+    private final AtomicLong summaryReadCount = new AtomicLong();
+
+    /** 集計の開始時刻(0の場合は未開始) */
+    private final AtomicLong summaryStartTime = new AtomicLong();
+
+    /**
+     * データベースをキューとして扱うリーダを生成する。
+     *
+     * @param originalReader データベースレコードリーダ
+     * @param waitTime データが存在しない場合の待機時間（ミリ秒）
+     * @param primaryKeys レコードを一意に識別する主キーのカラム名
+     */
+    @Published
+    public DatabaseTableQueueReader(DatabaseRecordReader originalReader, int waitTime, String... primaryKeys) {
+        this.originalReader = originalReader;
+        activeReader = originalReader;
+        this.waitTime = waitTime;
+        this.primaryKeys = primaryKeys;
+        effectiveWaitTime = waitTime;
+        verifyParameter();
+    }
+
+    /**
+     * 次のレコードを読み込み返却する。
+     * <p/>
+     * 本実装では、次のレコードが存在しない場合（カーソルの終端に達した場合）、
+     * カーソルを再度開き直し最新の情報を取得後にレコードを読み込み返却する。
+     * <p/>
+     * 読み込んだレコードが他スレッドで処理中のデータの場合には、
+     * そのレコードを読み飛ばし、他のスレッドが処理していないレコードを返却する。
+     * <p/>
+     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     */
+    @Override
+    public SqlRow read(ExecutionContext ctx) {
+        SqlRow record = readRecord(ctx, true, true);
+        if (record != null) {
+            logRead(record);
+        }
+        return record;
+    }
+
+    /**
+     * 最大件数に達するか、最初のレコードを読み込んでから最大待ち時間を経過するまで、レコードを読み込み返却する。
+     * <p/>
+     * 最初のレコードは{@link #read(ExecutionContext)}と同様に読み込む。
+     * 以降は、カーソルの終端に達した場合、最大待ち時間の範囲で待機と再検索を行い、その間に登録されたレコードも読み込む。
+     * 再検索は、待機時間(待機時間が{@value #MIN_BATCH_POLL_INTERVAL}ミリ秒未満の場合は{@value #MIN_BATCH_POLL_INTERVAL}ミリ秒)毎に行うため、
+     * 最大待ち時間の途中で登録されたレコードは、最大待ち時間の経過を待たずに読み込まれる。
+     * 返却した全てのレコードは、現在のスレッドが次に読み込みを行うまで処理中のレコードとして扱う。
+     * 最大待ち時間の間の再検索は、処理対象レコードが取得できなくても待機時間の調整および取得できなかった回数に反映しない。
+     *
+     * @param ctx 実行コンテキスト
+     * @param maxSize 最大件数
+     * @param maxLatency 最大待ち時間(ミリ秒)
+     * @return レコードのリスト(最初のレコードが存在しない場合は{@code null})
+     */
+    List<SqlRow> readBatch(ExecutionContext ctx, int maxSize, long maxLatency) {
+        SqlRow first = readRecord(ctx, true, true);
+        if (first == null) {
+            return null;
+        }
+        List<SqlRow> batch = new ArrayList<SqlRow>(maxSize);
+        batch.add(first);
+        long deadline = System.currentTimeMillis() + maxLatency;
+        while (batch.size() < maxSize) {
+            // 最大待ち時間の間の再検索は、キューが空になったことを示すものではないため、待機時間を調整しない。
+            SqlRow record = readRecord(ctx, false, false);
+            if (record != null) {
+                batch.add(record);
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || closed) {
+                break;
+            }
+            waitThread(Math.min(remaining, Math.max(waitTime, MIN_BATCH_POLL_INTERVAL)));
+        }
+        for (SqlRow record : batch) {
+            logRead(record);
+        }
+        return batch;
+    }
+
+    /**
+     * 次のレコードを読み込み返却する。
+     * <p/>
+     * カーソルの操作と処理中のレコードの管理はリーダのロックを取得して行い、
+     * レコードの確保、確保の解除および隔離のためのデータベースの更新は、他のスレッドの読み込みを待たせないよう、
+     * リーダのロックを解放した後に行う。
+     * レコードを1件ずつ確保する場合、読み込んだレコードはロック内で処理中のレコードとして予約し、
+     * ロックを解放した後に確保する。確保できなかった場合は予約を取り消し、次のレコードを読み込む。
+     *
+     * @param ctx 実行コンテキスト
+     * @param releasePrevious 現在のスレッドが処理中のレコードを、処理中のレコードから除外する場合は{@code true}
+     *                        (カーソルの終端に達していた場合は、再検索の前に待機時間分待機する)
+     * @param adaptive 再検索の結果を、待機時間の調整および処理対象レコードが取得できなかった回数に反映する場合は{@code true}
+     * @return レコード
+     */
+    private SqlRow readRecord(ExecutionContext ctx, boolean releasePrevious, boolean adaptive) {
+        boolean first = true;
+        boolean polled = false;
+        while (true) {
+            SqlRow record;
+            List<WorkingKey> released;
+            List<SqlRow> quarantined;
+            synchronized (this) {
+                if (first) {
+                    startLeaseRenewer();
+                }
+                long waitTime = releasePrevious ? effectiveWaitTime : 0;
+                if ((!first || !releasePrevious) && closed) {
+                    record = null;
+                } else if (claimer != null && claimer.getClaimSize() > 1) {
+                    record = readClaimedRecord(ctx, releasePrevious, waitTime, adaptive);
+                } else {
+                    if (first) {
+                        polled = prepareCursor(ctx, releasePrevious, waitTime) && adaptive;
+                    }
+                    record = readCandidate(ctx, releasePrevious, polled);
+                }
+                released = takePendingReleases();
+                quarantined = takePendingQuarantines();
+            }
+            releaseRecords(released);
+            quarantineRecords(quarantined);
+            if (record == null || claimer == null || claimer.getClaimSize() > 1) {
+                return record;
+            }
+
+            record = claimCandidate(record, polled);
+            if (record != null) {
+                return record;
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * カーソルの終端に達していた場合は、待機時間分待機後にカーソルを開き直す。
+     * <p/>
+     * 指定された場合は、現在のスレッドが処理中のレコードを処理中のレコードから除外する。
+     * リーダのロックを取得した状態で呼び出すこと。
+     *
+     * @param ctx 実行コンテキスト
+     * @param releasePrevious 現在のスレッドが処理中のレコードを、処理中のレコードから除外する場合は{@code true}
+     * @param waitTime カーソルの終端に達していた場合に、再検索の前に待機する時間(ミリ秒)
+     * @return カーソルを開き直した場合は{@code true}
+     */
+    private boolean prepareCursor(ExecutionContext ctx, boolean releasePrevious, long waitTime) {
+        boolean reopened = false;
+        if (!activeReader.hasNext(ctx)) {
+            // データが存在しない場合は、待機時間分待機後にリソース(カーソル)を開き直す。
+            waitThread(waitTime);
+            reopen(ctx);
+            reopened = true;
+        }
+        if (releasePrevious) {
+            releaseWorking(Thread.currentThread());
+        }
+        return reopened;
+    }
+
+    /**
+     * 他のスレッドで処理中でないレコードを読み込み、処理中のレコードとして追加する。
+     * <p/>
+     * レコードを確保するクラスが設定されている場合は、確保前のレコードを予約として追加し返却する。
+     * 確保の結果は、{@link #claimCandidate(SqlRow, boolean)}で反映する。
+     * リーダのロックを取得した状態で呼び出すこと。
+     *
+     * @param ctx 実行コンテキスト
+     * @param releasePrevious 現在のスレッドが処理中のレコードを、読み飛ばさない場合は{@code true}
+     * @param polled 再検索の結果を待機時間の調整に反映する場合は{@code true}
+     * @return レコード(カーソルの終端に達した場合は{@code null})
+     */
+    private SqlRow readCandidate(ExecutionContext ctx, boolean releasePrevious, boolean polled) {
+        Thread key = Thread.currentThread();
+        while (true) {
+            SqlRow record = activeReader.read(ctx);
+            if (record == null) {
+                if (polled) {
+                    updateWaitTime(false);
+                }
+                return null;
+            }
+
+            WorkingKey workingKey = new WorkingKey(primaryKeys, record);
+            if (isQuarantined(workingKey)) {
+                continue;
+            }
+            if (!releasePrevious && workingInputDataHolder.isWorking(workingKey)) {
+                // 現在のスレッドが処理中のレコードも含めて読み飛ばす。
+                continue;
+            }
+            Object partition = getPartition(record);
+            if (!workingInputDataHolder.isWorking(workingKey) && deferIfPartitionBusy(partition)) {
+                continue;
+            }
+            if (workingInputDataHolder.add(key, workingKey)) {
+                if (claimer != null) {
+                    // 確保するまでの間、他のスレッドが同じレコードおよびパーティションを読み込まないよう予約する。
+                    addWorkingPartition(key, partition);
+                    return record;
+                }
+                if (exceedsMaxFailureCount(workingKey)) {
+                    quarantineRecord(key, workingKey, record);
+                    continue;
+                }
+                addWorkingPartition(key, partition);
+                updateWatermark(record);
+                if (polled) {
+                    updateWaitTime(true);
+                }
+                return record;
+            }
+        }
+    }
+
+    /**
+     * 予約したレコードを確保し、確保の結果を反映する。
+     * <p/>
+     * 確保はリーダのロックを保持せずに行う。
+     * 他のプロセスで確保済みの場合、確保中にリーダが閉じられた場合、および失敗回数が上限に達し隔離の対象とした場合は、
+     * 予約を取り消し{@code null}を返却する。
+     *
+     * @param record 予約したレコード
+     * @param polled 再検索の結果を待機時間の調整に反映する場合は{@code true}
+     * @return 確保したレコード(返却できない場合は{@code null})
+     */
+    private SqlRow claimCandidate(SqlRow record, boolean polled) {
+        Thread key = Thread.currentThread();
+        WorkingKey workingKey = new WorkingKey(primaryKeys, record);
+        Object partition = getPartition(record);
+        boolean claimed;
+        try {
+            claimed = claimer.claim(workingKey.values);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                cancelCandidate(key, workingKey, partition);
+            }
+            throw e;
+        }
+
+        List<WorkingKey> released = Collections.emptyList();
+        List<SqlRow> quarantined;
+        SqlRow result = null;
+        synchronized (this) {
+            if (!claimed) {
+                // 他のプロセスで確保済みのレコードは読み飛ばす。
+                cancelCandidate(key, workingKey, partition);
+                deferPartition(partition);
+            } else if (closed) {
+                // 確保中に閉じられた場合は、閉じる際の解除の対象外となるため、ここで確保を解除する。
+                cancelCandidate(key, workingKey, partition);
+                released = Collections.singletonList(workingKey);
+            } else if (exceedsMaxFailureCount(workingKey)) {
+                removeWorkingPartition(key, partition);
+                quarantineRecord(key, workingKey, record);
+            } else {
+                claimedTimes.put(workingKey, System.currentTimeMillis());
+                updateWatermark(record);
+                if (polled) {
+                    updateWaitTime(true);
+                }
+                result = record;
+            }
+            quarantined = takePendingQuarantines();
+        }
+        releaseRecords(released);
+        quarantineRecords(quarantined);
+        return result;
+    }
+
+    /**
+     * 予約したレコードを、処理中のレコードから除外する。
+     * <p/>
+     * リーダのロックを取得した状態で呼び出すこと。
+     *
+     * @param executor 実行スレッド
+     * @param workingKey 予約したレコードのキー
+     * @param partition 予約したレコードのパーティション
+     */
+    private void cancelCandidate(Thread executor, WorkingKey workingKey, Object partition) {
+        workingInputDataHolder.remove(executor, workingKey);
+        removeWorkingPartition(executor, partition);
+    }
+
+    /**
+     * まとめて確保したレコードを1件返却する。
+     * <p/>
+     * 確保済みのレコードの件数が下限を下回った場合は、次のレコードをまとめて確保する。
+     * 確保済みのレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @param releasePrevious 現在のスレッドが処理中のレコードを、処理中のレコードから除外する場合は{@code true}
+     * @param waitTime 確保済みのレコードが存在しない場合に、再検索の前に待機する時間(ミリ秒)
+     * @param adaptive 再検索の結果を待機時間の調整に反映する場合は{@code true}
+     * @return レコード
+     */
+    private SqlRow readClaimedRecord(ExecutionContext ctx, boolean releasePrevious, long waitTime, boolean adaptive) {
+        if (claimedRecords.size() < Math.max(claimer.getLowWaterMark(), 1)) {
+            claimRecords(ctx, waitTime, adaptive);
+        }
+
+        Thread key = Thread.currentThread();
+        if (releasePrevious) {
+            releaseWorking(key);
+        }
+        Map.Entry<WorkingKey, SqlRow> next;
+        while (true) {
+            Iterator<Map.Entry<WorkingKey, SqlRow>> iterator = claimedRecords.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            next = iterator.next();
+            iterator.remove();
+            workingInputDataHolder.add(key, next.getKey());
+            if (!exceedsMaxFailureCount(next.getKey())) {
+                break;
+            }
+            quarantineRecord(key, next.getKey(), next.getValue());
+        }
+        addWorkingPartition(key, getPartition(next.getValue()));
+        updateWatermark(next.getValue());
+        return next.getValue();
+    }
+
+    /**
+     * 確保済みのレコードが指定件数になるまで、次のレコードを読み込みまとめて確保する。
+     * <p/>
+     * カーソルの終端に達している場合、確保済みのレコードが残っている間は再検索を行わない。
+     * 確保済みのレコードが存在しない場合は、待機時間分待機後にカーソルを開き直す。
+     *
+     * @param ctx 実行コンテキスト
+     * @param waitTime 再検索の前に待機する時間(ミリ秒)
+     * @param adaptive 再検索の結果を待機時間の調整に反映する場合は{@code true}
+     */
+    private void claimRecords(ExecutionContext ctx, long waitTime, boolean adaptive) {
+        boolean reopened = false;
+        if (!activeReader.hasNext(ctx)) {
+            if (!claimedRecords.isEmpty()) {
+                return;
+            }
+            waitThread(waitTime);
+            reopen(ctx);
+            reopened = true;
+        }
+
+        // 確保済みのレコードは別々のスレッドに返却されるため、パーティション毎に1件までとする。
+        Set<Object> bufferedPartitions = new HashSet<Object>();
+        for (SqlRow record : claimedRecords.values()) {
+            bufferedPartitions.add(getPartition(record));
+        }
+        int claimSize = claimer.getClaimSize();
+        while (claimedRecords.size() < claimSize) {
+            Map<WorkingKey, SqlRow> candidates = new LinkedHashMap<WorkingKey, SqlRow>();
+            while (claimedRecords.size() + candidates.size() < claimSize) {
+                SqlRow record = activeReader.read(ctx);
+                if (record == null) {
+                    break;
+                }
+                WorkingKey workingKey = new WorkingKey(primaryKeys, record);
+                if (workingInputDataHolder.isWorking(workingKey) || claimedRecords.containsKey(workingKey)
+                        || isQuarantined(workingKey)) {
+                    continue;
+                }
+                Object partition = getPartition(record);
+                if (partition != null && bufferedPartitions.contains(partition)) {
+                    deferPartition(partition);
+                    deferredCount++;
+                    continue;
+                }
+                if (deferIfPartitionBusy(partition)) {
+                    continue;
+                }
+                bufferedPartitions.add(partition);
+                candidates.put(workingKey, record);
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+
+            List<Object[]> keyValuesList = new ArrayList<Object[]>(candidates.size());
+            for (WorkingKey workingKey : candidates.keySet()) {
+                keyValuesList.add(workingKey.values);
+            }
+            boolean[] claimed = claimer.claim(keyValuesList);
+            long now = System.currentTimeMillis();
+            int i = 0;
+            for (Map.Entry<WorkingKey, SqlRow> candidate : candidates.entrySet()) {
+                // 他のプロセスで確保済みのレコードは読み飛ばす。
+                if (claimed[i++]) {
+                    claimedRecords.put(candidate.getKey(), candidate.getValue());
+                    claimedTimes.put(candidate.getKey(), now);
+                } else {
+                    deferPartition(getPartition(candidate.getValue()));
+                }
+            }
+        }
+        if (reopened && adaptive) {
+            updateWaitTime(!claimedRecords.isEmpty());
+        }
+    }
+
+    /**
+     * 最新の情報を取得し直す。
+     * <p/>
+     * 差分検索用のステートメントが設定されている場合は、ウォーターマークより大きいキーのレコードのみを検索する。
+     * ただし、ウォーターマークが未確定の場合、および前回の全件検索から全件検索の間隔に達した場合は、
+     * コンストラクタで指定したリーダで全件の再検索を行う。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    private void reopen(ExecutionContext ctx) {
+        releaseTerminatedThreads();
+        deferredPartitions.clear();
+        if (incrementalReader == null || watermark == null || pollsSinceFullScan >= fullScanInterval) {
+            pollsSinceFullScan = 0;
+            fullScanCount++;
+            pruneFailureHistory();
+            activeReader = originalReader;
+        } else {
+            pollsSinceFullScan++;
+            incrementalPollCount++;
+            incrementalCondition.put(WATERMARK_PARAMETER, watermark);
+            activeReader = incrementalReader;
+        }
+        activeReader.reopen(ctx);
+    }
+
+    /**
+     * 処理中のまま終了したスレッドのレコードを、処理中のレコードから除外し確保を解除する。
+     * <p/>
+     * 再検索で最新の状態を取得できるよう、再検索の前に呼び出すこと。
+     */
+    private void releaseTerminatedThreads() {
+        List<WorkingKey> terminated = workingInputDataHolder.removeTerminated();
+        for (WorkingKey workingKey : terminated) {
+            LOGGER.logWarn("record of terminated thread was released. key info: " + Arrays.toString(workingKey.values));
+        }
+        release(terminated);
+        Iterator<Map.Entry<Thread, List<Object>>> executors = workingPartitions.entrySet().iterator();
+        while (executors.hasNext()) {
+            Map.Entry<Thread, List<Object>> entry = executors.next();
+            if (!entry.getKey().isAlive()) {
+                executors.remove();
+                removeWorkingPartitionCounts(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * リース期限を延長するスレッドを起動する。
+     * <p/>
+     * リース期限を設けない場合、既に起動済みの場合、もしくはリーダが閉じられている場合は何もしない。
+     */
+    private void startLeaseRenewer() {
+        if (claimer == null || !claimer.isLeaseEnabled() || leaseRenewer != null || closed) {
+            return;
+        }
+        final long interval = Math.max(claimer.getLeaseTime() / 3, 1);
+        leaseRenewer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!closed) {
+                        Thread.sleep(interval);
+                        renewLeases();
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.logDebug("lease renewer was interrupted.");
+                }
+            }
+        }, "lease-renewer-" + Thread.currentThread().getName());
+        leaseRenewer.setDaemon(true);
+        leaseRenewer.start();
+    }
+
+    /**
+     * 処理中のレコードおよび、まとめて確保したまま返却していないレコードのリース期限を延長する。
+     * <p/>
+     * 終了したスレッドが処理中のレコード、および確保してからリース期限を延長する最大の期間を経過したレコードは延長しない。
+     * データベースへのアクセスはリーダのロックを解放した状態で行うため、延長中もレコードの読み込みは待機しない。
+     * 延長に失敗した場合は、ログを出力し次回の延長を継続する。
+     */
+    private void renewLeases() {
+        List<WorkingKey> workingKeys = new ArrayList<WorkingKey>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long maxLeaseTime = claimer.getMaxLeaseTime();
+            for (Map.Entry<WorkingKey, Long> entry : claimedTimes.entrySet()) {
+                if (workingInputDataHolder.isHeldByTerminatedThread(entry.getKey())) {
+                    continue;
+                }
+                if (maxLeaseTime <= 0 || now - entry.getValue() < maxLeaseTime) {
+                    workingKeys.add(entry.getKey());
+                }
+            }
+        }
+        List<Object[]> keyValuesList = new ArrayList<Object[]>(workingKeys.size());
+        for (WorkingKey workingKey : workingKeys) {
+            keyValuesList.add(workingKey.values);
+        }
+        try {
+            boolean[] renewed = claimer.renew(keyValuesList);
+            for (int i = 0; i < renewed.length; i++) {
+                if (!renewed[i]) {
+                    LOGGER.logWarn("lease of record was lost. key info: " + Arrays.toString(keyValuesList.get(i)));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.logWarn("failed to renew lease.", e);
+        }
+    }
+
+    /**
+     * 返却するレコードのキーで、ウォーターマークを更新する。
+     * <p/>
+     * 差分検索用のステートメントが設定されていない場合は何もしない。
+     * また、現在のカーソルでパーティションが処理中のため読み飛ばしたレコードが存在する場合は、
+     * 読み飛ばしたレコードが差分検索の対象外とならないよう、ウォーターマークを更新しない。
+     *
+     * @param record 返却するレコード
+     * @throws IllegalArgumentException レコードにウォーターマークとするカラムが含まれていない場合
+     */
+    @SuppressWarnings("unchecked")
+    private void updateWatermark(SqlRow record) {
+        if (incrementalReader == null || !deferredPartitions.isEmpty()) {
+            return;
+        }
+        if (!record.containsKey(watermarkColumn)) {
+            throw new IllegalArgumentException(
+                    "watermark column was not found in record. watermark column name = [" + watermarkColumn + ']');
+        }
+        Comparable<Object> value = (Comparable<Object>) record.get(watermarkColumn);
+        if (value != null && (watermark == null || value.compareTo(watermark) > 0)) {
+            watermark = value;
+        }
+    }
+
+    /**
+     * 再検索の結果をもとに、次回の待機時間を更新する。
+     * <p/>
+     * 最大待機時間が設定されていない場合、待機時間は変更しない。
+     *
+     * @param found 再検索で処理対象レコードが取得できた場合は{@code true}
+     */
+    private void updateWaitTime(boolean found) {
+        if (found) {
+            consecutiveEmptyPollCount = 0;
+        } else {
+            emptyPollCount++;
+            consecutiveEmptyPollCount++;
+        }
+        if (maxWaitTime <= waitTime) {
+            return;
+        }
+        if (found) {
+            effectiveWaitTime = 0;
+        } else if (effectiveWaitTime == 0) {
+            effectiveWaitTime = Math.max(waitTime, 1);
+        } else {
+            effectiveWaitTime = Math.min(effectiveWaitTime * 2, maxWaitTime);
+        }
+    }
+
+    /**
+     * 要求の識別情報をログに出力する。
+     * <p/>
+     * 識別情報に個人情報等のようにログに出力すべきではない項目が含まれる場合には、
+     * 本メソッドをオーバーライドしマスク処理などを実施後にログ出力を行うこと。
+     *
+     * @param inputDataIdentifier 要求識別情報
+     */
+    @Published
+    protected void writeLog(InputDataIdentifier inputDataIdentifier) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.logInfo("read database record. key info: " + inputDataIdentifier);
+        }
+    }
+
+    /**
+     * 読み込み件数の集計結果をログに出力する。
+     *
+     * @param count 集計期間中に読み込んだレコードの件数
+     * @param elapsedTime 集計期間(ミリ秒)
+     */
+    @Published
+    protected void writeSummaryLog(long count, long elapsedTime) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.logInfo(String.format(
+                    "read database record summary. count = [%d], elapsed time = [%d]ms, throughput = [%d]records/s",
+                    count, elapsedTime, elapsedTime > 0 ? count * 1000 / elapsedTime : count));
+        }
+    }
+
+    /**
+     * 返却したレコードをログに出力する。
+     * <p/>
+     * 集計モードの場合は件数を集計し、サンプリング対象のレコードのみ識別情報を出力する。
+     * 集計期間を経過していた場合は、集計結果を出力する。
+     * リーダのロックを保持せずに呼び出すこと。
+     *
+     * @param record 返却したレコード
+     */
+    private void logRead(SqlRow record) {
+        long count = readCount.incrementAndGet();
+        long interval = summaryLogInterval;
+        if (interval <= 0) {
+            writeLog(new InputDataIdentifier(primaryKeys, record));
+            return;
+        }
+        summaryReadCount.incrementAndGet();
+        int sampleInterval = logSampleInterval;
+        if (sampleInterval > 0 && count % sampleInterval == 0) {
+            writeLog(new InputDataIdentifier(primaryKeys, record));
+        }
+
+        long now = System.currentTimeMillis();
+        long start = summaryStartTime.get();
+        if (start == 0) {
+            summaryStartTime.compareAndSet(0, now);
+        } else if (now - start >= interval && summaryStartTime.compareAndSet(start, now)) {
+            // 集計期間を経過した場合は、集計期間を切り替えたスレッドのみが出力する。
+            writeSummaryLog(summaryReadCount.getAndSet(0), now - start);
+        }
+    }
+
+    /**
+     * 前回の集計ログ出力以降に返却したレコードが存在する場合に、集計結果をログに出力する。
+     */
+    private void flushSummaryLog() {
+        long start = summaryStartTime.getAndSet(0);
+        long count = summaryReadCount.getAndSet(0);
+        if (summaryLogInterval > 0 && start != 0 && count > 0) {
+            writeSummaryLog(count, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 次に読み込むデータが存在するかどうかを返却する。
+     * <p/>
+     * 本実装ではデータベース上に処理対象データが無くなった場合でも処理を継続するため、常にデータ有り{@code true}を返す。<br/>
+     * このリーダが閉じられた場合は{@code false}を返す。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 読み込むデータが存在する場合 {@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        return !closed;
+    }
+
+    /**
+     * このリーダの利用を停止し、内部的に保持している各種リソースを解放する。
+     * <p/>
+     * レコードを確保するクラスが設定されている場合は、処理中のレコードおよび、
+     * まとめて確保したまま返却していないレコードの確保を解除する。
+     * リース期限を延長するスレッドは、確保を解除する前に停止し終了を待機する。
+     * これにより、確保を解除した後にリース期限の延長が行われることはない。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        Thread renewer;
+        synchronized (this) {
+            closed = true;
+            renewer = leaseRenewer;
+        }
+        if (renewer != null) {
+            stopLeaseRenewer(renewer);
+        }
+        closeResources(ctx);
+    }
+
+    /**
+     * リース期限を延長するスレッドを停止し、終了を待機する。
+     * <p/>
+     * スレッドはリーダのロックを取得して延長対象を決定するため、リーダのロックを保持せずに呼び出すこと。
+     *
+     * @param renewer リース期限を延長するスレッド
+     */
+    private static void stopLeaseRenewer(Thread renewer) {
+        renewer.interrupt();
+        try {
+            renewer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 各種リソースを解放し、確保しているレコードの確保を解除する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    private synchronized void closeResources(ExecutionContext ctx) {
+        originalReader.close(ctx);
+        if (incrementalReader != null) {
+            incrementalReader.close(ctx);
+        }
+        List<Object[]> keyValuesList = new ArrayList<Object[]>();
+        for (WorkingKey workingKey : workingInputDataHolder.removeAll()) {
+            keyValuesList.add(workingKey.values);
+        }
+        for (WorkingKey workingKey : claimedRecords.keySet()) {
+            keyValuesList.add(workingKey.values);
+        }
+        claimedRecords.clear();
+        claimedTimes.clear();
+        workingPartitions.clear();
+        workingPartitionCounts.clear();
+        deferredPartitions.clear();
+        deliveryCounts.clear();
+        quarantinedKeys.clear();
+        seenKeys.clear();
+        flushSummaryLog();
+        if (claimer != null) {
+            claimer.release(keyValuesList);
+        }
+    }
+
+    /**
+     * 現在のスレッドが処理中のレコードを、処理中のレコードから除外する。
+     * <p/>
+     * 複数のリーダから順にレコードを読み込む場合に、現在のスレッドが本リーダ以外のリーダから
+     * レコードを読み込んだ時点で呼び出し、本リーダから読み込んだレコードの処理が終わったことを通知する。
+     */
+    void releaseWorkingRecord() {
+        List<WorkingKey> released;
+        synchronized (this) {
+            releaseWorking(Thread.currentThread());
+            released = takePendingReleases();
+        }
+        releaseRecords(released);
+    }
+
+    /**
+     * 指定したスレッドが処理中のレコードを、処理中のレコードから除外し確保を解除する。
+     *
+     * @param executor 実行スレッド
+     */
+    private void releaseWorking(Thread executor) {
+        removeWorkingPartitionCounts(workingPartitions.remove(executor));
+        release(workingInputDataHolder.remove(executor));
+    }
+
+    /**
+     * 指定したスレッドが処理中のレコードのパーティションとして記録する。
+     *
+     * @param executor 実行スレッド
+     * @param partition パーティション({@code null}の場合は何もしない)
+     */
+    private void addWorkingPartition(Thread executor, Object partition) {
+        if (partition == null) {
+            return;
+        }
+        List<Object> partitions = workingPartitions.get(executor);
+        if (partitions == null) {
+            partitions = new ArrayList<Object>(1);
+            workingPartitions.put(executor, partitions);
+        }
+        partitions.add(partition);
+        Integer count = workingPartitionCounts.get(partition);
+        workingPartitionCounts.put(partition, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * 指定したスレッドが処理中のレコードのパーティションから、パーティションを1件除外する。
+     *
+     * @param executor 実行スレッド
+     * @param partition パーティション({@code null}の場合は何もしない)
+     */
+    private void removeWorkingPartition(Thread executor, Object partition) {
+        if (partition == null) {
+            return;
+        }
+        List<Object> partitions = workingPartitions.get(executor);
+        if (partitions == null || !partitions.remove(partition)) {
+            return;
+        }
+        if (partitions.isEmpty()) {
+            workingPartitions.remove(executor);
+        }
+        removeWorkingPartitionCounts(Collections.singletonList(partition));
+    }
+
+    /**
+     * スレッドが処理を終えたパーティションについて、パーティション毎の処理中のスレッド数を減算する。
+     *
+     * @param partitions スレッドが処理を終えたパーティション({@code null}の場合は何もしない)
+     */
+    private void removeWorkingPartitionCounts(List<Object> partitions) {
+        if (partitions == null) {
+            return;
+        }
+        for (Object partition : partitions) {
+            Integer count = workingPartitionCounts.get(partition);
+            if (count == null || count <= 1) {
+                workingPartitionCounts.remove(partition);
+            } else {
+                workingPartitionCounts.put(partition, count - 1);
+            }
+        }
+    }
+
+    /**
+     * いずれかのスレッドで処理中のパーティションか否か。
+     * <p/>
+     * スレッド数によらず、パーティション毎の処理中のスレッド数から判定する。
+     *
+     * @param partition パーティション
+     * @return 処理中の場合は{@code true}
+     */
+    private boolean isWorkingPartition(Object partition) {
+        return workingPartitionCounts.containsKey(partition);
+    }
+
+    /**
+     * レコードのパーティションを取得する。
+     *
+     * @param record レコード
+     * @return パーティション(パーティションのカラム名が設定されていない場合、および値が{@code null}の場合は{@code null})
+     * @throws IllegalArgumentException レコードにパーティションのカラムが含まれていない場合
+     */
+    private Object getPartition(SqlRow record) {
+        if (partitionColumn == null) {
+            return null;
+        }
+        if (!record.containsKey(partitionColumn)) {
+            throw new IllegalArgumentException(
+                    "partition column was not found in record. partition column name = [" + partitionColumn + ']');
+        }
+        return record.get(partitionColumn);
+    }
+
+    /**
+     * パーティションが他のスレッドで処理中、もしくは現在のカーソルで読み飛ばし済みの場合に、
+     * レコードを読み飛ばすパーティションとして記録する。
+     *
+     * @param partition パーティション({@code null}の場合は読み飛ばさない)
+     * @return レコードを読み飛ばす場合は{@code true}
+     */
+    private boolean deferIfPartitionBusy(Object partition) {
+        if (partition == null) {
+            return false;
+        }
+        if (!deferredPartitions.contains(partition) && !isWorkingPartition(partition)) {
+            return false;
+        }
+        deferredPartitions.add(partition);
+        deferredCount++;
+        return true;
+    }
+
+    /**
+     * 隔離したレコードか否か。
+     * <p/>
+     * 返却回数または隔離を記録済みのレコードの場合は、読み込んだことを記録する。
+     *
+     * @param workingKey レコードのキー
+     * @return 隔離したレコードの場合は{@code true}
+     */
+    private boolean isQuarantined(WorkingKey workingKey) {
+        if (quarantine == null) {
+            return false;
+        }
+        if (deliveryCounts.containsKey(workingKey) || quarantinedKeys.contains(workingKey)) {
+            seenKeys.add(workingKey);
+        }
+        return quarantinedKeys.contains(workingKey);
+    }
+
+    /**
+     * レコードの失敗回数が上限に達しているか否か。
+     * <p/>
+     * 上限に達していない場合は、レコードを返却した回数を加算する。
+     *
+     * @param workingKey 返却するレコードのキー
+     * @return 失敗回数が上限に達している場合は{@code true}
+     */
+    private boolean exceedsMaxFailureCount(WorkingKey workingKey) {
+        if (quarantine == null) {
+            return false;
+        }
+        Integer count = deliveryCounts.get(workingKey);
+        if (count != null && count >= quarantine.getMaxFailureCount()) {
+            return true;
+        }
+        deliveryCounts.put(workingKey, count == null ? 1 : count + 1);
+        seenKeys.add(workingKey);
+        return false;
+    }
+
+    /**
+     * レコードを隔離の対象とし、処理中のレコードから除外する。
+     * <p/>
+     * 隔離したレコードのキーを記録し、以降の読み込みでは読み飛ばす。
+     * データベースの更新(隔離および確保の解除)はリーダのロックを保持したまま行わないよう、
+     * {@link #quarantineRecords(List)}で行う。
+     *
+     * @param executor 実行スレッド
+     * @param workingKey 隔離するレコードのキー
+     * @param record 隔離するレコード
+     */
+    private void quarantineRecord(Thread executor, WorkingKey workingKey, SqlRow record) {
+        workingInputDataHolder.remove(executor, workingKey);
+        quarantinedKeys.add(workingKey);
+        deliveryCounts.remove(workingKey);
+        claimedTimes.remove(workingKey);
+        pendingQuarantines.add(record);
+    }
+
+    /**
+     * 隔離の対象とし、まだデータベースの更新を行っていないレコードを取り出す。
+     * <p/>
+     * リーダのロックを保持した状態で呼び出すこと。
+     *
+     * @return 隔離の対象としたレコード
+     */
+    private List<SqlRow> takePendingQuarantines() {
+        if (pendingQuarantines.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<SqlRow> records = new ArrayList<SqlRow>(pendingQuarantines);
+        pendingQuarantines.clear();
+        return records;
+    }
+
+    /**
+     * 隔離の対象としたレコードを隔離し、確保を解除する。
      * <p/>
-     * データベースへのアクセスは、このリーダに処理を移譲する。
+     * 隔離はレコード毎に別のトランザクションで行うため、他のスレッドの読み込みを待たせないよう、
+     * リーダのロックを保持せずに呼び出すこと。
+     * 確保の解除は、隔離ステータスへの更新後に行う。隔離に失敗した場合も確保は解除する。
+     * <p/>
+     * 隔離に失敗したレコードは隔離したレコードから除外し、次に読み込んだ時点で再度隔離する。
+     * 全てのレコードの隔離を試みた後に、最初に発生した例外を送出する。
+     *
+     * @param records 隔離の対象としたレコード
+     * @throws RuntimeException 隔離に失敗した場合
      */
-    private final DatabaseRecordReader originalReader;
+    private void quarantineRecords(List<SqlRow> records) {
+        RuntimeException failure = null;
+        for (SqlRow record : records) {
+            WorkingKey workingKey = new WorkingKey(primaryKeys, record);
+            try {
+                quarantine.quarantine(workingKey.values);
+                LOGGER.logWarn("record was quarantined. key info: " + new InputDataIdentifier(primaryKeys, record));
+            } catch (RuntimeException e) {
+                retryQuarantine(workingKey);
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                if (claimer != null) {
+                    claimer.release(workingKey.values);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
 
     /**
-     * データが存在しない場合の待機時間(ミリ秒)。
+     * 隔離に失敗したレコードを隔離したレコードから除外し、次に読み込んだ時点で再度隔離の対象とする。
+     *
+     * @param workingKey 隔離に失敗したレコードのキー
      */
-    private final int waitTime;
-
-    /** 主キーのカラム名リスト */
-    private final String[] primaryKeys;
-
-    /** リーダが閉じられているか否か */
-    private boolean closed;
+    private synchronized void retryQuarantine(WorkingKey workingKey) {
+        quarantinedKeys.remove(workingKey);
+        deliveryCounts.put(workingKey, quarantine.getMaxFailureCount());
+        seenKeys.add(workingKey);
+    }
 
     /**
-     * データベースをキューとして扱うリーダを生成する。
-     *
-     * @param originalReader データベースレコードリーダ
-     * @param waitTime データが存在しない場合の待機時間（ミリ秒）
-     * @param primaryKeys レコードを一意に識別する主キーのカラム名
+     * 前回の全件検索以降に読み込まれなかったレコード(処理済みのレコード)の、返却回数および隔離の記録を破棄する。
      */
-    @Published
-    public DatabaseTableQueueReader(DatabaseRecordReader originalReader, int waitTime, String... primaryKeys) {
-        this.originalReader = originalReader;
-        this.waitTime = waitTime;
-        this.primaryKeys = primaryKeys;
-        verifyParameter();
+    private void pruneFailureHistory() {
+        deliveryCounts.keySet().retainAll(seenKeys);
+        quarantinedKeys.retainAll(seenKeys);
+        seenKeys.clear();
     }
 
     /**
-     * 次のレコードを読み込み返却する。
+     * 現在のカーソルで、以降のレコードを読み飛ばすパーティションとして記録する。
      * <p/>
-     * 本実装では、次のレコードが存在しない場合（カーソルの終端に達した場合）、
-     * カーソルを再度開き直し最新の情報を取得後にレコードを読み込み返却する。
-     * <p/>
-     * 読み込んだレコードが他スレッドで処理中のデータの場合には、
-     * そのレコードを読み飛ばし、他のスレッドが処理していないレコードを返却する。
-     * <p/>
-     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     * 他のプロセスで確保済みのレコードなど、処理順が前後する可能性のあるレコードを読み飛ばした場合に呼び出す。
      *
-     * @param ctx 実行コンテキスト
-     * @return レコード
+     * @param partition パーティション({@code null}の場合は何もしない)
      */
-    @Override
-    public synchronized SqlRow read(ExecutionContext ctx) {
-        if (!originalReader.hasNext(ctx)) {
-            // データが存在しない場合は、待機時間分待機後にリソース(カーソル)を開き直す。
-            waitThread();
-            originalReader.reopen(ctx);
-        }
-
-        Thread key = Thread.currentThread();
-        workingInputDataHolder.remove(key);
-        while (true) {
-            SqlRow record = originalReader.read(ctx);
-            if (record == null) {
-                return null;
-            }
-
-            InputDataIdentifier inputDataIdentifier = new InputDataIdentifier(primaryKeys, record);
-            if (!workingInputDataHolder.isWorkingRequest(inputDataIdentifier)) {
-                workingInputDataHolder.add(key, inputDataIdentifier);
-                writeLog(inputDataIdentifier);
-                return record;
-            }
+    private void deferPartition(Object partition) {
+        if (partition != null) {
+            deferredPartitions.add(partition);
         }
     }
 
     /**
-     * 要求の識別情報をログに出力する。
+     * 処理を終えたレコードを、確保を解除するレコードとして記録する。
      * <p/>
-     * 識別情報に個人情報等のようにログに出力すべきではない項目が含まれる場合には、
-     * 本メソッドをオーバーライドしマスク処理などを実施後にログ出力を行うこと。
+     * レコードを確保するクラスが設定されていない場合は何もしない。
+     * データベースの更新はリーダのロックを保持したまま行わないよう、{@link #releaseRecords(List)}で行う。
      *
-     * @param inputDataIdentifier 要求識別情報
+     * @param workingKeys 処理を終えたレコードのキー
      */
-    @Published
-    protected void writeLog(InputDataIdentifier inputDataIdentifier) {
-        LOGGER.logInfo("read database record. key info: " + inputDataIdentifier);
+    private void release(List<WorkingKey> workingKeys) {
+        if (claimer == null) {
+            return;
+        }
+        for (WorkingKey workingKey : workingKeys) {
+            claimedTimes.remove(workingKey);
+            pendingReleases.add(workingKey);
+        }
     }
 
     /**
-     * 次に読み込むデータが存在するかどうかを返却する。
+     * 確保を解除するレコードとして記録し、まだデータベースの更新を行っていないレコードのキーを取り出す。
      * <p/>
-     * 本実装ではデータベース上に処理対象データが無くなった場合でも処理を継続するため、常にデータ有り{@code true}を返す。<br/>
-     * このリーダが閉じられた場合は{@code false}を返す。
+     * リーダのロックを取得した状態で呼び出すこと。
      *
-     * @param ctx 実行コンテキスト
-     * @return 読み込むデータが存在する場合 {@code true}
+     * @return 確保を解除するレコードのキー
      */
-    @Override
-    public synchronized boolean hasNext(ExecutionContext ctx) {
-        return !closed;
+    private List<WorkingKey> takePendingReleases() {
+        if (pendingReleases.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<WorkingKey> workingKeys = new ArrayList<WorkingKey>(pendingReleases);
+        pendingReleases.clear();
+        return workingKeys;
     }
 
     /**
-     * このリーダの利用を停止し、内部的に保持している各種リソースを解放する。
+     * レコードの確保をまとめて解除する。
+     * <p/>
+     * 解除はトランザクションを分けて行うため、他のスレッドの読み込みを待たせないよう、
+     * リーダのロックを保持せずに呼び出すこと。
      *
-     * @param ctx 実行コンテキスト
+     * @param workingKeys 確保を解除するレコードのキー
      */
-    @Override
-    public synchronized void close(ExecutionContext ctx) {
-        closed = true;
-        originalReader.close(ctx);
+    private void releaseRecords(List<WorkingKey> workingKeys) {
+        if (workingKeys.isEmpty()) {
+            return;
+        }
+        if (workingKeys.size() == 1) {
+            claimer.release(workingKeys.get(0).values);
+            return;
+        }
+        List<Object[]> keyValuesList = new ArrayList<Object[]>(workingKeys.size());
+        for (WorkingKey workingKey : workingKeys) {
+            keyValuesList.add(workingKey.values);
+        }
+        claimer.release(keyValuesList);
     }
 
     /**
-     * 現在のスレッドを{@link #waitTime}分待機する。
+     * 現在のスレッドを指定時間待機する。
+     * <p/>
+     * 通知が設定されている場合は、通知を受けた時点で待機を終了する。
      *
+     * @param waitTime 待機時間(ミリ秒)
      * @throws RuntimeException 割り込みが発生した場合
      */
-    private void waitThread() {
+    private void waitThread(long waitTime) {
+        if (waitTime <= 0) {
+            return;
+        }
         try {
-            Thread.sleep(waitTime);
+            TableQueueSignal signal = this.signal;
+            if (signal == null) {
+                Thread.sleep(waitTime);
+            } else if (signal.await(waitTime)) {
+                synchronized (this) {
+                    signaledCount++;
+                }
+            }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
@@ -183,6 +1329,270 @@ public class DatabaseTableQueueReader implements DataReader<SqlRow> {
         }
     }
 
+    /**
+     * データが存在しない場合の最大待機時間を設定する。
+     * <p/>
+     * コンストラクタで指定した待機時間より大きい値を設定した場合、
+     * 再検索の結果に応じて待機時間を0から本設定値の範囲で調整する。
+     * 設定しない場合は、常にコンストラクタで指定した待機時間だけ待機する。
+     *
+     * @param maxWaitTime 最大待機時間(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setMaxWaitTime(int maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+        return this;
+    }
+
+    /**
+     * 差分検索用のステートメントを設定する。
+     * <p/>
+     * ステートメントには、ウォーターマークとするカラムの値がパラメータ{@code :watermark}より大きい
+     * 処理対象レコードを取得するSQLを指定する。
+     * <pre>{@code
+     *     SELECT * FROM INPUT_TABLE WHERE STATUS = '0' AND ID > :watermark ORDER BY ID
+     * }</pre>
+     * ウォーターマークとするカラムは、レコードの登録順に値が大きくなるカラム(連番など)であること。
+     * 条件には、パラメータ{@code :watermark}以外のINパラメータに設定する値を指定する。
+     * <p/>
+     * 差分検索には、コンストラクタで指定したリーダのフェッチサイズ、軽量なレコード表現を使用するか否か、
+     * およびデータベースレコードリスナを引き継いだリーダを使用する。
+     * これらの設定は、本メソッドを呼び出す前にコンストラクタで指定したリーダに行うこと。
+     *
+     * @param statement 差分検索用のステートメント
+     * @param condition ステートメントのINパラメータに設定する値を持つ{@link Map}
+     * @param watermarkColumn ウォーターマークとするカラム名
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException ステートメントまたはカラム名が指定されていない場合
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setIncrementalStatement(
+            ParameterizedSqlPStatement statement, Map<String, ?> condition, String watermarkColumn) {
+        if (statement == null) {
+            throw new IllegalArgumentException("incremental statement must be set.");
+        }
+        if (StringUtil.isNullOrEmpty(watermarkColumn)) {
+            throw new IllegalArgumentException("watermark column must be set.");
+        }
+        incrementalCondition.clear();
+        if (condition != null) {
+            incrementalCondition.putAll(condition);
+        }
+        incrementalReader = new DatabaseRecordReader()
+                .setStatement(statement, incrementalCondition)
+                .setFetchSize(originalReader.getFetchSize())
+                .setCompactRow(originalReader.isCompactRow())
+                .setListener(originalReader.getListener());
+        this.watermarkColumn = watermarkColumn;
+        return this;
+    }
+
+    /**
+     * 全件の再検索を行う間隔を設定する。
+     * <p/>
+     * 差分検索を本設定値の回数行う毎に、次の再検索をコンストラクタで指定したリーダによる全件の再検索とする。
+     * デフォルトは10回。
+     *
+     * @param fullScanInterval 全件の再検索を行う間隔(差分検索の回数)
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 1未満の値を指定した場合
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setFullScanInterval(int fullScanInterval) {
+        if (fullScanInterval < 1) {
+            throw new IllegalArgumentException(
+                    "full scan interval must be greater than 0. full scan interval = [" + fullScanInterval + ']');
+        }
+        this.fullScanInterval = fullScanInterval;
+        return this;
+    }
+
+    /**
+     * 読み込んだレコードを確保するクラスを設定する。
+     * <p/>
+     * 設定した場合、他のプロセスで確保済みのレコードは読み飛ばす。
+     *
+     * @param claimer レコードを確保するクラス
+     * @return このオブジェクト自体
+     * @throws IllegalStateException レコードを確保するクラスの必須プロパティが設定されていない場合
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setClaimer(TableQueueClaimer claimer) {
+        claimer.prepare(primaryKeys);
+        this.claimer = claimer;
+        return this;
+    }
+
+    /**
+     * 読み込み件数を集計してログに出力する間隔を設定する。
+     * <p/>
+     * 1以上を設定した場合、レコード毎の識別情報のログ出力を行わず、本設定値を経過する毎に
+     * 読み込み件数とスループットをログに出力する(出力は、集計期間の経過後に最初にレコードを返却した時点で行う)。
+     * リーダを閉じた時点で未出力の集計結果も出力する。
+     * デフォルトは0(レコード毎に識別情報を出力する)。
+     *
+     * @param summaryLogInterval 集計結果を出力する間隔(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    @Published
+    public DatabaseTableQueueReader setSummaryLogInterval(long summaryLogInterval) {
+        this.summaryLogInterval = summaryLogInterval;
+        return this;
+    }
+
+    /**
+     * 集計モードで識別情報をログに出力する間隔を設定する。
+     * <p/>
+     * 集計モードの場合、本設定値の件数毎に1件、{@link #writeLog(InputDataIdentifier)}で識別情報を出力する。
+     * デフォルトは0(識別情報を出力しない)。
+     *
+     * @param logSampleInterval 識別情報を出力する間隔(件数)
+     * @return このオブジェクト自体
+     */
+    @Published
+    public DatabaseTableQueueReader setLogSampleInterval(int logSampleInterval) {
+        this.logSampleInterval = logSampleInterval;
+        return this;
+    }
+
+    /**
+     * 処理対象レコードの登録の通知を設定する。
+     * <p/>
+     * 設定した場合、処理対象レコードが存在しない間は、待機時間分スリープする代わりに通知を待つ。
+     * 通知されない登録(他のプロセスによる登録など)も取りこぼさないよう、待機時間の経過後は通知がなくても再検索を行う。
+     *
+     * @param signal 処理対象レコードの登録の通知
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setSignal(TableQueueSignal signal) {
+        this.signal = signal;
+        return this;
+    }
+
+    /**
+     * 業務処理が失敗し続けるレコードを隔離するクラスを設定する。
+     * <p/>
+     * 設定した場合、レコードを返却した回数をレコード毎に記録する。
+     * 記録は、全件の再検索で読み込まれなかった(処理済みとなった)時点で破棄する。
+     *
+     * @param quarantine レコードを隔離するクラス
+     * @return このオブジェクト自体
+     * @throws IllegalStateException レコードを隔離するクラスの必須プロパティが設定されていない場合
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setQuarantine(TableQueueQuarantine quarantine) {
+        quarantine.prepare(primaryKeys);
+        this.quarantine = quarantine;
+        return this;
+    }
+
+    /**
+     * 同一のキーを持つレコードを登録順に処理するための、キーとなるカラム名を設定する。
+     * <p/>
+     * 他のスレッドで処理中のレコードと同じキーを持つレコード、および同じカーソル内でそれより後に読み込んだ
+     * 同じキーを持つレコードは読み飛ばし、再検索後に読み込む。
+     * キーの値が{@code null}のレコードは読み飛ばさない。
+     * <p/>
+     * 差分検索用のステートメントを設定した場合、読み飛ばしたレコードが存在する間はウォーターマークを更新しない。
+     *
+     * @param partitionColumn キーとなるカラム名
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException カラム名が指定されていない場合
+     */
+    @Published
+    public synchronized DatabaseTableQueueReader setPartitionColumn(String partitionColumn) {
+        if (StringUtil.isNullOrEmpty(partitionColumn)) {
+            throw new IllegalArgumentException("partition column must be set.");
+        }
+        this.partitionColumn = partitionColumn;
+        return this;
+    }
+
+    /**
+     * 次回、データが存在しない場合に待機する時間を取得する。
+     *
+     * @return 待機時間(ミリ秒)
+     */
+    public synchronized long getEffectiveWaitTime() {
+        return effectiveWaitTime;
+    }
+
+    /**
+     * 再検索で処理対象レコードが取得できなかった回数を取得する。
+     *
+     * @return 処理対象レコードが取得できなかった回数
+     */
+    public synchronized long getEmptyPollCount() {
+        return emptyPollCount;
+    }
+
+    /**
+     * 再検索で処理対象レコードが連続して取得できなかった回数を取得する。
+     * <p/>
+     * 処理対象レコードが取得できた時点で0に戻る。
+     *
+     * @return 処理対象レコードが連続して取得できなかった回数
+     */
+    public synchronized long getConsecutiveEmptyPollCount() {
+        return consecutiveEmptyPollCount;
+    }
+
+    /**
+     * 返却したレコードの件数を取得する。
+     *
+     * @return 返却したレコードの件数
+     */
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * 待機中に通知を受けて再検索を行った回数を取得する。
+     *
+     * @return 通知を受けて再検索を行った回数
+     */
+    public synchronized long getSignaledCount() {
+        return signaledCount;
+    }
+
+    /**
+     * キーが他のスレッドで処理中のため読み飛ばしたレコードの件数を取得する。
+     *
+     * @return 読み飛ばしたレコードの件数
+     */
+    public synchronized long getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * 差分検索のウォーターマーク(返却済みのレコードのウォーターマークカラムの最大値)を取得する。
+     *
+     * @return ウォーターマーク(未確定の場合は{@code null})
+     */
+    public synchronized Object getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * 差分検索を行った回数を取得する。
+     *
+     * @return 差分検索を行った回数
+     */
+    public synchronized long getIncrementalPollCount() {
+        return incrementalPollCount;
+    }
+
+    /**
+     * 全件の再検索を行った回数を取得する。
+     *
+     * @return 全件の再検索を行った回数
+     */
+    public synchronized long getFullScanCount() {
+        return fullScanCount;
+    }
+
     /**
      * オリジナルのリーダ({@link DatabaseRecordReader})を取得する。
      * <p/>
@@ -222,10 +1632,67 @@ public class DatabaseTableQueueReader implements DataReader<SqlRow> {
         }
     }
 
+    /**
+     * 処理中のレコードを識別するキー。
+     * <p/>
+     * 主キーの値を配列で保持し、ハッシュ値を生成時に計算しておくことで、
+     * 処理中レコードとの比較を低コストで行う。
+     */
+    private static final class WorkingKey {
+
+        /** 主キーの値 */
+        private final Object[] values;
+
+        /** ハッシュ値 */
+        private final int hash;
+
+        /**
+         * レコードからキーを生成する。
+         *
+         * @param primaryKeys 主キーのカラム名
+         * @param record レコード
+         * @throws IllegalArgumentException レコードに主キーが含まれていない場合
+         */
+        private WorkingKey(String[] primaryKeys, SqlRow record) {
+            values = new Object[primaryKeys.length];
+            for (int i = 0; i < primaryKeys.length; i++) {
+                if (!record.containsKey(primaryKeys[i])) {
+                    throw new IllegalArgumentException(
+                            "primary key was not found in request. primary key name = [" + primaryKeys[i] + ']');
+                }
+                values[i] = record.get(primaryKeys[i]);
+            }
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WorkingKey)) {
+                return false;
+            }
+            WorkingKey other = (WorkingKey) o;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+    }
+
     /**
      * 実行中要求を保持するクラス。
      * <p/>
      * 実行中の要求データをスレッド単位で管理を行う。
+     * 処理中のキーとスレッドの対応を並行処理可能な{@link java.util.Map}で保持するため、
+     * 処理中か否かの判定および解放は、処理中のレコード数に依存せず一定の時間で行える。
+     * <p/>
+     * なお、処理中のレコードの解放は、再検索後にリーダのロックを取得した状態で行うこと。
+     * ロックを取得せずに解放した場合、処理結果がコミットされる前に、
+     * 他のスレッドが再検索で同じレコードを読み込む可能性がある。
      * <p/>
      * ※スレッドが破棄される場合には、{@link DatabaseTableQueueReader}が再作成されるため
      * {@link DatabaseTableQueueReader}内で保持される本クラスのインスタンスも破棄される。
@@ -241,42 +1708,126 @@ public class DatabaseTableQueueReader implements DataReader<SqlRow> {
         }
 
         /**
-         * 処理中データを保持するオブジェクト。
+         * 処理中のキーと、そのキーのレコードを処理しているスレッド。
          * <p/>
          * テーブル再検索時に他のスレッドで処理中のレコードが取得される可能性がある。
          * このため、処理中のレコードを本オブジェクトで保持しておき、
          * レコード取得後にこのオブジェクト内に存在するレコードをスキップし次のレコードを読み込む
          */
-        private final Map<Thread, InputDataIdentifier> executingRequests = new HashMap<Thread, InputDataIdentifier>();
+        private final ConcurrentMap<WorkingKey, Thread> workingKeys = new ConcurrentHashMap<WorkingKey, Thread>();
+
+        /**
+         * スレッドと、そのスレッドが処理中のキー。
+         * <p/>
+         * 複数のレコードをまとめて返却した場合は、1つのスレッドが複数のキーを処理中となる。
+         */
+        private final ConcurrentMap<Thread, List<WorkingKey>> executingRequests =
+                new ConcurrentHashMap<Thread, List<WorkingKey>>();
 
         /**
-         * 保持している要求を削除する。
+         * 指定したスレッドが保持している要求を全て削除する。
          *
          * @param executor 実行スレッド
+         * @return 削除した要求のキー
          */
-        private void remove(Thread executor) {
-            executingRequests.remove(executor);
+        private List<WorkingKey> remove(Thread executor) {
+            List<WorkingKey> keys = executingRequests.remove(executor);
+            if (keys == null) {
+                return Collections.emptyList();
+            }
+            for (WorkingKey key : keys) {
+                workingKeys.remove(key, executor);
+            }
+            return keys;
         }
 
         /**
-         * 処理中要求を追加する。
+         * 指定したスレッドが保持している要求のうち、指定したキーの要求を削除する。
          *
          * @param executor 実行スレッド
-         * @param inputDataIdentifier 要求識別子
+         * @param key 削除する要求のキー
+         */
+        private void remove(Thread executor, WorkingKey key) {
+            List<WorkingKey> keys = executingRequests.get(executor);
+            if (keys != null && keys.remove(key)) {
+                workingKeys.remove(key, executor);
+                if (keys.isEmpty()) {
+                    executingRequests.remove(executor);
+                }
+            }
+        }
+
+        /**
+         * 保持している全ての要求を削除する。
+         *
+         * @return 削除した要求のキー
+         */
+        private List<WorkingKey> removeAll() {
+            List<WorkingKey> keys = new ArrayList<WorkingKey>();
+            for (Thread executor : executingRequests.keySet()) {
+                keys.addAll(remove(executor));
+            }
+            return keys;
+        }
+
+        /**
+         * 終了したスレッドが保持している要求を削除する。
+         *
+         * @return 削除した要求のキー
+         */
+        private List<WorkingKey> removeTerminated() {
+            List<WorkingKey> keys = new ArrayList<WorkingKey>();
+            for (Thread executor : executingRequests.keySet()) {
+                if (executor.isAlive()) {
+                    continue;
+                }
+                keys.addAll(remove(executor));
+            }
+            return keys;
+        }
+
+        /**
+         * 終了したスレッドが処理中のキーか否か。
+         *
+         * @param key キー
+         * @return 終了したスレッドが処理中の場合は{@code true}
+         */
+        private boolean isHeldByTerminatedThread(WorkingKey key) {
+            Thread executor = workingKeys.get(key);
+            return executor != null && !executor.isAlive();
+        }
+
+        /**
+         * いずれかのスレッドで処理中のキーか否か。
+         *
+         * @param key キー
+         * @return 処理中の場合は{@code true}
          */
-        private void add(Thread executor, InputDataIdentifier inputDataIdentifier) {
-            executingRequests.put(executor, inputDataIdentifier);
+        private boolean isWorking(WorkingKey key) {
+            return workingKeys.containsKey(key);
         }
 
         /**
-         * 処理中の要求に存在しているか否か。
+         * 他のスレッドで処理中でない場合に、処理中要求として追加する。
          *
-         * @param inputDataIdentifier 要求識別子
-         * @return 引数の要求が処理中の場合には、{@code true}
+         * @param executor 実行スレッド
+         * @param key 処理中のキー
+         * @return 追加できた場合(他のスレッドで処理中でない場合)は{@code true}
          */
-        private boolean isWorkingRequest(InputDataIdentifier inputDataIdentifier) {
-            return executingRequests.containsValue(inputDataIdentifier);
+        private boolean add(Thread executor, WorkingKey key) {
+            Thread owner = workingKeys.putIfAbsent(key, executor);
+            if (owner != null && owner != executor) {
+                return false;
+            }
+            List<WorkingKey> keys = executingRequests.get(executor);
+            if (keys == null) {
+                keys = new ArrayList<WorkingKey>(1);
+                executingRequests.put(executor, keys);
+            }
+            if (!keys.contains(key)) {
+                keys.add(key);
+            }
+            return true;
         }
     }
 }
-
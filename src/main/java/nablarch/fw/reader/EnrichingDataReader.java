@@ -0,0 +1,340 @@
+package nablarch.fw.reader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 入力レコードに、外部キーで参照するレコード(付加情報)を設定して返却するデータリーダ。
+ * <p/>
+ * 本リーダは、ラップしたデータリーダから一定件数(ウィンドウ)の入力レコードをまとめて読み込み、
+ * それらの外部キーの値を条件とした1回のSQL({@code WHERE キー IN (...)})で付加情報を取得する。
+ * 取得した付加情報は、各入力レコードに{@link #setEnrichmentName(String)}で指定した名前で設定される。
+ * これにより、業務処理で入力レコード毎に付加情報を取得するSQLを実行する必要がなくなり、
+ * データベースへのアクセス回数をウィンドウの件数分の1に削減できる。
+ * <pre>{@code
+ *     EnrichingDataReader reader = new EnrichingDataReader(
+ *             databaseRecordReader, "ITEM_CODE", "SELECT ITEM_CODE, ITEM_NAME FROM ITEM", "ITEM_CODE")
+ *         .setEnrichmentName("item")
+ *         .setWindowSize(100);
+ *
+ *     // 業務処理
+ *     SqlRow item = (SqlRow) inputData.get("item");
+ * }</pre>
+ * <p/>
+ * 付加情報を取得するSQLには、参照キーを含むレコードを取得するSQLを指定する。
+ * 本リーダは、指定されたSQLを副問い合わせとして、参照キーによる絞り込みを行うSQLを構築する。
+ * 参照キーは、付加情報のレコードを一意に識別できる項目であること。
+ * 外部キーの値が{@code null}の入力レコード、および付加情報が存在しない入力レコードには{@code null}が設定される。
+ * <p/>
+ * SQLの実行には、{@link DbConnectionContext}から取得したデータベース接続を使用する。
+ * <p/>
+ * {@link DatabaseTableQueueReader}および{@link PriorityTableQueueReader}はラップできない。
+ * これらのリーダは、スレッドが次のレコードを読み込んだ時点で前のレコードを処理済みとみなすが、
+ * 本リーダでは1つのスレッドがウィンドウ分のレコードを読み込むため、読み込んだレコードが他のスレッドで処理される前に
+ * 処理中のレコードから除外され、同じレコードが重複して処理される可能性がある。
+ *
+ * @see ReferenceDataCache
+ */
+public class EnrichingDataReader implements DataReader<SqlRow> {
+
+    /** 外部キーの値を設定するパラメータ名の接頭辞 */
+    private static final String KEY_PARAMETER_PREFIX = "enrichmentKey";
+
+    /** 副問い合わせに付与する別名 */
+    private static final String SUB_QUERY_ALIAS = "ENRICHMENT";
+
+    /** 1回のSQLで指定できる外部キーの値の最大数 */
+    private static final int MAX_WINDOW_SIZE = 1000;
+
+    /** 入力レコードを読み込むデータリーダ */
+    private final DataReader<SqlRow> sourceReader;
+
+    /** 外部キーのカラム名 */
+    private final String foreignKeyColumn;
+
+    /** 付加情報を取得するSQL */
+    private final String lookupSql;
+
+    /** 参照キーのカラム名 */
+    private final String lookupKeyColumn;
+
+    /** 付加情報を設定する名前 */
+    private String enrichmentName = "enrichment";
+
+    /** まとめて読み込む入力レコードの件数 */
+    private int windowSize = 100;
+
+    /** データベースリソース名 */
+    private String dbTransactionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
+    /** 付加情報を設定済みの入力レコード */
+    private final LinkedList<SqlRow> buffer = new LinkedList<SqlRow>();
+
+    /** 読み込んだウィンドウの数 */
+    private long windowCount = 0;
+
+    /** 付加情報を取得するSQLを実行した回数 */
+    private long lookupCount = 0;
+
+    /**
+     * 付加情報を設定するリーダを生成する。
+     *
+     * @param sourceReader 入力レコードを読み込むデータリーダ
+     * @param foreignKeyColumn 入力レコードの外部キーのカラム名
+     * @param lookupSql 付加情報を取得するSQL
+     * @param lookupKeyColumn 付加情報の参照キーのカラム名
+     * @throws IllegalArgumentException いずれかの引数が指定されていない場合、
+     *                                  もしくはテーブルをキューとして扱うリーダを指定した場合
+     */
+    @Published
+    public EnrichingDataReader(DataReader<SqlRow> sourceReader, String foreignKeyColumn,
+            String lookupSql, String lookupKeyColumn) {
+        if (sourceReader == null) {
+            throw new IllegalArgumentException("source reader must be set.");
+        }
+        if (sourceReader instanceof DatabaseTableQueueReader || sourceReader instanceof PriorityTableQueueReader) {
+            throw new IllegalArgumentException(
+                    "table queue reader is not supported. source reader = [" + sourceReader.getClass().getName() + ']');
+        }
+        if (StringUtil.isNullOrEmpty(foreignKeyColumn)) {
+            throw new IllegalArgumentException("foreign key column must be set.");
+        }
+        if (StringUtil.isNullOrEmpty(lookupSql)) {
+            throw new IllegalArgumentException("lookup sql must be set.");
+        }
+        if (StringUtil.isNullOrEmpty(lookupKeyColumn)) {
+            throw new IllegalArgumentException("lookup key column must be set.");
+        }
+        this.sourceReader = sourceReader;
+        this.foreignKeyColumn = foreignKeyColumn;
+        this.lookupSql = lookupSql;
+        this.lookupKeyColumn = lookupKeyColumn;
+    }
+
+    /**
+     * 付加情報を設定した入力レコードを1件返却する。
+     * <p/>
+     * 付加情報を設定済みの入力レコードが存在しない場合は、ラップしたデータリーダから
+     * 次のウィンドウを読み込み、付加情報を設定してから返却する。<br/>
+     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 入力レコード
+     */
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        if (buffer.isEmpty()) {
+            readWindow(ctx);
+        }
+        return buffer.poll();
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        return !buffer.isEmpty() || sourceReader.hasNext(ctx);
+    }
+
+    /**
+     * 付加情報を設定済みの入力レコードを破棄し、ラップしたデータリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        buffer.clear();
+        sourceReader.close(ctx);
+    }
+
+    /**
+     * ラップしたデータリーダからウィンドウの件数分の入力レコードを読み込み、付加情報を設定する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    private void readWindow(ExecutionContext ctx) {
+        List<SqlRow> window = new ArrayList<SqlRow>(windowSize);
+        while (window.size() < windowSize && sourceReader.hasNext(ctx)) {
+            SqlRow record = sourceReader.read(ctx);
+            if (record == null) {
+                break;
+            }
+            window.add(record);
+        }
+        if (window.isEmpty()) {
+            return;
+        }
+        windowCount++;
+        enrich(window);
+        buffer.addAll(window);
+    }
+
+    /**
+     * 入力レコードの外部キーの値で付加情報を取得し、各入力レコードに設定する。
+     * <p/>
+     * 外部キーの値は文字列に変換して比較するため、外部キーと参照キーの型が異なる場合でも対応付けることができる。
+     *
+     * @param window 入力レコード
+     * @throws IllegalArgumentException 入力レコードに外部キーが含まれていない場合
+     */
+    private void enrich(List<SqlRow> window) {
+        Map<String, Object> keys = new LinkedHashMap<String, Object>();
+        for (SqlRow record : window) {
+            if (!record.containsKey(foreignKeyColumn)) {
+                throw new IllegalArgumentException(
+                        "foreign key column was not found in record. foreign key column name = [" + foreignKeyColumn + ']');
+            }
+            Object key = record.get(foreignKeyColumn);
+            if (key != null) {
+                keys.put(key.toString(), key);
+            }
+        }
+
+        Map<String, SqlRow> enrichments = new HashMap<String, SqlRow>();
+        if (!keys.isEmpty()) {
+            for (SqlRow row : lookup(new ArrayList<Object>(keys.values()))) {
+                Object key = row.get(lookupKeyColumn);
+                if (key != null && !enrichments.containsKey(key.toString())) {
+                    enrichments.put(key.toString(), row);
+                }
+            }
+        }
+        for (SqlRow record : window) {
+            Object key = record.get(foreignKeyColumn);
+            record.put(enrichmentName, key == null ? null : enrichments.get(key.toString()));
+        }
+    }
+
+    /**
+     * 外部キーの値を条件に付加情報を取得する。
+     *
+     * @param keys 外部キーの値(重複なし)
+     * @return 付加情報
+     */
+    private SqlResultSet lookup(List<Object> keys) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        for (int i = 0; i < keys.size(); i++) {
+            params.put(KEY_PARAMETER_PREFIX + i, keys.get(i));
+        }
+        ParameterizedSqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareParameterizedSqlStatement(buildLookupSql(keys.size()));
+        try {
+            lookupCount++;
+            return statement.retrieve(params);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 指定された件数の外部キーの値で付加情報を取得するSQLを構築する。
+     *
+     * @param keyCount 外部キーの値の件数
+     * @return 付加情報を取得するSQL
+     */
+    private String buildLookupSql(int keyCount) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM (")
+                .append(lookupSql)
+                .append(") ")
+                .append(SUB_QUERY_ALIAS)
+                .append(" WHERE ")
+                .append(lookupKeyColumn)
+                .append(" IN (");
+        for (int i = 0; i < keyCount; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(':').append(KEY_PARAMETER_PREFIX).append(i);
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * 入力レコードに付加情報を設定する名前を設定する。
+     * <p/>
+     * デフォルトは{@code enrichment}。
+     *
+     * @param enrichmentName 付加情報を設定する名前
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 名前が指定されていない場合
+     */
+    @Published
+    public synchronized EnrichingDataReader setEnrichmentName(String enrichmentName) {
+        if (StringUtil.isNullOrEmpty(enrichmentName)) {
+            throw new IllegalArgumentException("enrichment name must be set.");
+        }
+        this.enrichmentName = enrichmentName;
+        return this;
+    }
+
+    /**
+     * まとめて読み込む入力レコードの件数を設定する。
+     * <p/>
+     * 1回のSQLで指定する外部キーの値の数は本設定値以下となる。
+     * データベースによってIN句に指定できる値の数に上限があるため、1から1000の範囲で設定すること。
+     * デフォルトは100件。
+     *
+     * @param windowSize まとめて読み込む入力レコードの件数
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 件数が1から1000の範囲外の場合
+     */
+    @Published
+    public synchronized EnrichingDataReader setWindowSize(int windowSize) {
+        if (windowSize < 1 || windowSize > MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException(
+                    "window size must be between 1 and " + MAX_WINDOW_SIZE + ". window size = [" + windowSize + ']');
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * SQLの実行に使用するデータベースリソース名を設定する。
+     * <p/>
+     * 設定しない場合は、デフォルトのデータベースリソースを使用する。
+     *
+     * @param dbTransactionName データベースリソース名
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized EnrichingDataReader setDbTransactionName(String dbTransactionName) {
+        this.dbTransactionName = dbTransactionName;
+        return this;
+    }
+
+    /**
+     * 読み込んだウィンドウの数を取得する。
+     *
+     * @return 読み込んだウィンドウの数
+     */
+    public synchronized long getWindowCount() {
+        return windowCount;
+    }
+
+    /**
+     * 付加情報を取得するSQLを実行した回数を取得する。
+     *
+     * @return SQLを実行した回数
+     */
+    public synchronized long getLookupCount() {
+        return lookupCount;
+    }
+}
@@ -91,6 +91,34 @@ public class FileDataReader implements DataReader<DataRecord> {
         return fileReader.hasNext();
     }
 
+    /**
+     * 指定したレコード数を読み飛ばし、次に読み込むレコードの位置を変更する。
+     * <p/>
+     * 固定長ファイルの場合は、レコード長からファイル上の位置を算出し、
+     * 先頭からレコードを読み込むことなく読み込み位置を変更する。<br/>
+     * 以下のいずれかに該当する場合は読み込み位置を変更せず、{@code false}を返却する。
+     * 呼び出し元は、{@link #read(ExecutionContext)}でレコードを読み飛ばすこと。
+     * <ul>
+     * <li>固定長ファイルでない場合</li>
+     * <li>既にレコードを読み込んでいる場合</li>
+     * <li>読み飛ばすレコード数がファイルのレコード数を超える場合</li>
+     * <li>{@link #createFileRecordReader()}をオーバーライドしている場合</li>
+     * </ul>
+     *
+     * @param ctx 実行コンテキスト
+     * @param recordCount 読み飛ばすレコード数
+     * @return 読み込み位置を変更した場合は{@code true}
+     */
+    public synchronized boolean seek(ExecutionContext ctx, int recordCount) {
+        if (fileReader == null) {
+            fileReader = createFileRecordReader();
+        }
+        if (!(fileReader instanceof SeekableFileRecordReader)) {
+            return false;
+        }
+        return ((SeekableFileRecordReader) fileReader).seek(recordCount);
+    }
+
     /**
      * 指定されたデータファイルに対するストリームを閉じ、ファイルハンドラを開放する。
      * <p/>
@@ -204,7 +232,7 @@ public class FileDataReader implements DataReader<DataRecord> {
         // レイアウトファイルオブジェクトの生成
         File layoutFile = filePathSetting.getFileWithoutCreate(layoutFileBasePathName, layoutFileName);
 
-        return new FileRecordReader(dataFile, layoutFile, bufferSize);
+        return new SeekableFileRecordReader(dataFile, layoutFile, bufferSize);
     }
 
     /**
@@ -0,0 +1,60 @@
+package nablarch.fw.reader;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 同一JVM内で処理対象レコードの登録を通知する{@link TableQueueSignal}の実装クラス。
+ * <p/>
+ * 処理対象レコードを登録するアプリケーションが{@link DatabaseTableQueueReader}と同じJVMで動作する場合に使用する。
+ * 登録するアプリケーションは、登録のトランザクションをコミットした後に{@link #signal()}を呼び出すこと。
+ * <pre>{@code
+ *     // 登録処理
+ *     insertRequest(request);
+ *     transaction.commit();
+ *     signal.signal();
+ * }</pre>
+ * 待機しているスレッドが存在しない間に通知された場合は、通知を保持し、次の待機で即時に復帰する。
+ * このため、再検索の実行中に登録されたレコードも、次の再検索で読み込まれる。
+ * <p/>
+ * 他のプロセスで登録されたレコードは通知されないため、その場合は{@link DatabaseTableQueueReader}の待機時間の経過後に読み込まれる。
+ */
+@Published(tag = "architect")
+public class InMemoryTableQueueSignal implements TableQueueSignal {
+
+    /** 待機中のスレッドに通知していない登録があるか否か */
+    private boolean signaled = false;
+
+    /** 通知した回数 */
+    private long signalCount = 0;
+
+    /**
+     * 処理対象レコードが登録されたことを通知し、待機中のスレッドを復帰させる。
+     */
+    public synchronized void signal() {
+        signaled = true;
+        signalCount++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (!signaled && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        boolean result = signaled;
+        signaled = false;
+        return result;
+    }
+
+    /**
+     * 通知した回数を取得する。
+     *
+     * @return 通知した回数
+     */
+    public synchronized long getSignalCount() {
+        return signalCount;
+    }
+}
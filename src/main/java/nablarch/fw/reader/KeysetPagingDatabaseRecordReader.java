@@ -0,0 +1,367 @@
+package nablarch.fw.reader;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.SelectOption;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * データベースの参照結果を、キー値によるページ単位の再検索を繰り返しながら1レコードづつ読み込むデータリーダ。
+ * <p/>
+ * 本リーダは、参照結果全体に対するカーソルを開いたままにせず、
+ * キー項目の昇順でページサイズ分のレコードを取得するSQLをページ毎に実行する。
+ * 2ページ目以降は、前ページで最後に読み込んだレコードのキー値より大きいレコードのみを取得する。
+ * これにより、カーソルが開かれているのは1ページ分の取得中のみとなり、
+ * 長時間にわたってカーソルを保持することによるデータベースリソースの圧迫を防ぐことができる。
+ * <p/>
+ * 本リーダに設定するSQLには、キー項目を含む処理対象レコードを取得するSQLを指定する。
+ * 本リーダは、指定されたSQLを副問い合わせとして、キー項目による絞り込みと並び替えを行うSQLを構築する。
+ * このため、指定するSQLにはORDER BY句を含めないこと。
+ * <pre>{@code
+ *     KeysetPagingDatabaseRecordReader reader = new KeysetPagingDatabaseRecordReader(
+ *             "SELECT ID, DATA FROM INPUT_TABLE WHERE STATUS = :status", "ID")
+ *         .setCondition(condition)
+ *         .setPageSize(1000);
+ * }</pre>
+ * キー項目は、参照結果のレコードを一意に識別でき、かつ{@code null}を含まない項目であること。
+ * 複数のキー項目を指定した場合は、指定した順序で並び替えを行う。
+ * <p/>
+ * SQLの実行には、{@link DbConnectionContext}から取得したデータベース接続を使用する。
+ *
+ * @see DatabaseRecordReader
+ */
+public class KeysetPagingDatabaseRecordReader implements DataReader<SqlRow> {
+
+    /** 前ページの最終キー値を設定するパラメータ名の接頭辞 */
+    private static final String LAST_KEY_PARAMETER_PREFIX = "keysetLastKey";
+
+    /** 副問い合わせに付与する別名 */
+    private static final String SUB_QUERY_ALIAS = "KEYSET_PAGE";
+
+    /** 先頭ページを取得するSQL */
+    private final String firstPageSql;
+
+    /** 2ページ目以降を取得するSQL */
+    private final String nextPageSql;
+
+    /** キー項目のカラム名 */
+    private final String[] keyColumns;
+
+    /** データベースリソース名 */
+    private String dbTransactionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
+    /** SQLのINパラメータに設定する条件 */
+    private Map<String, ?> condition = Collections.emptyMap();
+
+    /** 1ページで取得するレコード数 */
+    private int pageSize = 1000;
+
+    /** 現在のページのレコード */
+    private Iterator<SqlRow> records = null;
+
+    /** 最後に読み込んだレコードのキー値({@code null}の場合は先頭ページから読み込む) */
+    private Object[] lastKey = null;
+
+    /** 次のページが存在する可能性があるか否か */
+    private boolean hasNextPage = true;
+
+    /** 取得したページ数 */
+    private long pageCount = 0;
+
+    /**
+     * キー値によるページ単位の再検索を行うリーダを生成する。
+     *
+     * @param sql 処理対象レコードを取得するSQL(ORDER BY句を含まないこと)
+     * @param keyColumns レコードを一意に識別するキー項目のカラム名(並び替え順に指定する)
+     * @throws IllegalArgumentException SQLが指定されていない場合、
+     *                                   キー項目のカラム名が{@code null}または空、もしくはカラム名が重複している場合
+     */
+    @Published
+    public KeysetPagingDatabaseRecordReader(String sql, String... keyColumns) {
+        if (StringUtil.isNullOrEmpty(sql)) {
+            throw new IllegalArgumentException("sql must be set.");
+        }
+        if ((keyColumns == null) || (keyColumns.length == 0)) {
+            throw new IllegalArgumentException("key columns must be set.");
+        }
+        Set<String> set = new HashSet<String>(Arrays.asList(keyColumns));
+        if (set.size() != keyColumns.length) {
+            throw new IllegalArgumentException(String.format(
+                    "duplicated key column. must be unique column name. key columns = %s",
+                    Arrays.toString(keyColumns)));
+        }
+        this.keyColumns = keyColumns;
+        firstPageSql = buildFirstPageSql(sql);
+        nextPageSql = buildNextPageSql(sql);
+    }
+
+    /**
+     * 次のレコードを読み込み返却する。
+     * <p/>
+     * 現在のページのレコードを全て読み込んだ場合は、次のページを取得してからレコードを返却する。<br/>
+     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     */
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        if (!prepareRecords()) {
+            return null;
+        }
+        SqlRow record = records.next();
+        lastKey = extractKey(record);
+        return record;
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     * <p/>
+     * 現在のページのレコードを全て読み込んだ場合は、次のページを取得して判定する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        return prepareRecords();
+    }
+
+    /**
+     * 内部的にキャッシュしているページを破棄する。
+     * <p/>
+     * 本リーダはページの取得毎にステートメントを解放するため、解放すべきデータベースリソースは存在しない。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        records = null;
+        hasNextPage = false;
+    }
+
+    /**
+     * 先頭ページから読み込みをやり直す。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    public synchronized void reopen(ExecutionContext ctx) {
+        records = null;
+        lastKey = null;
+        hasNextPage = true;
+    }
+
+    /**
+     * 指定したキー値より後ろのレコードから読み込みを開始する。
+     * <p/>
+     * 処理を中断した位置から再開する場合に、最後に処理したレコードのキー値を指定する。
+     * 先頭のページは、指定したキー値を条件に取得する。
+     *
+     * @param lastKey 最後に処理したレコードのキー値(キー項目のカラム名と同じ順序)
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException キー値の数がキー項目の数と一致しない場合
+     */
+    public synchronized KeysetPagingDatabaseRecordReader setLastKey(Object... lastKey) {
+        if (lastKey == null || lastKey.length != keyColumns.length) {
+            throw new IllegalArgumentException(String.format(
+                    "last key must have the same number of values as key columns. key columns = %s, last key = %s",
+                    Arrays.toString(keyColumns), Arrays.toString(lastKey)));
+        }
+        this.lastKey = lastKey.clone();
+        records = null;
+        hasNextPage = true;
+        return this;
+    }
+
+    /**
+     * 最後に読み込んだレコードのキー値を取得する。
+     * <p/>
+     * レコードを読み込む前は、{@link #setLastKey(Object...)}で指定したキー値を返却する。
+     *
+     * @return キー値(キー項目のカラム名と同じ順序)。キー値が存在しない場合は{@code null}
+     */
+    public synchronized Object[] getLastKey() {
+        return lastKey == null ? null : lastKey.clone();
+    }
+
+    /**
+     * 読み込むレコードを準備する。
+     * <p/>
+     * 現在のページに読み込むレコードが残っていない場合は、次のページを取得する。
+     *
+     * @return 読み込むレコードが存在する場合 {@code true}
+     */
+    private boolean prepareRecords() {
+        if (records != null && records.hasNext()) {
+            return true;
+        }
+        if (!hasNextPage) {
+            return false;
+        }
+        SqlResultSet page = retrievePage();
+        pageCount++;
+        hasNextPage = page.size() >= pageSize;
+        records = page.iterator();
+        return records.hasNext();
+    }
+
+    /**
+     * 最後に読み込んだレコードのキー値を条件に、次のページを取得する。
+     *
+     * @return 取得したページのレコード
+     */
+    private SqlResultSet retrievePage() {
+        Map<String, Object> params = new HashMap<String, Object>(condition);
+        String sql = firstPageSql;
+        if (lastKey != null) {
+            sql = nextPageSql;
+            for (int i = 0; i < keyColumns.length; i++) {
+                params.put(LAST_KEY_PARAMETER_PREFIX + i, lastKey[i]);
+            }
+        }
+        ParameterizedSqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareParameterizedSqlStatement(sql, new SelectOption(1, pageSize));
+        try {
+            return statement.retrieve(params);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * レコードからキー値を取り出す。
+     *
+     * @param record レコード
+     * @return キー値
+     * @throws IllegalArgumentException レコードにキー項目が含まれていない場合
+     */
+    private Object[] extractKey(SqlRow record) {
+        Object[] key = new Object[keyColumns.length];
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (!record.containsKey(keyColumns[i])) {
+                throw new IllegalArgumentException(
+                        "key column was not found in record. key column name = [" + keyColumns[i] + ']');
+            }
+            key[i] = record.get(keyColumns[i]);
+        }
+        return key;
+    }
+
+    /**
+     * 先頭ページを取得するSQLを構築する。
+     *
+     * @param sql 処理対象レコードを取得するSQL
+     * @return 先頭ページを取得するSQL
+     */
+    private String buildFirstPageSql(String sql) {
+        return "SELECT * FROM (" + sql + ") " + SUB_QUERY_ALIAS + buildOrderBy();
+    }
+
+    /**
+     * 2ページ目以降を取得するSQLを構築する。
+     * <p/>
+     * キー項目が複数の場合は、キー項目の組み合わせで前ページの最終レコードより後ろのレコードを取得する条件を構築する。
+     * 例えば、キー項目がK1,K2の場合、{@code (K1 > :k1) OR (K1 = :k1 AND K2 > :k2)}となる。
+     *
+     * @param sql 処理対象レコードを取得するSQL
+     * @return 2ページ目以降を取得するSQL
+     */
+    private String buildNextPageSql(String sql) {
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0) {
+                where.append(" OR ");
+            }
+            where.append('(');
+            for (int j = 0; j < i; j++) {
+                where.append(keyColumns[j]).append(" = :").append(LAST_KEY_PARAMETER_PREFIX).append(j).append(" AND ");
+            }
+            where.append(keyColumns[i]).append(" > :").append(LAST_KEY_PARAMETER_PREFIX).append(i).append(')');
+        }
+        return "SELECT * FROM (" + sql + ") " + SUB_QUERY_ALIAS + " WHERE " + where + buildOrderBy();
+    }
+
+    /**
+     * キー項目による並び替えを行うORDER BY句を構築する。
+     *
+     * @return ORDER BY句
+     */
+    private String buildOrderBy() {
+        StringBuilder orderBy = new StringBuilder(" ORDER BY ");
+        for (int i = 0; i < keyColumns.length; i++) {
+            if (i > 0) {
+                orderBy.append(", ");
+            }
+            orderBy.append(keyColumns[i]);
+        }
+        return orderBy.toString();
+    }
+
+    /**
+     * SQLのINパラメータに設定する条件を設定する。
+     *
+     * @param condition SQLのINパラメータに設定する値を持つ{@link Map}
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized KeysetPagingDatabaseRecordReader setCondition(Map<String, ?> condition) {
+        this.condition = condition;
+        return this;
+    }
+
+    /**
+     * 1ページで取得するレコード数を設定する。
+     * <p/>
+     * デフォルトは1000件。
+     *
+     * @param pageSize 1ページで取得するレコード数
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException ページサイズが1未満の場合
+     */
+    @Published
+    public synchronized KeysetPagingDatabaseRecordReader setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(
+                    "page size must be greater than 0. page size = [" + pageSize + ']');
+        }
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * SQLの実行に使用するデータベースリソース名を設定する。
+     * <p/>
+     * 設定しない場合は、デフォルトのデータベースリソースを使用する。
+     *
+     * @param dbTransactionName データベースリソース名
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized KeysetPagingDatabaseRecordReader setDbTransactionName(String dbTransactionName) {
+        this.dbTransactionName = dbTransactionName;
+        return this;
+    }
+
+    /**
+     * 取得したページ数を取得する。
+     *
+     * @return 取得したページ数
+     */
+    public synchronized long getPageCount() {
+        return pageCount;
+    }
+}
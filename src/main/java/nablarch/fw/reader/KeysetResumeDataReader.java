@@ -0,0 +1,118 @@
+package nablarch.fw.reader;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.handler.LoopHandler;
+
+/**
+ * {@link KeysetPagingDatabaseRecordReader}をラップして、キー値によるレジューム機能を追加するデータリーダ。
+ * <p/>
+ * {@link ResumeDataReader}は読み込み回数を正常に処理できたポイントとするため、
+ * 処理を再開する際に、正常に処理できたポイントまでの全レコードを再度読み込み、読み捨てる必要がある。
+ * また、参照結果の順序が一定でない場合は、正しい位置から再開できない。
+ * <p/>
+ * 本クラスは、業務処理がコミットされるタイミングで、最後に読み込んだレコードのキー値を実行管理テーブルに保存する。
+ * 処理を再開する場合は、保存されたキー値より大きいキー値のレコードのみを取得するSQLを実行するため、
+ * 処理済みのレコードを読み込むことなく、キー項目のインデックスを使用した範囲検索で処理を再開できる。
+ * キー項目の昇順での読み込みは{@link KeysetPagingDatabaseRecordReader}が保証する。
+ * <p/>
+ * 実行管理テーブルには、キー項目と同じ型のカラムを設けて{@link ResumePointManager#setResumeKeyColumnNames(java.util.List)}に設定し、
+ * 先行ジョブで対象リクエストのキー値をnullクリアしておくこと。
+ * キー値が保存されていない場合は、先頭のレコードから読み込む。
+ * <pre>{@code
+ *     KeysetPagingDatabaseRecordReader reader = new KeysetPagingDatabaseRecordReader(
+ *             "SELECT ID, DATA FROM INPUT_TABLE", "ID");
+ *     return new KeysetResumeDataReader(reader);
+ * }</pre>
+ *
+ * @see KeysetPagingDatabaseRecordReader
+ * @see ResumePointManager
+ */
+public class KeysetResumeDataReader implements DataReader<SqlRow> {
+
+    /** レジューム機能を追加するリーダ */
+    private final KeysetPagingDatabaseRecordReader sourceReader;
+
+    /** 保存されたキー値を読み込み済みか否か */
+    private boolean resumed = false;
+
+    /**
+     * キー値によるレジューム機能を追加するリーダを生成する。
+     *
+     * @param sourceReader レジューム機能を追加するリーダ
+     * @throws IllegalArgumentException リーダが指定されていない場合
+     */
+    @Published
+    public KeysetResumeDataReader(KeysetPagingDatabaseRecordReader sourceReader) {
+        if (sourceReader == null) {
+            throw new IllegalArgumentException("source reader must be set.");
+        }
+        this.sourceReader = sourceReader;
+    }
+
+    /**
+     * 次のレコードを読み込み返却する。
+     * <p/>
+     * 最初の読み込み時は、実行管理テーブルに保存されたキー値より後ろのレコードから読み込みを開始する。<br/>
+     * トランザクションループ制御ハンドラの設定により一定件数ごとにコミットを行なっている場合は、
+     * コミット前の最後の処理で、最後に読み込んだレコードのキー値を実行管理テーブルに保存する。<br/>
+     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     */
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        resume();
+        SqlRow record = sourceReader.read(ctx);
+        if (record == null) {
+            return null;
+        }
+        if (LoopHandler.isAboutToCommit(ctx)) {
+            ResumePointManager.getInstance().saveResumeKey(
+                    ThreadContext.getRequestId(), sourceReader.getLastKey());
+        }
+        return record;
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        resume();
+        return sourceReader.hasNext(ctx);
+    }
+
+    /**
+     * レジューム機能を追加するリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        sourceReader.close(ctx);
+    }
+
+    /**
+     * 実行管理テーブルに保存されたキー値を、読み込みの開始位置に設定する。
+     * <p/>
+     * 開始位置の設定は最初の呼び出し時にのみ行う。
+     */
+    private void resume() {
+        if (resumed) {
+            return;
+        }
+        resumed = true;
+        Object[] resumeKey = ResumePointManager.getInstance().loadResumeKey(ThreadContext.getRequestId());
+        if (resumeKey != null) {
+            sourceReader.setLastKey(resumeKey);
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package nablarch.fw.reader;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.ResultSetIterator;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 複数の参照元(テーブルやスキーマ)のレコードを並行して読み込み、1つの入力として返却するデータリーダ。
+ * <p/>
+ * 参照元毎に読み込み専用のスレッドを起動し、各スレッドは参照元に設定された
+ * {@link SimpleDbTransactionManager}から取得した専用のデータベース接続でSQLを実行する。
+ * 読み込んだレコードは参照元毎の上限付きのキューに格納され、本リーダはそのキューからレコードを返却する。
+ * <pre>{@code
+ *     MergedDatabaseRecordReader reader = new MergedDatabaseRecordReader()
+ *             .addSource(shard1Transaction, "SELECT * FROM ORDERS WHERE STATUS = :status ORDER BY ORDER_ID", condition)
+ *             .addSource(shard2Transaction, "SELECT * FROM ORDERS WHERE STATUS = :status ORDER BY ORDER_ID", condition)
+ *             .setSortKeys("ORDER_ID");
+ * }</pre>
+ * <p/>
+ * レコードを返却する順序は、ソートキーの指定有無により以下のとおりとなる。
+ * <ul>
+ *     <li>ソートキーを指定しない場合、読み込み済みのレコードを参照元を順に巡回しながら返却する。
+ *     参照元間のレコードの順序は保証しない。</li>
+ *     <li>ソートキーを指定した場合、各参照元の先頭レコードを比較し、ソートキーの昇順に返却する(k-wayマージ)。
+ *     この場合、各参照元のSQLはソートキーの昇順でレコードを返却しなければならない。</li>
+ * </ul>
+ * <p/>
+ * 各参照元のSQLは、本リーダのスレッドとは異なるデータベース接続で実行されるため、
+ * 処理スレッドのトランザクションでの更新内容は参照されない。
+ * また、読み込み専用スレッドで発生した例外は、後続の{@link #read(ExecutionContext)}呼び出しで再送出される。
+ */
+public class MergedDatabaseRecordReader implements DataReader<SqlRow> {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(MergedDatabaseRecordReader.class);
+
+    /** キューが空の場合に、レコードの格納を待機する間隔(ミリ秒) */
+    private static final long POLL_INTERVAL = 10;
+
+    /** 読み込み専用スレッドの終了を待機する時間(ミリ秒) */
+    private static final long STOP_TIMEOUT = 5000;
+
+    /** 参照元 */
+    private final List<Source> sources = new ArrayList<Source>();
+
+    /** ソートキー */
+    private String[] sortKeys = new String[0];
+
+    /** 参照元毎に先行して読み込むレコード数の上限 */
+    private int bufferSize = 1000;
+
+    /** フェッチサイズ(0の場合はJDBCドライバのデフォルト値) */
+    private int fetchSize = 0;
+
+    /** 読み込み専用スレッドを起動済みか否か */
+    private boolean started = false;
+
+    /** リーダが閉じられているか否か */
+    private volatile boolean closed = false;
+
+    /** ソートキーを指定しない場合に、次にレコードを取り出す参照元のインデックス */
+    private int nextSourceIndex = 0;
+
+    /**
+     * {@code MergedDatabaseRecordReader}オブジェクトを生成する。
+     */
+    @Published
+    public MergedDatabaseRecordReader() {
+        super();
+    }
+
+    /**
+     * 参照元を追加する。
+     *
+     * @param transactionManager 参照元のデータベースに接続するトランザクションマネージャ
+     * @param sql 参照元のレコードを取得するSQL
+     * @return このオブジェクト自体
+     * @see #addSource(SimpleDbTransactionManager, String, Map)
+     */
+    @Published
+    public MergedDatabaseRecordReader addSource(SimpleDbTransactionManager transactionManager, String sql) {
+        return addSource(transactionManager, sql, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * 参照元を追加する。
+     * <p/>
+     * 参照元の追加は、初回の読み込み前に行うこと。
+     *
+     * @param transactionManager 参照元のデータベースに接続するトランザクションマネージャ
+     * @param sql 参照元のレコードを取得するSQL
+     * @param condition SQLのINパラメータに設定する値を持つ{@link Map}
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException トランザクションマネージャまたはSQLが指定されていない場合
+     * @throws IllegalStateException 既に読み込みを開始している場合
+     */
+    @Published
+    public synchronized MergedDatabaseRecordReader addSource(
+            SimpleDbTransactionManager transactionManager, String sql, Map<String, ?> condition) {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transaction manager must be set.");
+        }
+        if (StringUtil.isNullOrEmpty(sql)) {
+            throw new IllegalArgumentException("sql must be set.");
+        }
+        if (started) {
+            throw new IllegalStateException("source can not be added after reading started.");
+        }
+        sources.add(new Source(sources.size(), transactionManager, sql, condition));
+        return this;
+    }
+
+    /**
+     * 参照元のレコードを1件返却する。
+     * <p/>
+     * 初回読み込み時に、参照元毎の読み込み専用スレッドを起動する。<br/>
+     * 返却できるレコードが読み込まれていない場合は、レコードが読み込まれるまで待機する。<br/>
+     * 全ての参照元の終端に達した場合、もしくは待機中にリーダが閉じられた場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     * @throws RuntimeException 読み込み専用スレッドで例外が発生した場合、もしくは待機中に割り込みが発生した場合
+     */
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        start();
+        try {
+            SqlRow row = sortKeys.length == 0 ? readInterleaved() : readMerged();
+            return closed ? null : row;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     * <p/>
+     * 本実装では、全ての参照元の終端に達し、かつ読み込まれたレコードを全て返却した場合に{@code false}を返す。
+     * このため、{@code true}を返却した後の{@link #read(ExecutionContext)}で{@code null}が返却される場合がある。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合は{@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        start();
+        if (closed) {
+            return false;
+        }
+        for (Source source : sources) {
+            if (source.head != null || !source.isExhausted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 読み込み専用スレッドを停止する。
+     * <p/>
+     * 各参照元のデータベース接続は、読み込み専用スレッドの終了時に解放される。
+     * 他のスレッドが{@link #read(ExecutionContext)}でレコードの読み込みを待機している場合でも閉じられるよう、
+     * リーダのロックは取得しない。待機中の読み込みは、閉じられたことを検知した時点で{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        closed = true;
+        for (Source source : sources) {
+            Thread thread = source.thread;
+            if (thread == null) {
+                continue;
+            }
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 参照元毎の読み込み専用スレッドを起動する。
+     * <p/>
+     * 既に起動済みの場合、もしくはリーダが閉じられている場合は何もしない。
+     *
+     * @throws IllegalStateException 参照元が追加されていない場合
+     */
+    private void start() {
+        if (started || closed) {
+            return;
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalStateException("source was not added.");
+        }
+        started = true;
+        for (final Source source : sources) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    source.fetch();
+                }
+            }, "merge-" + source.index + '-' + Thread.currentThread().getName());
+            thread.setDaemon(true);
+            source.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * 参照元を順に巡回し、読み込み済みのレコードを返却する。
+     *
+     * @return レコード(全ての参照元の終端に達した場合は{@code null})
+     * @throws InterruptedException 待機中に割り込みが発生した場合
+     */
+    private SqlRow readInterleaved() throws InterruptedException {
+        while (true) {
+            boolean alive = false;
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = sources.get((nextSourceIndex + i) % sources.size());
+                SqlRow row = source.poll();
+                if (row != null) {
+                    nextSourceIndex = (source.index + 1) % sources.size();
+                    return row;
+                }
+                alive |= !source.isExhausted();
+            }
+            if (!alive || closed) {
+                return null;
+            }
+            // どの参照元にも読み込み済みのレコードがない場合は、次の参照元のレコードを待つ。
+            Source source = sources.get(nextSourceIndex);
+            nextSourceIndex = (nextSourceIndex + 1) % sources.size();
+            source.waitCount.incrementAndGet();
+            SqlRow row = source.poll(POLL_INTERVAL);
+            if (row != null) {
+                return row;
+            }
+        }
+    }
+
+    /**
+     * 各参照元の先頭レコードのうち、ソートキーが最小のレコードを返却する。
+     *
+     * @return レコード(全ての参照元の終端に達した場合は{@code null})
+     * @throws InterruptedException 待機中に割り込みが発生した場合
+     */
+    private SqlRow readMerged() throws InterruptedException {
+        Source min = null;
+        for (Source source : sources) {
+            if (source.head == null) {
+                source.head = source.take();
+            }
+            if (source.head != null && (min == null || compare(source.head, min.head) < 0)) {
+                min = source;
+            }
+        }
+        if (min == null) {
+            return null;
+        }
+        SqlRow row = min.head;
+        min.head = null;
+        return row;
+    }
+
+    /**
+     * ソートキーの値でレコードを比較する。
+     * <p/>
+     * {@code null}は最小の値として扱う。
+     * 数値は参照元により型が異なる場合があるため、{@link BigDecimal}に変換して比較する。
+     *
+     * @param row1 比較するレコード
+     * @param row2 比較するレコード
+     * @return 比較結果
+     */
+    @SuppressWarnings("unchecked")
+    private int compare(SqlRow row1, SqlRow row2) {
+        for (String sortKey : sortKeys) {
+            Object value1 = row1.get(sortKey);
+            Object value2 = row2.get(sortKey);
+            int result;
+            if (value1 == null || value2 == null) {
+                result = value1 == null ? (value2 == null ? 0 : -1) : 1;
+            } else if (value1 instanceof Number && value2 instanceof Number
+                    && value1.getClass() != value2.getClass()) {
+                result = new BigDecimal(value1.toString()).compareTo(new BigDecimal(value2.toString()));
+            } else {
+                result = ((Comparable<Object>) value1).compareTo(value2);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * ソートキーを設定する。
+     * <p/>
+     * ソートキーを設定した場合、各参照元のレコードをソートキーの昇順にマージして返却する。
+     * 各参照元のSQLは、ソートキーの昇順でレコードを返却しなければならない。
+     *
+     * @param sortKeys ソートキーとなるカラム名
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized MergedDatabaseRecordReader setSortKeys(String... sortKeys) {
+        this.sortKeys = sortKeys == null ? new String[0] : sortKeys.clone();
+        return this;
+    }
+
+    /**
+     * 参照元毎に先行して読み込むレコード数の上限を設定する。
+     * <p/>
+     * デフォルトは1000。
+     *
+     * @param bufferSize 先行して読み込むレコード数の上限
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 1未満の値を指定した場合
+     * @throws IllegalStateException 既に参照元が追加されている場合
+     */
+    @Published
+    public synchronized MergedDatabaseRecordReader setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException(
+                    "buffer size must be greater than 0. buffer size = [" + bufferSize + ']');
+        }
+        if (!sources.isEmpty()) {
+            throw new IllegalStateException("buffer size must be set before adding source.");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * 参照元のレコードを取得する際のフェッチサイズを設定する。
+     * <p/>
+     * 0以下を設定した場合は、JDBCドライバのデフォルト値が使用される。
+     *
+     * @param fetchSize フェッチサイズ
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized MergedDatabaseRecordReader setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * 参照元の数を取得する。
+     *
+     * @return 参照元の数
+     */
+    public synchronized int getSourceCount() {
+        return sources.size();
+    }
+
+    /**
+     * 指定された参照元から読み込んだレコード数を取得する。
+     *
+     * @param sourceIndex 参照元のインデックス(追加した順に0から採番)
+     * @return 読み込んだレコード数
+     */
+    public synchronized long getFetchedCount(int sourceIndex) {
+        return sources.get(sourceIndex).fetchedCount.get();
+    }
+
+    /**
+     * 指定された参照元のレコードの読み込みを待機した回数を取得する。
+     * <p/>
+     * 特定の参照元の値が大きい場合は、その参照元の読み込みが処理のボトルネックとなっている。
+     *
+     * @param sourceIndex 参照元のインデックス(追加した順に0から採番)
+     * @return 待機した回数
+     */
+    public synchronized long getWaitCount(int sourceIndex) {
+        return sources.get(sourceIndex).waitCount.get();
+    }
+
+    /**
+     * 参照元。
+     */
+    private final class Source {
+
+        /** 参照元のインデックス */
+        private final int index;
+
+        /** 参照元のデータベースに接続するトランザクションマネージャ */
+        private final SimpleDbTransactionManager transactionManager;
+
+        /** 参照元のレコードを取得するSQL */
+        private final String sql;
+
+        /** SQLの条件 */
+        private final Map<String, ?> condition;
+
+        /** 読み込んだレコードを格納するキュー */
+        private final BlockingQueue<SqlRow> queue;
+
+        /** 参照元から読み込んだレコード数 */
+        private final AtomicLong fetchedCount = new AtomicLong();
+
+        /** 処理スレッドがレコードの読み込みを待機した回数 */
+        private final AtomicLong waitCount = new AtomicLong();
+
+        /** 読み込み専用スレッド */
+        private volatile Thread thread;
+
+        /** 読み込み専用スレッドが終了したか否か */
+        private volatile boolean finished;
+
+        /** 読み込み専用スレッドで発生した例外 */
+        private volatile Throwable failure;
+
+        /** キューから取り出し、まだ返却していないレコード(ソートキーを指定した場合のみ使用) */
+        private SqlRow head;
+
+        /**
+         * 参照元を生成する。
+         *
+         * @param index 参照元のインデックス
+         * @param transactionManager トランザクションマネージャ
+         * @param sql SQL
+         * @param condition SQLの条件
+         */
+        private Source(int index, SimpleDbTransactionManager transactionManager, String sql, Map<String, ?> condition) {
+            this.index = index;
+            this.transactionManager = transactionManager;
+            this.sql = sql;
+            this.condition = condition;
+            queue = new LinkedBlockingQueue<SqlRow>(bufferSize);
+        }
+
+        /**
+         * 参照元のレコードを読み込み、キューに格納する。
+         * <p/>
+         * 参照元の終端に達した場合、例外が発生した場合、もしくはリーダが閉じられた場合に終了する。
+         */
+        private void fetch() {
+            try {
+                transactionManager.beginTransaction();
+                try {
+                    AppDbConnection connection = DbConnectionContext.getConnection(
+                            transactionManager.getDbTransactionName());
+                    ParameterizedSqlPStatement statement = connection.prepareParameterizedSqlStatement(sql);
+                    if (fetchSize > 0) {
+                        statement.setFetchSize(fetchSize);
+                    }
+                    ResultSetIterator resultSet = statement.executeQueryByMap(condition);
+                    try {
+                        for (SqlRow row : resultSet) {
+                            if (closed) {
+                                break;
+                            }
+                            queue.put(row);
+                            fetchedCount.incrementAndGet();
+                        }
+                    } finally {
+                        resultSet.close();
+                    }
+                } finally {
+                    transactionManager.endTransaction();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.logDebug("merge thread was interrupted. source index = [" + index + ']');
+            } catch (Throwable e) {
+                // リーダを閉じたことにより発生した例外は、読み込みの失敗として扱わない。
+                if (!closed) {
+                    failure = e;
+                }
+            } finally {
+                finished = true;
+            }
+        }
+
+        /**
+         * キューからレコードを取り出す。
+         * <p/>
+         * 取り出せるレコードが存在しない場合は待機せずに{@code null}を返却する。
+         *
+         * @return レコード
+         */
+        private SqlRow poll() {
+            SqlRow row = queue.poll();
+            if (row == null && finished) {
+                rethrowFailure();
+            }
+            return row;
+        }
+
+        /**
+         * キューからレコードを取り出す。
+         * <p/>
+         * 取り出せるレコードが存在しない場合は、指定された時間だけ待機する。
+         *
+         * @param timeout 待機する時間(ミリ秒)
+         * @return レコード
+         * @throws InterruptedException 待機中に割り込みが発生した場合
+         */
+        private SqlRow poll(long timeout) throws InterruptedException {
+            SqlRow row = queue.poll(timeout, TimeUnit.MILLISECONDS);
+            return row != null ? row : poll();
+        }
+
+        /**
+         * キューからレコードを取り出す。
+         * <p/>
+         * 取り出せるレコードが存在しない場合は、レコードが読み込まれるか参照元の終端に達するまで待機する。
+         *
+         * @return レコード(参照元の終端に達した場合は{@code null})
+         * @throws InterruptedException 待機中に割り込みが発生した場合
+         */
+        private SqlRow take() throws InterruptedException {
+            SqlRow row = queue.poll();
+            if (row != null) {
+                return row;
+            }
+            waitCount.incrementAndGet();
+            while (!closed) {
+                if (finished) {
+                    // 終了前に格納されたレコードを取りこぼさないよう、終了を検知した後に再度取り出す。
+                    return poll();
+                }
+                row = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (row != null) {
+                    return row;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 参照元の終端に達し、読み込んだレコードを全て取り出したか否か。
+         *
+         * @return 全て取り出した場合は{@code true}
+         */
+        private boolean isExhausted() {
+            return finished && queue.isEmpty();
+        }
+
+        /**
+         * 読み込み専用スレッドで発生した例外を再送出する。
+         * <p/>
+         * 例外が発生していない場合は何もしない。
+         */
+        private void rethrowFailure() {
+            Throwable e = failure;
+            if (e == null) {
+                return;
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new RuntimeException(e);
+        }
+    }
+}
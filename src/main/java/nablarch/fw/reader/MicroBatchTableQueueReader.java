@@ -0,0 +1,122 @@
+package nablarch.fw.reader;
+
+import java.util.List;
+
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * {@link DatabaseTableQueueReader}から読み込んだレコードを、一定時間または一定件数ごとにまとめて返却するデータリーダ。
+ * <p/>
+ * 本リーダは、最初のレコードを読み込んでから最大待ち時間を経過するか、最大件数に達するまでレコードを読み込み、
+ * 1回の読み込みで{@link List}として返却する。
+ * 最大待ち時間の間に登録されたレコードもまとめて返却するため、少量の要求が継続して登録される場合でも、
+ * 業務処理のコミットを複数レコードで1回にまとめることができる。
+ * 最初のレコードが登録されてから処理を開始するまでの遅延は、最大待ち時間の分だけ長くなる。
+ * <p/>
+ * 返却したレコードは、同じスレッドが次に読み込みを行うまで処理中のレコードとして扱われ、
+ * 他のスレッドには返却されない。
+ * <p/>
+ * 本リーダは、複数レコードを処理する業務アクション({@code BatchAction<List<SqlRow>>})と組み合わせて使用する。
+ * <pre>{@code
+ *     DatabaseTableQueueReader queueReader = new DatabaseTableQueueReader(reader, 1000, "ID");
+ *     return new MicroBatchTableQueueReader(queueReader, 100, 50);
+ * }</pre>
+ *
+ * @see DatabaseTableQueueReader
+ * @see ChunkedDatabaseRecordReader
+ */
+public class MicroBatchTableQueueReader implements DataReader<List<SqlRow>> {
+
+    /** テーブルをキューとして扱うリーダ */
+    private final DatabaseTableQueueReader queueReader;
+
+    /** 1回の読み込みで返却する最大レコード数 */
+    private final int maxBatchSize;
+
+    /** 最初のレコードを読み込んでから返却するまでの最大待ち時間(ミリ秒) */
+    private final long maxLatency;
+
+    /**
+     * レコードをまとめて返却するリーダを生成する。
+     *
+     * @param queueReader テーブルをキューとして扱うリーダ
+     * @param maxBatchSize 1回の読み込みで返却する最大レコード数
+     * @param maxLatency 最初のレコードを読み込んでから返却するまでの最大待ち時間(ミリ秒)
+     * @throws IllegalArgumentException リーダが指定されていない場合、最大レコード数が1未満の場合、
+     *                                  もしくは最大待ち時間が負の値の場合
+     */
+    @Published
+    public MicroBatchTableQueueReader(DatabaseTableQueueReader queueReader, int maxBatchSize, long maxLatency) {
+        if (queueReader == null) {
+            throw new IllegalArgumentException("queue reader must be set.");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "max batch size must be greater than 0. max batch size = [" + maxBatchSize + ']');
+        }
+        if (maxLatency < 0) {
+            throw new IllegalArgumentException(
+                    "max latency must be 0 or greater. max latency = [" + maxLatency + ']');
+        }
+        this.queueReader = queueReader;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatency = maxLatency;
+    }
+
+    /**
+     * 最大件数に達するか、最初のレコードを読み込んでから最大待ち時間を経過するまでに読み込んだレコードを返却する。
+     * <p/>
+     * 処理対象レコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコードのリスト
+     */
+    @Override
+    public List<SqlRow> read(ExecutionContext ctx) {
+        return queueReader.readBatch(ctx, maxBatchSize, maxLatency);
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     * <p/>
+     * {@link DatabaseTableQueueReader}と同様に、リーダが閉じられるまで常に{@code true}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public boolean hasNext(ExecutionContext ctx) {
+        return queueReader.hasNext(ctx);
+    }
+
+    /**
+     * テーブルをキューとして扱うリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        queueReader.close(ctx);
+    }
+
+    /**
+     * 1回の読み込みで返却する最大レコード数を取得する。
+     *
+     * @return 最大レコード数
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 最初のレコードを読み込んでから返却するまでの最大待ち時間を取得する。
+     *
+     * @return 最大待ち時間(ミリ秒)
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+}
@@ -0,0 +1,456 @@
+package nablarch.fw.reader;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 処理対象レコードをパーティションに分割し、スレッド毎に異なるパーティションを読み込むデータリーダ。
+ * <p/>
+ * 本リーダは、スレッドが最初にレコードを読み込む際に、そのスレッドにパーティションを1つ割り当てる。
+ * 割り当てられたパーティションのレコードを全て読み込んだスレッドには、未割り当てのパーティションを順に割り当てる。
+ * 各スレッドは、割り当てられたパーティションのレコードのみを取得するステートメントとカーソルを専有するため、
+ * 複数スレッドが単一のカーソルからの読み込みを待ち合わせることがない。
+ * これにより、データベースからの読み込みスループットをスレッド数に応じて向上させることができる。
+ * <p/>
+ * パーティションの分割方法には、以下のいずれかを指定する。
+ * <pre>
+ * {@link PartitionType#MODULO} : パーティションキーの絶対値の整数部をパーティション数で割った余りで分割する。(デフォルト)
+ * {@link PartitionType#RANGE}  : パーティションキーの最小値から最大値までを、パーティション数で等分した範囲で分割する。
+ * </pre>
+ * パーティションキーには、数値型のカラムを指定すること。
+ * 負の値や小数部を持つ値もいずれか1つのパーティションに含まれるため、読み込まれないレコードは発生しない。
+ * <p/>
+ * 本リーダに設定するSQLには、処理対象レコードを取得するSQLを指定する。
+ * 本リーダは、指定されたSQLを副問い合わせとして、パーティションの絞り込みを行うSQLを構築する。
+ * <pre>{@code
+ *     PartitionedDatabaseRecordReader reader = new PartitionedDatabaseRecordReader(
+ *             "SELECT ID, DATA FROM INPUT_TABLE WHERE STATUS = :status", "ID")
+ *         .setCondition(condition)
+ *         .setPartitionType(PartitionType.RANGE);
+ * }</pre>
+ * <p/>
+ * ステートメントは、パーティションを割り当てたスレッド上で
+ * {@link DbConnectionContext}から取得したデータベース接続を使用して生成する。
+ * このため、本リーダは子スレッド毎にデータベース接続を確立するハンドラ構成で使用すること。
+ * <p/>
+ * パーティションのカーソルは、パーティションのレコードを全て読み込むまで開いたままとなる。
+ * 業務処理と同じデータベース接続でカーソルを開いた場合、JDBCドライバによっては、
+ * トランザクションループ制御ハンドラによる一定件数毎のコミットでカーソルが閉じられてしまう。
+ * 一定件数毎にコミットを行う場合は、業務処理とは別のデータベース接続(読み込み専用)を子スレッド毎に確立し、
+ * そのデータベースリソース名を{@link #setDbTransactionName(String)}に設定すること。
+ * <p/>
+ * パーティション数を指定しない場合は、並行実行数({@link ThreadContext#getConcurrentNumber()})をパーティション数とする。
+ * パーティション数が並行実行数より多い場合は、先に読み込みを終えたスレッドが残りのパーティションを読み込む。
+ * 割り当て可能なパーティションが残っていないスレッドからの読み込みには、{@code null}を返却する。
+ *
+ * @see DatabaseRecordReader
+ */
+public class PartitionedDatabaseRecordReader implements DataReader<SqlRow> {
+
+    /**
+     * パーティションの分割方法。
+     */
+    @Published
+    public enum PartitionType {
+        /** パーティションキーをパーティション数で割った余りで分割する。 */
+        MODULO,
+        /** パーティションキーの最小値から最大値までを、パーティション数で等分した範囲で分割する。 */
+        RANGE
+    }
+
+    /** 副問い合わせに付与する別名 */
+    private static final String SUB_QUERY_ALIAS = "PARTITIONED";
+
+    /** 処理対象レコードを取得するSQL */
+    private final String sql;
+
+    /** パーティションキーのカラム名 */
+    private final String partitionKeyColumn;
+
+    /** パーティションの分割方法 */
+    private PartitionType partitionType = PartitionType.MODULO;
+
+    /** パーティション数(0の場合は並行実行数) */
+    private int partitionCount = 0;
+
+    /** データベースリソース名 */
+    private String dbTransactionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
+    /** SQLのINパラメータに設定する条件 */
+    private Map<String, ?> condition = Collections.emptyMap();
+
+    /** フェッチサイズ */
+    private int fetchSize = 0;
+
+    /** パーティションキーの昇順に読み込むか否か */
+    private boolean orderByPartitionKey = false;
+
+    /** 次に割り当てるパーティション番号 */
+    private final AtomicInteger nextPartitionNo = new AtomicInteger();
+
+    /** スレッドに現在割り当てているパーティション */
+    private final ThreadLocal<Partition> currentPartition = new ThreadLocal<Partition>();
+
+    /** 割り当て済みで、読み込みを終えていないパーティション */
+    private final List<Partition> partitions = new CopyOnWriteArrayList<Partition>();
+
+    /** パーティションキーの最小値と最大値(範囲分割の場合のみ使用する) */
+    private BigDecimal[] keyRange;
+
+    /** リーダが閉じられているか否か */
+    private volatile boolean closed;
+
+    /**
+     * パーティション単位に読み込むリーダを生成する。
+     *
+     * @param sql 処理対象レコードを取得するSQL
+     * @param partitionKeyColumn パーティションキーのカラム名
+     * @throws IllegalArgumentException SQLもしくはパーティションキーのカラム名が指定されていない場合
+     */
+    @Published
+    public PartitionedDatabaseRecordReader(String sql, String partitionKeyColumn) {
+        if (StringUtil.isNullOrEmpty(sql)) {
+            throw new IllegalArgumentException("sql must be set.");
+        }
+        if (StringUtil.isNullOrEmpty(partitionKeyColumn)) {
+            throw new IllegalArgumentException("partition key column must be set.");
+        }
+        this.sql = sql;
+        this.partitionKeyColumn = partitionKeyColumn;
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたパーティションから、次のレコードを読み込み返却する。
+     * <p/>
+     * スレッドにパーティションが割り当てられていない場合、もしくは割り当てられたパーティションに次のレコードが存在しない場合は、
+     * 未割り当てのパーティションを割り当ててから読み込む。<br/>
+     * 割り当て可能なパーティションが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     */
+    @Override
+    public SqlRow read(ExecutionContext ctx) {
+        Partition partition = prepareReadablePartition(ctx);
+        if (partition == null) {
+            return null;
+        }
+        return partition.reader.read(ctx);
+    }
+
+    /**
+     * 次のレコードが存在するパーティションを現在のスレッドに割り当て、そのパーティション番号を返却する。
+     * <p/>
+     * 既に割り当てられているパーティションに次のレコードが存在する場合は、そのパーティション番号を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return パーティション番号(次のレコードが存在するパーティションを割り当てられない場合は-1)
+     */
+    int preparePartition(ExecutionContext ctx) {
+        Partition partition = prepareReadablePartition(ctx);
+        return partition == null ? -1 : partition.partitionNo;
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     * <p/>
+     * 現在のスレッドに割り当てられたパーティションに次のレコードが存在する場合、
+     * もしくは未割り当てのパーティションが存在する場合に{@code true}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public boolean hasNext(ExecutionContext ctx) {
+        if (closed) {
+            return false;
+        }
+        Partition partition = currentPartition.get();
+        if (partition != null && partition.reader.hasNext(ctx)) {
+            return true;
+        }
+        return nextPartitionNo.get() < getPartitionCount();
+    }
+
+    /**
+     * 全てのパーティションのステートメントを解放する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        closed = true;
+        for (Partition partition : partitions) {
+            partition.reader.close(ctx);
+        }
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたパーティション番号を取得する。
+     * <p/>
+     * パーティションが割り当てられていない場合は-1を返却する。
+     * 割り当て可能なパーティションが存在しなくなった後は、最後に割り当てられたパーティション番号を返却する。
+     *
+     * @return パーティション番号(0始まり)
+     */
+    public int getPartitionNo() {
+        Partition partition = currentPartition.get();
+        return partition == null ? -1 : partition.partitionNo;
+    }
+
+    /**
+     * パーティション数を取得する。
+     * <p/>
+     * パーティション数を設定していない場合は、並行実行数を返却する。
+     *
+     * @return パーティション数
+     */
+    public int getPartitionCount() {
+        if (partitionCount > 0) {
+            return partitionCount;
+        }
+        return Math.max(ThreadContext.getConcurrentNumber(), 1);
+    }
+
+    /**
+     * 次のレコードが存在するパーティションを現在のスレッドに割り当てる。
+     * <p/>
+     * 割り当てられているパーティションのレコードを全て読み込んでいる場合は、そのパーティションのステートメントを解放し、
+     * 未割り当てのパーティションを順に割り当てる。
+     * 割り当て可能なパーティションが存在しない場合は、最後に割り当てたパーティションを割り当てたままとする。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次のレコードが存在するパーティション(割り当て可能なパーティションが存在しない場合は{@code null})
+     */
+    private Partition prepareReadablePartition(ExecutionContext ctx) {
+        Partition partition = currentPartition.get();
+        while (partition == null || !partition.reader.hasNext(ctx)) {
+            Partition next = assignPartition();
+            if (next == null) {
+                return null;
+            }
+            if (partition != null) {
+                partitions.remove(partition);
+                partition.reader.close(ctx);
+            }
+            currentPartition.set(next);
+            partition = next;
+        }
+        return partition;
+    }
+
+    /**
+     * 未割り当てのパーティションを払い出す。
+     *
+     * @return 払い出したパーティション(払い出し可能なパーティションが存在しない場合は{@code null})
+     */
+    private Partition assignPartition() {
+        if (closed) {
+            return null;
+        }
+        int count = getPartitionCount();
+        int partitionNo = nextPartitionNo.getAndIncrement();
+        if (partitionNo >= count) {
+            return null;
+        }
+        AppDbConnection connection = DbConnectionContext.getConnection(dbTransactionName);
+        Map<String, Object> params = new HashMap<String, Object>(condition);
+        String partitionSql;
+        if (partitionType == PartitionType.RANGE) {
+            BigDecimal[] range = getKeyRange(connection);
+            if (range == null) {
+                // 処理対象レコードが存在しない場合は、全てのパーティションが空となる。
+                partitionSql = buildPartitionSql("1 = 0");
+            } else {
+                BigDecimal width = range[1].subtract(range[0]).add(BigDecimal.ONE)
+                        .divide(BigDecimal.valueOf(count), 0, RoundingMode.CEILING);
+                BigDecimal from = range[0].add(width.multiply(BigDecimal.valueOf(partitionNo)));
+                params.put("partitionFrom", from);
+                params.put("partitionTo", from.add(width));
+                partitionSql = buildPartitionSql(
+                        partitionKeyColumn + " >= :partitionFrom AND " + partitionKeyColumn + " < :partitionTo");
+            }
+        } else {
+            params.put("partitionCount", count);
+            params.put("partitionNo", partitionNo);
+            // 負の値や小数部を持つ値も、いずれかのパーティションに含まれるよう絶対値の整数部で分割する。
+            partitionSql = buildPartitionSql(
+                    "MOD(FLOOR(ABS(" + partitionKeyColumn + ")), :partitionCount) = :partitionNo");
+        }
+        ParameterizedSqlPStatement statement = connection.prepareParameterizedSqlStatement(partitionSql);
+        DatabaseRecordReader reader = new DatabaseRecordReader()
+                .setStatement(statement, params)
+                .setFetchSize(fetchSize);
+        Partition partition = new Partition(partitionNo, reader);
+        partitions.add(partition);
+        return partition;
+    }
+
+    /**
+     * パーティションキーの最小値と最大値を取得する。
+     * <p/>
+     * 最小値と最大値は、最初に取得した値を全パーティションで共有する。
+     *
+     * @param connection データベース接続
+     * @return パーティションキーの最小値と最大値の配列(処理対象レコードが存在しない場合は{@code null})
+     */
+    private synchronized BigDecimal[] getKeyRange(AppDbConnection connection) {
+        if (keyRange == null) {
+            ParameterizedSqlPStatement statement = connection.prepareParameterizedSqlStatement(
+                    "SELECT MIN(" + partitionKeyColumn + ") MIN_KEY, MAX(" + partitionKeyColumn + ") MAX_KEY"
+                            + " FROM (" + sql + ") " + SUB_QUERY_ALIAS);
+            try {
+                SqlResultSet result = statement.retrieve(condition);
+                SqlRow row = result.get(0);
+                BigDecimal min = row.getBigDecimal("MIN_KEY");
+                BigDecimal max = row.getBigDecimal("MAX_KEY");
+                keyRange = (min == null || max == null) ? new BigDecimal[0] : new BigDecimal[] {min, max};
+            } finally {
+                statement.close();
+            }
+        }
+        return keyRange.length == 0 ? null : keyRange;
+    }
+
+    /**
+     * パーティションの絞り込みを行うSQLを構築する。
+     *
+     * @param partitionCondition パーティションの絞り込み条件
+     * @return パーティションのレコードを取得するSQL
+     */
+    private String buildPartitionSql(String partitionCondition) {
+        String partitionSql = "SELECT * FROM (" + sql + ") " + SUB_QUERY_ALIAS + " WHERE " + partitionCondition;
+        if (orderByPartitionKey) {
+            partitionSql += " ORDER BY " + partitionKeyColumn;
+        }
+        return partitionSql;
+    }
+
+    /**
+     * パーティションの分割方法を設定する。
+     * <p/>
+     * デフォルトは{@link PartitionType#MODULO}。
+     *
+     * @param partitionType パーティションの分割方法
+     * @return このオブジェクト自体
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setPartitionType(PartitionType partitionType) {
+        this.partitionType = partitionType;
+        return this;
+    }
+
+    /**
+     * パーティション数を設定する。
+     * <p/>
+     * 設定しない場合は、並行実行数をパーティション数とする。
+     *
+     * @param partitionCount パーティション数
+     * @return このオブジェクト自体
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
+        return this;
+    }
+
+    /**
+     * SQLのINパラメータに設定する条件を設定する。
+     *
+     * @param condition SQLのINパラメータに設定する値を持つ{@link Map}
+     * @return このオブジェクト自体
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setCondition(Map<String, ?> condition) {
+        this.condition = condition;
+        return this;
+    }
+
+    /**
+     * SQLの実行に使用するデータベースリソース名を設定する。
+     * <p/>
+     * 設定しない場合は、デフォルトのデータベースリソース(業務処理と同じデータベース接続)を使用する。
+     * <p/>
+     * 一定件数毎にコミットを行う場合は、コミットによりパーティションのカーソルが閉じられないよう、
+     * 業務処理とは別に子スレッド毎に確立した、読み込み専用のデータベースリソース名を設定すること。
+     *
+     * @param dbTransactionName データベースリソース名
+     * @return このオブジェクト自体
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setDbTransactionName(String dbTransactionName) {
+        this.dbTransactionName = dbTransactionName;
+        return this;
+    }
+
+    /**
+     * 各パーティションの参照結果を取得する際のフェッチサイズを設定する。
+     *
+     * @param fetchSize フェッチサイズ
+     * @return このオブジェクト自体
+     * @see DatabaseRecordReader#setFetchSize(int)
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * 各パーティションのレコードを、パーティションキーの昇順に読み込むかどうかを設定する。
+     * <p/>
+     * 副問い合わせに指定したORDER BY句は、パーティションの絞り込み結果の順序を保証しない。
+     * 読み込み順序に依存する処理(レジューム機能など)で使用する場合は{@code true}を設定し、
+     * パーティションキーには一意となるカラムを指定すること。<br/>
+     * デフォルトは{@code false}。
+     *
+     * @param orderByPartitionKey パーティションキーの昇順に読み込む場合 {@code true}
+     * @return このオブジェクト自体
+     */
+    @Published
+    public PartitionedDatabaseRecordReader setOrderByPartitionKey(boolean orderByPartitionKey) {
+        this.orderByPartitionKey = orderByPartitionKey;
+        return this;
+    }
+
+    /**
+     * スレッドに割り当てたパーティション。
+     */
+    private static final class Partition {
+
+        /** パーティション番号 */
+        private final int partitionNo;
+
+        /** パーティションのレコードを読み込むリーダ */
+        private final DatabaseRecordReader reader;
+
+        /**
+         * パーティションを生成する。
+         *
+         * @param partitionNo パーティション番号
+         * @param reader パーティションのレコードを読み込むリーダ
+         */
+        private Partition(int partitionNo, DatabaseRecordReader reader) {
+            this.partitionNo = partitionNo;
+            this.reader = reader;
+        }
+    }
+}
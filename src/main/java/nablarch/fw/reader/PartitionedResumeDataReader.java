@@ -0,0 +1,255 @@
+package nablarch.fw.reader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.util.Builder;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+import nablarch.fw.handler.LoopHandler;
+
+/**
+ * {@link PartitionedDatabaseRecordReader}をラップして、パーティション毎のレジューム機能を追加するデータリーダ。
+ * <p/>
+ * {@link ResumeDataReader}は単一のデータリーダの読み込み回数を正常に処理できたポイントとするため、
+ * シングルスレッドでのみ使用できる。
+ * 本クラスは、スレッドに割り当てられたパーティション毎の読み込み回数を、
+ * リクエストIDとパーティション番号の組み合わせ毎に正常に処理できたポイントとして実行管理テーブルに保存する。
+ * パーティション数が並行実行数より多く、1つのスレッドが複数のパーティションを順に読み込む場合も、
+ * パーティション毎に読み込み状況を管理する。
+ * このため、マルチスレッドで実行するバッチでも、障害発生後の再実行時に、各パーティションの再開ポイントから読み込みを再開できる。
+ * <p/>
+ * 正常に処理できたポイントは、各スレッドの業務処理がコミットされるタイミングで、業務処理と同じトランザクションで保存される。
+ * 読み込みを終えたパーティションの正常に処理できたポイントは、そのスレッドの次のコミットのタイミングで保存される。
+ * スレッドに割り当て可能なパーティションがなくなった場合は、その時点で保存していない正常に処理できたポイントを保存し、
+ * スレッドの最後のコミットで業務処理と共にコミットされるようにする。
+ * <p/>
+ * 再実行時にも各パーティションに同じレコードが同じ順序で読み込まれる必要があるため、以下の点に注意すること。
+ * <ul>
+ * <li>本クラスは、ラップしたリーダがパーティションキーの昇順にレコードを読み込むよう設定する。
+ *     パーティションキーには一意となるカラムを指定すること。</li>
+ * <li>パーティション数および処理対象レコードを取得する条件は、再実行時にも変更しないこと。
+ *     処理済みのレコードのステータスを更新して処理対象から除外する場合は、本クラスを使用する必要はない。</li>
+ * </ul>
+ * <p/>
+ * 実行管理テーブルには、パーティション番号のカラムを設けて{@link ResumePointManager#setPartitionColumnName(String)}に設定し、
+ * 先行ジョブでパーティション毎のレコードを登録しておくこと。
+ * <pre>{@code
+ *     PartitionedDatabaseRecordReader reader = new PartitionedDatabaseRecordReader(
+ *             "SELECT ID, DATA FROM INPUT_TABLE", "ID")
+ *         .setPartitionCount(4);
+ *     return new PartitionedResumeDataReader(reader);
+ * }</pre>
+ *
+ * @see PartitionedDatabaseRecordReader
+ * @see ResumePointManager
+ */
+public class PartitionedResumeDataReader implements DataReader<SqlRow> {
+
+    /** レジューム機能を追加するリーダ */
+    private final PartitionedDatabaseRecordReader sourceReader;
+
+    /** スレッドに現在割り当てられているパーティションの読み込み状況 */
+    private final ThreadLocal<Progress> currentProgress = new ThreadLocal<Progress>();
+
+    /** スレッドが読み込みを終えたパーティションのうち、正常に処理できたポイントを保存していないものの読み込み状況 */
+    private final ThreadLocal<List<Progress>> unsavedProgresses = new ThreadLocal<List<Progress>>() {
+        @Override
+        protected List<Progress> initialValue() {
+            return new ArrayList<Progress>();
+        }
+    };
+
+    /**
+     * パーティション毎のレジューム機能を追加するリーダを生成する。
+     *
+     * @param sourceReader レジューム機能を追加するリーダ
+     * @throws IllegalArgumentException リーダが指定されていない場合
+     */
+    @Published
+    public PartitionedResumeDataReader(PartitionedDatabaseRecordReader sourceReader) {
+        if (sourceReader == null) {
+            throw new IllegalArgumentException("source reader must be set.");
+        }
+        this.sourceReader = sourceReader.setOrderByPartitionKey(true);
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたパーティションから、次のレコードを読み込み返却する。
+     * <p/>
+     * スレッドに新たなパーティションが割り当てられた際は、そのパーティションの正常に処理できたポイントまでレコードを読み飛ばす。<br/>
+     * トランザクションループ制御ハンドラの設定により一定件数ごとにコミットを行なっている場合は、
+     * コミット前の最後の処理で、現在のパーティションおよび前回のコミット以降に読み込みを終えたパーティションの
+     * 正常に処理できたポイントを実行管理テーブルに保存する。<br/>
+     * 割り当て可能なパーティションが存在しない場合は、現在のパーティションおよび読み込みを終えたパーティションの
+     * 正常に処理できたポイントのうち保存していないものを保存し、{@code null}を返却する。
+     * 他のスレッドが最後のパーティションを割り当てられた直後など、コミットのタイミングでなくても読み込みが終わる場合があるため、
+     * 最後のコミットで処理済みのレコードと正常に処理できたポイントが共にコミットされるよう、ここで保存する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     */
+    @Override
+    public SqlRow read(ExecutionContext ctx) {
+        Progress progress = prepareProgress(ctx);
+        if (progress == null) {
+            saveResumePoints(currentProgress.get());
+            return null;
+        }
+        SqlRow record = sourceReader.read(ctx);
+        progress.resumePoint++;
+        if (LoopHandler.isAboutToCommit(ctx)) {
+            saveResumePoints(progress);
+        }
+        return record;
+    }
+
+    /**
+     * 次のレコードが存在するパーティションの読み込み状況を返却する。
+     * <p/>
+     * 現在のパーティションに次のレコードが存在しない場合は、次のパーティションを割り当て、
+     * 正常に処理できたポイントまでレコードを読み飛ばす。
+     * 読み込みを終えたパーティションの読み込み状況は、次のコミットのタイミングで保存するため保持しておく。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 読み込み状況(割り当て可能なパーティションが存在しない場合は{@code null})
+     */
+    private Progress prepareProgress(ExecutionContext ctx) {
+        while (true) {
+            int partitionNo = sourceReader.preparePartition(ctx);
+            if (partitionNo < 0) {
+                return null;
+            }
+            Progress progress = currentProgress.get();
+            if (progress != null && progress.partitionNo == partitionNo) {
+                return progress;
+            }
+            if (progress != null && progress.resumePoint != progress.savedResumePoint) {
+                unsavedProgresses.get().add(progress);
+            }
+            progress = new Progress(partitionNo);
+            currentProgress.set(progress);
+            readToResumePoint(ctx, progress);
+        }
+    }
+
+    /**
+     * 現在のパーティションおよび、読み込みを終えたパーティションの正常に処理できたポイントを保存する。
+     *
+     * @param progress 現在のパーティションの読み込み状況(パーティションが割り当てられていない場合は{@code null})
+     */
+    private void saveResumePoints(Progress progress) {
+        List<Progress> unsaved = unsavedProgresses.get();
+        for (Progress finished : unsaved) {
+            saveResumePoint(finished);
+        }
+        unsaved.clear();
+        if (progress != null) {
+            saveResumePoint(progress);
+        }
+    }
+
+    /**
+     * パーティションの正常に処理できたポイントを保存する。
+     * <p/>
+     * 保存済みの正常に処理できたポイントから変わっていない場合は何もしない。
+     *
+     * @param progress パーティションの読み込み状況
+     */
+    private static void saveResumePoint(Progress progress) {
+        if (progress.resumePoint == progress.savedResumePoint) {
+            return;
+        }
+        ResumePointManager.getInstance().saveResumePoint(
+                ThreadContext.getRequestId(), progress.partitionNo, progress.resumePoint);
+        progress.savedResumePoint = progress.resumePoint;
+    }
+
+    /**
+     * 次に読み込むレコードが存在するかどうかを返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むレコードが存在する場合 {@code true}
+     */
+    @Override
+    public boolean hasNext(ExecutionContext ctx) {
+        return sourceReader.hasNext(ctx);
+    }
+
+    /**
+     * レジューム機能を追加するリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        sourceReader.close(ctx);
+    }
+
+    /**
+     * パーティションの正常に処理できたポイントまでレコードを読み飛ばす。
+     * <p/>
+     * 正常に処理できたポイントまで読み込んだ時点で次のレコードが存在しない場合は、
+     * そのパーティションは処理済みとみなす。
+     *
+     * @param ctx 実行コンテキスト
+     * @param progress パーティションの読み込み状況
+     * @throws IllegalStateException パーティションのレコード数が正常に処理できたポイントよりも少ない場合
+     */
+    private void readToResumePoint(ExecutionContext ctx, Progress progress) {
+        int resumePoint = ResumePointManager.getInstance().loadResumePoint(
+                ThreadContext.getRequestId(), progress.partitionNo);
+        for (int numberOfReads = 0; numberOfReads < resumePoint; numberOfReads++) {
+            if (sourceReader.preparePartition(ctx) != progress.partitionNo) {
+                throw new IllegalStateException(Builder.concat(
+                        "invalid resume point was specified. ",
+                        "The total number of reads input data was [", numberOfReads, "], ",
+                        "but resume point was [", resumePoint, "]. ",
+                        "request id=[", ThreadContext.getRequestId(), "], ",
+                        "partition no=[", progress.partitionNo, "]."));
+            }
+            sourceReader.read(ctx);
+        }
+        progress.resumePoint = resumePoint;
+        progress.savedResumePoint = resumePoint;
+    }
+
+    /**
+     * 現在のスレッドに割り当てられたパーティションの、正常に処理できたポイントを取得する。
+     * <p/>
+     * パーティションが割り当てられていない場合は-1を返却する。
+     *
+     * @return 正常に処理できたポイント
+     */
+    public int getResumePoint() {
+        Progress progress = currentProgress.get();
+        return progress == null ? -1 : progress.resumePoint;
+    }
+
+    /**
+     * パーティションの読み込み状況。
+     */
+    private static final class Progress {
+
+        /** パーティション番号 */
+        private final int partitionNo;
+
+        /** 読み込んだレコード数 */
+        private int resumePoint;
+
+        /** 実行管理テーブルに保存されている読み込んだレコード数 */
+        private int savedResumePoint;
+
+        /**
+         * 読み込み状況を生成する。
+         *
+         * @param partitionNo パーティション番号
+         */
+        private Progress(int partitionNo) {
+            this.partitionNo = partitionNo;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package nablarch.fw.reader;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * データリーダからの読み込みをバックグラウンドスレッドで先行して行うデータリーダ。
+ * <p/>
+ * 本リーダは、初回の読み込み時に読み込み専用のスレッドを1つ起動し、
+ * ラップしたデータリーダから読み込んだデータを上限付きのキューに格納していく。
+ * 各スレッドはキューからデータを取り出すため、ラップしたデータリーダのロックを取得する必要がない。
+ * これにより、JDBCドライバが次のレコードをフェッチしている間も、
+ * 先行して読み込まれたデータを並行して処理することができる。
+ * <pre>{@code
+ *     DatabaseRecordReader reader = new DatabaseRecordReader().setStatement(statement);
+ *     return new PrefetchDataReader<SqlRow>(reader, 1000);
+ * }</pre>
+ * <p/>
+ * ラップしたデータリーダは読み込み専用スレッドから呼び出される。
+ * このため、読み込み時にスレッドに紐付くリソース(例えば{@link nablarch.core.db.connection.DbConnectionContext}から
+ * 取得するデータベース接続)を使用するデータリーダはラップできない。
+ * また、読み込み専用スレッドで発生した例外は、後続の{@link #read(ExecutionContext)}呼び出しで再送出される。
+ * <p/>
+ * キューのサイズを調整するための指標として、キューに格納されているデータ数および、
+ * キューが空であったため処理スレッドが待機した回数、キューが満杯であったため読み込み専用スレッドが待機した回数を提供する。
+ *
+ * @param <TData> このクラスが読み込んだデータの型
+ */
+public class PrefetchDataReader<TData> implements DataReader<TData> {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(PrefetchDataReader.class);
+
+    /** キューが空の場合に、データの格納を待機する間隔(ミリ秒) */
+    private static final long POLL_INTERVAL = 10;
+
+    /** 読み込み専用スレッドの終了を待機する時間(ミリ秒) */
+    private static final long STOP_TIMEOUT = 5000;
+
+    /** 先行読み込みするデータリーダ */
+    private final DataReader<TData> sourceReader;
+
+    /** 先行読み込みするデータ数の上限 */
+    private final int prefetchDepth;
+
+    /** 先行読み込みしたデータを格納するキュー */
+    private final BlockingQueue<Object> queue;
+
+    /** キューが空のため処理スレッドが待機した回数 */
+    private final AtomicLong consumerWaitCount = new AtomicLong();
+
+    /** キューが満杯のため読み込み専用スレッドが待機した回数 */
+    private final AtomicLong producerWaitCount = new AtomicLong();
+
+    /** 読み込み専用スレッド */
+    private volatile Thread producer;
+
+    /** 読み込み専用スレッドが終了したか否か */
+    private volatile boolean finished;
+
+    /** 読み込み専用スレッドで発生した例外 */
+    private volatile Throwable failure;
+
+    /** リーダが閉じられているか否か */
+    private volatile boolean closed;
+
+    /**
+     * 先行読み込みを行うリーダを生成する。
+     *
+     * @param sourceReader 先行読み込みするデータリーダ
+     * @param prefetchDepth 先行読み込みするデータ数の上限
+     * @throws IllegalArgumentException 先行読み込みするデータ数の上限が1未満の場合
+     */
+    @Published
+    public PrefetchDataReader(DataReader<TData> sourceReader, int prefetchDepth) {
+        if (prefetchDepth < 1) {
+            throw new IllegalArgumentException(
+                    "prefetch depth must be greater than 0. prefetch depth = [" + prefetchDepth + ']');
+        }
+        this.sourceReader = sourceReader;
+        this.prefetchDepth = prefetchDepth;
+        queue = new LinkedBlockingQueue<Object>(prefetchDepth);
+    }
+
+    /**
+     * 先行読み込みされたデータを1件返却する。
+     * <p/>
+     * 先行読み込みされたデータが存在しない場合は、データが読み込まれるまで待機する。<br/>
+     * 次に読み込むデータが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 入力データオブジェクト
+     * @throws RuntimeException 読み込み専用スレッドで例外が発生した場合、もしくは待機中に割り込みが発生した場合
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public TData read(ExecutionContext ctx) {
+        startProducer(ctx);
+        Object data = queue.poll();
+        if (data != null) {
+            return (TData) data;
+        }
+        consumerWaitCount.incrementAndGet();
+        try {
+            while (true) {
+                if (finished) {
+                    // 終了前に格納されたデータを取りこぼさないよう、終了を検知した後に再度取り出す。
+                    data = queue.poll();
+                    if (data == null) {
+                        rethrowFailure();
+                    }
+                    return (TData) data;
+                }
+                data = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (data != null) {
+                    return (TData) data;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 次に読み込むデータが存在するかどうかを返却する。
+     * <p/>
+     * 本実装では、ラップしたデータリーダの終端に達し、かつ先行読み込みされたデータを全て読み込んだ場合に
+     * {@code false}を返す。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 次に読み込むデータが存在する場合は{@code true}
+     */
+    @Override
+    public boolean hasNext(ExecutionContext ctx) {
+        startProducer(ctx);
+        return !closed && !(finished && queue.isEmpty());
+    }
+
+    /**
+     * 読み込み専用スレッドを停止し、ラップしたデータリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public void close(ExecutionContext ctx) {
+        synchronized (this) {
+            closed = true;
+        }
+        Thread thread = producer;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sourceReader.close(ctx);
+    }
+
+    /**
+     * 読み込み専用スレッドを起動する。
+     * <p/>
+     * 既に起動済みの場合は何もしない。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    private void startProducer(final ExecutionContext ctx) {
+        if (producer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (producer != null || closed) {
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch(ctx);
+                }
+            }, "prefetch-" + Thread.currentThread().getName());
+            thread.setDaemon(true);
+            producer = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * ラップしたデータリーダからデータを読み込み、キューに格納する。
+     * <p/>
+     * データの終端に達した場合、例外が発生した場合、もしくはリーダが閉じられた場合に終了する。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    private void prefetch(ExecutionContext ctx) {
+        try {
+            while (!closed && sourceReader.hasNext(ctx)) {
+                TData data = sourceReader.read(ctx);
+                if (data == null) {
+                    break;
+                }
+                if (queue.remainingCapacity() == 0) {
+                    producerWaitCount.incrementAndGet();
+                }
+                queue.put(data);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.logDebug("prefetch thread was interrupted.");
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * 読み込み専用スレッドで発生した例外を再送出する。
+     * <p/>
+     * 例外が発生していない場合は何もしない。
+     */
+    private void rethrowFailure() {
+        Throwable e = failure;
+        if (e == null) {
+            return;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    /**
+     * 先行読み込みするデータ数の上限を取得する。
+     *
+     * @return 先行読み込みするデータ数の上限
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * 先行読み込みされ、キューに格納されているデータ数を取得する。
+     *
+     * @return キューに格納されているデータ数
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * キューが空であったため、処理スレッドがデータの読み込みを待機した回数を取得する。
+     * <p/>
+     * この値が大きい場合は、データの読み込みが処理のボトルネックとなっている。
+     *
+     * @return 処理スレッドが待機した回数
+     */
+    public long getConsumerWaitCount() {
+        return consumerWaitCount.get();
+    }
+
+    /**
+     * キューが満杯であったため、読み込み専用スレッドが待機した回数を取得する。
+     * <p/>
+     * この値が大きい場合は、先行読み込みするデータ数の上限を小さくしてもスループットへの影響は小さい。
+     *
+     * @return 読み込み専用スレッドが待機した回数
+     */
+    public long getProducerWaitCount() {
+        return producerWaitCount.get();
+    }
+}
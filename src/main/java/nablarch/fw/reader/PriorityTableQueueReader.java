@@ -0,0 +1,454 @@
+package nablarch.fw.reader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+/**
+ * 優先度毎に異なるSQLで処理対象レコードを取得し、重み付きで公平にレコードを返却するテーブルキューリーダ。
+ * <p/>
+ * 本リーダは、優先度(レベル)毎に{@link DatabaseTableQueueReader}を保持し、レベルに設定した重みの比率で
+ * 各レベルのレコードを返却する(重み付きラウンドロビン)。
+ * これにより、大量の低優先度のレコードが滞留している場合でも、高優先度のレコードを遅延なく処理しつつ、
+ * 低優先度のレコードの処理も停止させずに継続できる。
+ * <pre>{@code
+ *     PriorityTableQueueReader reader = new PriorityTableQueueReader(1000, "REQUEST_ID")
+ *             .addLevel("urgent", urgentRecordReader, 8)
+ *             .addLevel("bulk", bulkRecordReader, 1);
+ * }</pre>
+ * <p/>
+ * 選択したレベルに処理対象レコードが存在しない場合は、他のレベルから重みの大きい順にレコードを読み込む。
+ * 処理対象レコードが存在しなかったレベルは、コンストラクタで指定した待機時間が経過するまで再検索を行わない。
+ * このため、高優先度のレコードが登録されてから読み込まれるまでの遅延は、最大で待機時間となる。
+ * 全てのレベルが再検索の待機中の場合は、いずれかのレベルの待機時間が経過するまで待機する。
+ * <p/>
+ * 各レベルのSQLは、同じレコードを重複して取得しないよう、互いに異なるレコードを取得すること。
+ * 例えば、優先度カラムを持つテーブルであれば、レベル毎に優先度カラムの条件を指定する。
+ * <p/>
+ * レベル毎に、読み込んだレコード数、処理対象レコードが存在しなかった回数を取得できる。
+ * {@link #setEnqueuedTimeColumn(String)}でレコードの登録日時カラムを設定した場合は、
+ * レコードが登録されてから読み込まれるまでの待ち時間も取得できる。
+ * また、{@link #setQueueDepthSql(String, String)}で件数を取得するSQLを設定した場合は、
+ * {@link #getQueueDepth(String)}でレベル毎の未処理のレコード数を取得できる。
+ *
+ * @see DatabaseTableQueueReader
+ */
+public class PriorityTableQueueReader implements DataReader<SqlRow> {
+
+    /** 処理対象レコードが存在しなかったレベルの再検索を待機する時間(ミリ秒) */
+    private final int waitTime;
+
+    /** 主キーのカラム名リスト */
+    private final String[] primaryKeys;
+
+    /** レベル(追加した順) */
+    private final Map<String, Level> levels = new LinkedHashMap<String, Level>();
+
+    /** レコードの登録日時カラム名({@code null}の場合は待ち時間を計測しない) */
+    private String enqueuedTimeColumn;
+
+    /** 未処理のレコード数を取得するSQLの実行に使用するデータベースリソース名 */
+    private String dbTransactionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
+    /** リーダが閉じられているか否か */
+    private boolean closed;
+
+    /**
+     * 優先度付きのテーブルキューリーダを生成する。
+     *
+     * @param waitTime 処理対象レコードが存在しなかったレベルの再検索を待機する時間(ミリ秒)
+     * @param primaryKeys レコードを一意に識別する主キーのカラム名
+     */
+    @Published
+    public PriorityTableQueueReader(int waitTime, String... primaryKeys) {
+        this.waitTime = waitTime;
+        this.primaryKeys = primaryKeys;
+    }
+
+    /**
+     * レベルを追加する。
+     * <p/>
+     * 指定されたリーダは、待機時間を0とした{@link DatabaseTableQueueReader}でラップして使用する。
+     *
+     * @param name レベル名
+     * @param reader レベルの処理対象レコードを取得するリーダ
+     * @param weight 重み(他のレベルに対して、レコードを読み込む比率)
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException レベル名またはリーダが指定されていない場合、レベル名が重複している場合、
+     *                                   重みが1未満の場合、もしくは主キーのカラム名が不正な場合
+     */
+    @Published
+    public synchronized PriorityTableQueueReader addLevel(String name, DatabaseRecordReader reader, int weight) {
+        if (StringUtil.isNullOrEmpty(name)) {
+            throw new IllegalArgumentException("level name must be set.");
+        }
+        if (levels.containsKey(name)) {
+            throw new IllegalArgumentException("duplicated level name. level name = [" + name + ']');
+        }
+        if (reader == null) {
+            throw new IllegalArgumentException("reader must be set.");
+        }
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be greater than 0. weight = [" + weight + ']');
+        }
+        levels.put(name, new Level(name, new DatabaseTableQueueReader(reader, 0, primaryKeys), weight));
+        return this;
+    }
+
+    /**
+     * 次のレコードを読み込み返却する。
+     * <p/>
+     * 重み付きラウンドロビンで選択したレベルからレコードを読み込む。
+     * 選択したレベルに処理対象レコードが存在しない場合は、再検索の待機中でない他のレベルから重みの大きい順に読み込む。
+     * 全てのレベルが再検索の待機中の場合は、いずれかのレベルの待機時間が経過するまで待機する。
+     * <p/>
+     * 次に読み込むレコードが存在しない場合は{@code null}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @return レコード
+     * @throws IllegalStateException レベルが追加されていない場合
+     * @throws RuntimeException 待機中に割り込みが発生した場合
+     */
+    @Override
+    public synchronized SqlRow read(ExecutionContext ctx) {
+        if (levels.isEmpty()) {
+            throw new IllegalStateException("level was not added.");
+        }
+        long now = waitForAvailableLevel();
+        for (Level level : selectCandidates(now)) {
+            SqlRow record = level.reader.read(ctx);
+            if (record != null) {
+                level.countUp(record, now);
+                releaseWorkingRecord(level);
+                return record;
+            }
+            level.emptyPollCount++;
+            level.nextPollTime = now + waitTime;
+        }
+        releaseWorkingRecord(null);
+        return null;
+    }
+
+    /**
+     * 現在のスレッドが他のレベルから読み込んだレコードを、処理中のレコードから除外する。
+     *
+     * @param readLevel 今回レコードを読み込んだレベル({@code null}の場合は全てのレベルから除外する)
+     */
+    private void releaseWorkingRecord(Level readLevel) {
+        for (Level level : levels.values()) {
+            if (level != readLevel) {
+                level.reader.releaseWorkingRecord();
+            }
+        }
+    }
+
+    /**
+     * いずれかのレベルが再検索の待機中でなくなるまで待機する。
+     *
+     * @return 現在時刻
+     * @throws RuntimeException 待機中に割り込みが発生した場合
+     */
+    private long waitForAvailableLevel() {
+        long now = System.currentTimeMillis();
+        long nextPollTime = Long.MAX_VALUE;
+        for (Level level : levels.values()) {
+            nextPollTime = Math.min(nextPollTime, level.nextPollTime);
+        }
+        if (nextPollTime <= now) {
+            return now;
+        }
+        try {
+            Thread.sleep(nextPollTime - now);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * レコードを読み込むレベルを、読み込む順に返却する。
+     * <p/>
+     * 再検索の待機中でないレベルのうち、重み付きラウンドロビンで選択したレベルを先頭とし、
+     * 残りのレベルを重みの大きい順に並べる。
+     *
+     * @param now 現在時刻
+     * @return レコードを読み込むレベル
+     */
+    private List<Level> selectCandidates(long now) {
+        List<Level> candidates = new ArrayList<Level>();
+        Level selected = null;
+        int totalWeight = 0;
+        for (Level level : levels.values()) {
+            if (level.nextPollTime > now) {
+                continue;
+            }
+            candidates.add(level);
+            level.currentWeight += level.weight;
+            totalWeight += level.weight;
+            if (selected == null || level.currentWeight > selected.currentWeight) {
+                selected = level;
+            }
+        }
+        if (selected == null) {
+            return candidates;
+        }
+        selected.currentWeight -= totalWeight;
+        candidates.remove(selected);
+        Collections.sort(candidates, new Comparator<Level>() {
+            @Override
+            public int compare(Level o1, Level o2) {
+                return o2.weight - o1.weight;
+            }
+        });
+        candidates.add(0, selected);
+        return candidates;
+    }
+
+    /**
+     * 次に読み込むデータが存在するかどうかを返却する。
+     * <p/>
+     * {@link DatabaseTableQueueReader}と同様に、このリーダが閉じられるまで常に{@code true}を返す。
+     *
+     * @param ctx 実行コンテキスト
+     * @return 読み込むデータが存在する場合 {@code true}
+     */
+    @Override
+    public synchronized boolean hasNext(ExecutionContext ctx) {
+        return !closed;
+    }
+
+    /**
+     * 全てのレベルのリーダを閉じる。
+     *
+     * @param ctx 実行コンテキスト
+     */
+    @Override
+    public synchronized void close(ExecutionContext ctx) {
+        closed = true;
+        for (Level level : levels.values()) {
+            level.reader.close(ctx);
+        }
+    }
+
+    /**
+     * レコードの登録日時カラム名を設定する。
+     * <p/>
+     * 設定した場合、レコードが登録されてから読み込まれるまでの待ち時間をレベル毎に計測する。
+     *
+     * @param enqueuedTimeColumn 登録日時カラム(日付型またはタイムスタンプ型)の名前
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized PriorityTableQueueReader setEnqueuedTimeColumn(String enqueuedTimeColumn) {
+        this.enqueuedTimeColumn = enqueuedTimeColumn;
+        return this;
+    }
+
+    /**
+     * レベルの未処理のレコード数を取得するSQLを設定する。
+     * <p/>
+     * SQLは、1列目に件数を返却すること。
+     * <pre>{@code
+     *     SELECT COUNT(*) FROM REQUEST WHERE STATUS = '0' AND PRIORITY = 1
+     * }</pre>
+     *
+     * @param levelName レベル名
+     * @param sql 未処理のレコード数を取得するSQL
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    @Published
+    public synchronized PriorityTableQueueReader setQueueDepthSql(String levelName, String sql) {
+        getLevel(levelName).queueDepthSql = sql;
+        return this;
+    }
+
+    /**
+     * 未処理のレコード数を取得するSQLの実行に使用するデータベースリソース名を設定する。
+     * <p/>
+     * 設定しない場合は、デフォルトのデータベースリソースを使用する。
+     *
+     * @param dbTransactionName データベースリソース名
+     * @return このオブジェクト自体
+     */
+    @Published
+    public synchronized PriorityTableQueueReader setDbTransactionName(String dbTransactionName) {
+        this.dbTransactionName = dbTransactionName;
+        return this;
+    }
+
+    /**
+     * レベルの未処理のレコード数を取得する。
+     * <p/>
+     * {@link #setQueueDepthSql(String, String)}で設定したSQLを、呼び出し元のスレッドの
+     * {@link DbConnectionContext}から取得したデータベース接続で実行する。
+     *
+     * @param levelName レベル名
+     * @return 未処理のレコード数(SQLが設定されていない場合は-1)
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    public long getQueueDepth(String levelName) {
+        String sql;
+        synchronized (this) {
+            sql = getLevel(levelName).queueDepthSql;
+        }
+        if (sql == null) {
+            return -1;
+        }
+        SqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName).prepareStatement(sql);
+        try {
+            SqlResultSet rows = statement.retrieve();
+            Object count = rows.get(0).values().iterator().next();
+            return ((Number) count).longValue();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * レベルから読み込んだレコード数を取得する。
+     *
+     * @param levelName レベル名
+     * @return 読み込んだレコード数
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    public synchronized long getReadCount(String levelName) {
+        return getLevel(levelName).readCount;
+    }
+
+    /**
+     * レベルに処理対象レコードが存在しなかった回数を取得する。
+     *
+     * @param levelName レベル名
+     * @return 処理対象レコードが存在しなかった回数
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    public synchronized long getEmptyPollCount(String levelName) {
+        return getLevel(levelName).emptyPollCount;
+    }
+
+    /**
+     * レベルのレコードが登録されてから読み込まれるまでの待ち時間の合計を取得する。
+     *
+     * @param levelName レベル名
+     * @return 待ち時間の合計(ミリ秒)
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    public synchronized long getTotalWaitTime(String levelName) {
+        return getLevel(levelName).totalWaitTime;
+    }
+
+    /**
+     * レベルのレコードが登録されてから読み込まれるまでの待ち時間の最大値を取得する。
+     *
+     * @param levelName レベル名
+     * @return 待ち時間の最大値(ミリ秒)
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    public synchronized long getMaxWaitTime(String levelName) {
+        return getLevel(levelName).maxWaitTime;
+    }
+
+    /**
+     * レベルを取得する。
+     *
+     * @param levelName レベル名
+     * @return レベル
+     * @throws IllegalArgumentException レベルが存在しない場合
+     */
+    private Level getLevel(String levelName) {
+        Level level = levels.get(levelName);
+        if (level == null) {
+            throw new IllegalArgumentException("level was not found. level name = [" + levelName + ']');
+        }
+        return level;
+    }
+
+    /**
+     * 優先度のレベル。
+     */
+    private final class Level {
+
+        /** レベル名 */
+        private final String name;
+
+        /** レベルの処理対象レコードを読み込むリーダ */
+        private final DatabaseTableQueueReader reader;
+
+        /** 重み */
+        private final int weight;
+
+        /** 重み付きラウンドロビンの現在の重み */
+        private int currentWeight = 0;
+
+        /** 次に再検索を行う時刻 */
+        private long nextPollTime = 0;
+
+        /** 未処理のレコード数を取得するSQL */
+        private String queueDepthSql;
+
+        /** 読み込んだレコード数 */
+        private long readCount = 0;
+
+        /** 処理対象レコードが存在しなかった回数 */
+        private long emptyPollCount = 0;
+
+        /** 待ち時間の合計(ミリ秒) */
+        private long totalWaitTime = 0;
+
+        /** 待ち時間の最大値(ミリ秒) */
+        private long maxWaitTime = 0;
+
+        /**
+         * レベルを生成する。
+         *
+         * @param name レベル名
+         * @param reader リーダ
+         * @param weight 重み
+         */
+        private Level(String name, DatabaseTableQueueReader reader, int weight) {
+            this.name = name;
+            this.reader = reader;
+            this.weight = weight;
+        }
+
+        /**
+         * 読み込んだレコードを計上する。
+         *
+         * @param record 読み込んだレコード
+         * @param now 現在時刻
+         * @throws IllegalArgumentException レコードに登録日時カラムが含まれていない場合
+         */
+        private void countUp(SqlRow record, long now) {
+            readCount++;
+            if (enqueuedTimeColumn == null) {
+                return;
+            }
+            if (!record.containsKey(enqueuedTimeColumn)) {
+                throw new IllegalArgumentException(String.format(
+                        "enqueued time column was not found in record. level name = [%s], enqueued time column name = [%s]",
+                        name, enqueuedTimeColumn));
+            }
+            Object enqueuedTime = record.get(enqueuedTimeColumn);
+            if (enqueuedTime instanceof Date) {
+                long waited = Math.max(now - ((Date) enqueuedTime).getTime(), 0);
+                totalWaitTime += waited;
+                maxWaitTime = Math.max(maxWaitTime, waited);
+            }
+        }
+    }
+}
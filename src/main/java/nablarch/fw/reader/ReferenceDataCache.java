@@ -0,0 +1,428 @@
+package nablarch.fw.reader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * 業務処理で参照するマスタなどの参照データをキャッシュするクラス。
+ * <p>
+ * 入力データ毎に同じ参照用SQLを実行すると、入力データの件数分だけデータベースへのアクセスが発生する。
+ * 本クラスは参照結果をキーカラムの値毎にキャッシュし、マルチスレッドで実行される業務処理間で共有する。
+ * </p>
+ * <p>
+ * キャッシュの方式は以下の2つから選択する。
+ * <ul>
+ *     <li>一括読み込み(preload=true)：初回参照時に{@code sql}で全レコードを読み込む。
+ *     {@code timeToLive}を設定した場合は、有効期間を過ぎた後の参照時に全レコードを読み込み直す。</li>
+ *     <li>都度読み込み(preload=false)：キャッシュに存在しないキーの参照時に、{@code sql}でそのキーのレコードを読み込む。
+ *     {@code sql}には、キーの値を設定する名前付きパラメータ{@code :key}を記述すること。
+ *     キャッシュするキーの数が{@code maxSize}を超えた場合は、最も長く参照されていないキーから破棄する。
+ *     また、{@code timeToLive}を設定した場合は、読み込んでから有効期間を過ぎたキーを破棄する。
+ *     レコードが存在しなかったキーも、存在しないことをキャッシュする。</li>
+ * </ul>
+ * </p>
+ * <p>
+ * 本クラスは、リポジトリで管理されることを想定しているので、コンポーネント設定ファイルに初期化の設定を行うこと。
+ * 以下に都度読み込みの設定例を示す。
+ * <pre>{@code
+ * <component name="itemCache" class="nablarch.fw.reader.ReferenceDataCache">
+ *   <property name="sql" value="SELECT * FROM ITEM WHERE ITEM_CODE = :key" />
+ *   <property name="keyColumnName" value="ITEM_CODE" />
+ *   <property name="maxSize" value="10000" />
+ *   <property name="timeToLive" value="600000" />
+ * </component>
+ * }</pre>
+ * </p>
+ * <p>
+ * SQLは、参照したスレッドの{@link DbConnectionContext}から取得したデータベース接続で実行する。
+ * キャッシュしたレコードは全スレッドで共有されるため、取得したレコードを変更してはならない。
+ * </p>
+ * <p>
+ * キャッシュの設定を調整するための指標として、ヒット数、ミス数、読み込み回数、破棄したキーの数を提供する。
+ * 一括読み込みの場合、全レコードを読み込み直した参照および、読み込んだレコードに存在しないキーの参照をミスとして数える。
+ * </p>
+ *
+ * @see nablarch.core.repository.initialization.Initializable
+ */
+@Published(tag = "architect")
+public class ReferenceDataCache implements Initializable {
+
+    /** 都度読み込み時に、キーの値を設定する名前付きパラメータの名前 */
+    private static final String KEY_PARAMETER_NAME = "key";
+
+    /** レコードが存在しないことを表すオブジェクト */
+    private static final SqlRow NOT_FOUND = new SqlRow(new HashMap<String, Object>(), new HashMap<String, Integer>());
+
+    /** データベースリソース名 */
+    private String dbTransactionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
+    /** 参照データを読み込むSQL文 */
+    private String sql;
+
+    /** キーカラムの名前 */
+    private String keyColumnName;
+
+    /** 一括読み込みを行うか否か */
+    private boolean preload = false;
+
+    /** 都度読み込み時にキャッシュするキーの最大数 */
+    private int maxSize = 1000;
+
+    /** キャッシュの有効期間(ミリ秒。0以下の場合は無期限) */
+    private long timeToLive = 0;
+
+    /** キャッシュ(都度読み込み時はアクセス順に並ぶ) */
+    private Map<String, Entry> cache;
+
+    /** 一括読み込みした日時(ミリ秒) */
+    private long preloadedAt = 0;
+
+    /** 一括読み込み済みか否か */
+    private boolean preloaded = false;
+
+    /** キャッシュにヒットした回数 */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** キャッシュにヒットしなかった回数 */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /** データベースから読み込んだ回数 */
+    private final AtomicLong loadCount = new AtomicLong();
+
+    /** 破棄したキーの数 */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * 初期化時に、コンポーネント設定ファイルで設定されたプロパティの内容をチェックし、
+     * キャッシュを生成する。
+     */
+    @Override
+    public void initialize() {
+        checkPropertySet("sql", sql);
+        checkPropertySet("keyColumnName", keyColumnName);
+        if (maxSize < 1) {
+            throw new IllegalStateException(String.format(
+                    "[maxSize] property must be greater than 0. maxSize=[%d], class=[%s].", maxSize, getClass().getName()));
+        }
+        if (preload) {
+            cache = new HashMap<String, Entry>();
+        } else {
+            cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > maxSize) {
+                        evictionCount.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    /**
+     * プロパティの値が設定されていることを確認する。
+     * @param name  プロパティ名
+     * @param value プロパティの値
+     * @throws IllegalStateException プロパティが設定されていない場合
+     */
+    protected void checkPropertySet(String name, String value) throws IllegalStateException {
+        if (StringUtil.isNullOrEmpty(value)) {
+            throw new IllegalStateException(String.format(
+                    "[%s] property must be set. class=[%s].", name, getClass().getName()));
+        }
+    }
+
+    /**
+     * キーに対応する参照データを取得する。
+     * <p>
+     * キーは文字列に変換して比較するため、キーカラムの型と異なる型(例えば数値型のカラムに対する文字列)でも参照できる。
+     * </p>
+     * @param key キー
+     * @return 参照データ(存在しない場合は{@code null})
+     * @throws IllegalStateException 初期化されていない場合
+     */
+    public SqlRow get(Object key) {
+        if (cache == null) {
+            throw new IllegalStateException("ReferenceDataCache was not initialized.");
+        }
+        if (key == null) {
+            return null;
+        }
+        SqlRow row = preload ? getPreloaded(key.toString()) : getOrLoad(key);
+        return row == NOT_FOUND ? null : row;
+    }
+
+    /**
+     * 一括読み込みしたキャッシュから参照データを取得する。
+     * <p>
+     * 未読み込み、または有効期間を過ぎている場合は、全レコードを読み込み直す。
+     * </p>
+     * @param key キー
+     * @return 参照データ(存在しない場合は{@code null})
+     */
+    private SqlRow getPreloaded(String key) {
+        Entry entry;
+        synchronized (this) {
+            if (!preloaded || isExpired(preloadedAt)) {
+                missCount.incrementAndGet();
+                preloadAll();
+                entry = cache.get(key);
+            } else {
+                entry = cache.get(key);
+                if (entry == null) {
+                    missCount.incrementAndGet();
+                } else {
+                    hitCount.incrementAndGet();
+                }
+            }
+        }
+        return entry == null ? null : entry.row;
+    }
+
+    /**
+     * 全レコードを読み込み、キャッシュを置き換える。
+     */
+    private void preloadAll() {
+        SqlResultSet rows = retrieve(Collections.<String, Object>emptyMap());
+        loadCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        cache.clear();
+        for (SqlRow row : rows) {
+            cache.put(toKey(row), new Entry(row, now));
+        }
+        preloadedAt = now;
+        preloaded = true;
+    }
+
+    /**
+     * キャッシュから参照データを取得する。
+     * <p>
+     * キャッシュに存在しない、または有効期間を過ぎている場合は、データベースから読み込みキャッシュする。
+     * 他のスレッドの参照を妨げないよう、データベースからの読み込みはロックを取得せずに行う。
+     * </p>
+     * @param key キー
+     * @return 参照データ(存在しない場合は{@link #NOT_FOUND})
+     */
+    private SqlRow getOrLoad(Object key) {
+        String cacheKey = key.toString();
+        synchronized (this) {
+            Entry entry = cache.get(cacheKey);
+            if (entry != null && !isExpired(entry.loadedAt)) {
+                hitCount.incrementAndGet();
+                return entry.row;
+            }
+            if (entry != null) {
+                cache.remove(cacheKey);
+                evictionCount.incrementAndGet();
+            }
+        }
+        missCount.incrementAndGet();
+
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put(KEY_PARAMETER_NAME, key);
+        SqlResultSet rows = retrieve(condition);
+        loadCount.incrementAndGet();
+        SqlRow row = rows.isEmpty() ? NOT_FOUND : rows.get(0);
+        synchronized (this) {
+            cache.put(cacheKey, new Entry(row, System.currentTimeMillis()));
+        }
+        return row;
+    }
+
+    /**
+     * 参照データを読み込む。
+     * <p>
+     * 読み込みに使用したステートメントは、読み込み後に解放する。
+     * </p>
+     * @param condition SQLのINパラメータに設定する条件
+     * @return 参照データ
+     */
+    private SqlResultSet retrieve(Map<String, ?> condition) {
+        AppDbConnection connection = DbConnectionContext.getConnection(dbTransactionName);
+        ParameterizedSqlPStatement statement = connection.prepareParameterizedSqlStatement(sql);
+        try {
+            return statement.retrieve(condition);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * レコードからキャッシュのキーを取得する。
+     * @param row レコード
+     * @return キャッシュのキー
+     * @throws IllegalStateException レコードにキーカラムが存在しない場合
+     */
+    private String toKey(SqlRow row) {
+        if (!row.containsKey(keyColumnName)) {
+            throw new IllegalStateException(
+                    "key column was not found in result set. key column name = [" + keyColumnName + ']');
+        }
+        Object value = row.get(keyColumnName);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * 有効期間を過ぎているか否か。
+     * @param loadedAt 読み込んだ日時(ミリ秒)
+     * @return 有効期間を過ぎている場合は{@code true}
+     */
+    private boolean isExpired(long loadedAt) {
+        return timeToLive > 0 && System.currentTimeMillis() - loadedAt >= timeToLive;
+    }
+
+    /**
+     * キャッシュを破棄する。
+     * <p>
+     * 次回の参照時にデータベースから読み込み直す。
+     * </p>
+     */
+    public synchronized void clear() {
+        if (cache != null) {
+            cache.clear();
+        }
+        preloaded = false;
+    }
+
+    /**
+     * データベースリソース名を設定する。
+     * @param dbTransactionName データベースリソース名
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setDbTransactionName(String dbTransactionName) {
+        this.dbTransactionName = dbTransactionName;
+        return this;
+    }
+
+    /**
+     * 参照データを読み込むSQL文を設定する。
+     * <p>
+     * 都度読み込みの場合は、キーの値を設定する名前付きパラメータ{@code :key}を記述すること。
+     * </p>
+     * @param sql 参照データを読み込むSQL文
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setSql(String sql) {
+        this.sql = sql;
+        return this;
+    }
+
+    /**
+     * キーカラムの名前を設定する。
+     * @param keyColumnName キーカラムの名前
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setKeyColumnName(String keyColumnName) {
+        this.keyColumnName = keyColumnName;
+        return this;
+    }
+
+    /**
+     * 一括読み込みを行うか否かを設定する。(デフォルトは都度読み込み)
+     * @param preload 一括読み込みを行う場合は{@code true}
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setPreload(boolean preload) {
+        this.preload = preload;
+        return this;
+    }
+
+    /**
+     * 都度読み込み時にキャッシュするキーの最大数を設定する。(デフォルトは1000)
+     * @param maxSize キャッシュするキーの最大数
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * キャッシュの有効期間を設定する。(デフォルトは無期限)
+     * <p>
+     * 0以下を設定した場合は無期限となる。
+     * </p>
+     * @param timeToLive キャッシュの有効期間(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    public ReferenceDataCache setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        return this;
+    }
+
+    /**
+     * キャッシュしているキーの数を取得する。
+     * @return キャッシュしているキーの数
+     */
+    public synchronized int getSize() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * キャッシュにヒットした回数を取得する。
+     * @return キャッシュにヒットした回数
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * キャッシュにヒットしなかった回数を取得する。
+     * @return キャッシュにヒットしなかった回数
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * データベースから読み込んだ回数を取得する。
+     * @return データベースから読み込んだ回数
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * キャッシュの上限または有効期間により破棄したキーの数を取得する。
+     * @return 破棄したキーの数
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * キャッシュのエントリ。
+     */
+    private static final class Entry {
+
+        /** 参照データ */
+        private final SqlRow row;
+
+        /** 読み込んだ日時(ミリ秒) */
+        private final long loadedAt;
+
+        /**
+         * エントリを生成する。
+         * @param row 参照データ
+         * @param loadedAt 読み込んだ日時(ミリ秒)
+         */
+        private Entry(SqlRow row, long loadedAt) {
+            this.row = row;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
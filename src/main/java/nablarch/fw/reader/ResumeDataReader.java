@@ -16,6 +16,8 @@ import nablarch.fw.handler.LoopHandler;
  * 障害発生時などに処理を再実行する場合、本クラスは正常に処理できたポイントまでのファイル読み込み（業務処理）をスキップし、
  * 再開ポイント(正常に処理できたポイントの次のポイント)からファイル読み込みを再開する。<br/>
  * そのため、再開ポイント以前のデータに対してパッチを当てた際は、正常に処理できたポイントを0クリアする必要がある。<br/>
+ * ラップしたデータリーダが固定長ファイルを読み込む{@link FileDataReader}の場合は、
+ * 正常に処理できたポイントまでのレコードを読み込まず、レコード長から算出したファイル上の位置に読み込み位置を移動する。<br/>
  * なお、{@link nablarch.fw.action.FileBatchAction}を継承したバッチ業務アクションを作成する場合は、
  * {@code FileBatchAction}がデフォルトで{@link ValidatableFileDataReader}をラップした{@code ResumeDataReader}を生成するので、
  * アプリケーションプログラマが上記２つのオブジェクトを生成するコードを実装する必要はない。
@@ -99,6 +101,12 @@ public class ResumeDataReader<TData> implements DataReader<TData> {
 
         int numberOfReads = 0;
 
+        // 固定長ファイルの場合は、正常に処理できたポイントまで読み込み位置を移動する
+        if (resumePoint > 0 && sourceReader instanceof FileDataReader
+                && ((FileDataReader) sourceReader).seek(ctx, resumePoint)) {
+            numberOfReads = resumePoint;
+        }
+
         // 正常に処理できたポイントまでレコードを読み込む
         for (; numberOfReads < resumePoint; numberOfReads++) {
             // 次に読み込むデータがなければ、例外をスローする
@@ -1,6 +1,7 @@
 package nablarch.fw.reader;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import nablarch.core.ThreadContext;
@@ -36,6 +37,18 @@ import nablarch.core.util.annotation.Published;
  * レジューム機能を使用する場合は、必ずシングルスレッドで本クラスを実行すること。
  * マルチスレッドでの実行を検知した場合は、例外をスローして処理を終了する。
  * </p>
+ * <p>
+ * マルチスレッドで実行するバッチでレジューム機能を使用する場合は、partitionColumnNameプロパティに
+ * パーティション番号の物理カラム名を設定し、{@link PartitionedResumeDataReader}を使用すること。
+ * この場合、正常に処理できたポイントはリクエストIDとパーティション番号の組み合わせ毎に保存されるため、
+ * 先行ジョブで対象リクエストのパーティション毎のレコードを登録(正常に処理できたポイントをゼロクリア)しておくこと。
+ * </p>
+ * <p>
+ * データベースのレコードを読み込むバッチで、読み込み件数ではなく最後に処理したレコードのキー値からレジュームする場合は、
+ * resumeKeyColumnNamesプロパティにキー値を保存する物理カラム名のリストを設定し、{@link KeysetResumeDataReader}を使用すること。
+ * キー値を保存するカラムは、読み込むレコードのキー項目と同じ順序、同じ型で定義し、
+ * 先行ジョブで対象リクエストのキー値をnullクリアしておくこと。
+ * </p>
  * @author Masato Inoue
  * @see nablarch.core.repository.initialization.Initializable
  */
@@ -60,12 +73,30 @@ public class ResumePointManager implements Initializable {
     /** 正常に処理できたポイントの物理カラム名 */
     private String resumePointColumnName;
 
+    /** パーティション番号の物理カラム名 */
+    private String partitionColumnName;
+
+    /** 最後に正常に処理できたレコードのキー値を保存する物理カラム名のリスト */
+    private List<String> resumeKeyColumnNames = new ArrayList<String>();
+
     /** 正常に処理できたポイントを読み込むSQL文 */
     private String loadResumePointSql;
     
     /** 正常に処理できたポイントを保存するSQL文 */
     private String saveResumePointSql;
 
+    /** パーティション毎の正常に処理できたポイントを読み込むSQL文 */
+    private String loadPartitionResumePointSql;
+
+    /** パーティション毎の正常に処理できたポイントを保存するSQL文 */
+    private String savePartitionResumePointSql;
+
+    /** 最後に正常に処理できたレコードのキー値を読み込むSQL文 */
+    private String loadResumeKeySql;
+
+    /** 最後に正常に処理できたレコードのキー値を保存するSQL文 */
+    private String saveResumeKeySql;
+
     /** レジューム機能を（全リクエストに対して）有効にするかどうか（デフォルトは無効） */
     private boolean isResumable = false;
     
@@ -95,6 +126,14 @@ public class ResumePointManager implements Initializable {
 
         loadResumePointSql = buildLoadResumePointSql();
         saveResumePointSql = buildSaveResumePointSql();
+        if (!StringUtil.isNullOrEmpty(partitionColumnName)) {
+            loadPartitionResumePointSql = buildLoadPartitionResumePointSql();
+            savePartitionResumePointSql = buildSavePartitionResumePointSql();
+        }
+        if (!resumeKeyColumnNames.isEmpty()) {
+            loadResumeKeySql = buildLoadResumeKeySql();
+            saveResumeKeySql = buildSaveResumeKeySql();
+        }
     }
     
     /**
@@ -155,6 +194,52 @@ public class ResumePointManager implements Initializable {
         return resumePoint;
     }
 
+    /**
+     * 実行管理テーブルからパーティション毎の正常に処理できたポイントを取得する。
+     * <p>
+     * パーティション毎に正常に処理できたポイントを管理するため、マルチスレッドで実行した場合でも使用できる。<br/>
+     * レジューム機能が無効に設定されている場合は、固定で0を返却する。
+     * </p>
+     * <p>
+     * 正常に処理できたポイントを取得できなかった場合、および取得した正常に処理できたポイントが負数の場合は、例外をスローする。
+     * </p>
+     * @param requestId リクエストID
+     * @param partitionNo パーティション番号
+     * @return 正常に処理できたポイント
+     * @throws IllegalStateException partitionColumnNameプロパティが設定されていない場合
+     */
+    public int loadResumePoint(String requestId, int partitionNo) {
+        if (!isResumable(requestId)) {
+            return 0;
+        }
+        checkPropertySet("partitionColumnName", partitionColumnName);
+
+        SqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareStatement(loadPartitionResumePointSql);
+        statement.setString(1, requestId);
+        statement.setInt(2, partitionNo);
+        SqlResultSet retrieve = statement.retrieve();
+
+        if (retrieve.size() != 1) {
+            throw new IllegalStateException(String.format(
+                    "Couldn't load resume point from the table. "
+                            + "sql=[%s], request id=[%s], partition no=[%s].",
+                            loadPartitionResumePointSql, requestId, partitionNo));
+        }
+
+        int resumePoint = retrieve.get(0).getBigDecimal(resumePointColumnName)
+                .intValue();
+
+        if (resumePoint < 0) {
+            throw new IllegalStateException(String.format(
+                    "invalid resume point was stored on the table. resume point must be more than 0."
+                            + " resume point=[%s], sql=[%s], request id=[%s], partition no=[%s].",
+                            resumePoint, loadPartitionResumePointSql, requestId, partitionNo));
+        }
+
+        return resumePoint;
+    }
+
     /**
      * シングルスレッド実行であることを確認する。
      * マルチスレッドで、レジューム機能を使用しようとした場合、例外をスローする
@@ -201,7 +286,141 @@ public class ResumePointManager implements Initializable {
                             saveResumePointSql, requestId));
         }
     }
+
+    /**
+     * パーティション毎の正常に処理できたポイントを保存する。
+     * <p>
+     * レジューム機能が無効に設定されている場合は、正常に処理できたポイントの保存処理は行わない。
+     * また、正常に処理できたポイントの保存に失敗した場合は、例外をスローする。
+     * </p>
+     * @param requestId リクエストID
+     * @param partitionNo パーティション番号
+     * @param resumePoint 正常に処理できたポイント
+     * @throws IllegalStateException partitionColumnNameプロパティが設定されていない場合
+     */
+    public void saveResumePoint(String requestId, int partitionNo, int resumePoint) {
+        if (!isResumable(requestId)) {
+            return;
+        }
+        checkPropertySet("partitionColumnName", partitionColumnName);
+
+        SqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareStatement(savePartitionResumePointSql);
+        statement.setInt(1, resumePoint);
+        statement.setString(2, requestId);
+        statement.setInt(3, partitionNo);
+        int updateCount = statement.executeUpdate();
+
+        if (updateCount != 1) {
+            throw new IllegalStateException(String.format(
+                    "Couldn't save resume point. "
+                            + "sql=[%s], request id=[%s], partition no=[%s].",
+                            savePartitionResumePointSql, requestId, partitionNo));
+        }
+    }
     
+    /**
+     * 実行管理テーブルから、最後に正常に処理できたレコードのキー値を取得する。
+     * <p>
+     * レジューム機能が無効に設定されている場合、およびキー値が保存されていない(全てのカラムがnull)場合は、
+     * {@code null}を返却する。
+     * </p>
+     * <p>
+     * キー値を取得できなかった場合、および一部のカラムのみがnullの場合は、例外をスローする。
+     * </p>
+     * @param requestId リクエストID
+     * @return 最後に正常に処理できたレコードのキー値(resumeKeyColumnNamesプロパティと同じ順序)
+     * @throws IllegalStateException resumeKeyColumnNamesプロパティが設定されていない場合
+     */
+    public Object[] loadResumeKey(String requestId) {
+        if (!isResumable(requestId)) {
+            return null;
+        }
+        checkResumeKeyColumnNamesSet();
+        checkSingleThreadExecution(requestId);
+
+        SqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareStatement(loadResumeKeySql);
+        statement.setString(1, requestId);
+        SqlResultSet retrieve = statement.retrieve();
+
+        if (retrieve.size() != 1) {
+            throw new IllegalStateException(String.format(
+                    "Couldn't load resume key from the table. "
+                            + "sql=[%s], request id=[%s].",
+                            loadResumeKeySql, requestId));
+        }
+
+        Object[] resumeKey = new Object[resumeKeyColumnNames.size()];
+        int nullCount = 0;
+        for (int i = 0; i < resumeKey.length; i++) {
+            resumeKey[i] = retrieve.get(0).get(resumeKeyColumnNames.get(i));
+            if (resumeKey[i] == null) {
+                nullCount++;
+            }
+        }
+        if (nullCount == resumeKey.length) {
+            return null;
+        }
+        if (nullCount > 0) {
+            throw new IllegalStateException(String.format(
+                    "invalid resume key was stored on the table. all resume key columns must be null or not null."
+                            + " resume key=%s, sql=[%s], request id=[%s].",
+                            Arrays.toString(resumeKey), loadResumeKeySql, requestId));
+        }
+        return resumeKey;
+    }
+
+    /**
+     * 最後に正常に処理できたレコードのキー値を保存する。
+     * <p>
+     * レジューム機能が無効に設定されている場合は、キー値の保存処理は行わない。
+     * また、キー値の保存に失敗した場合は、例外をスローする。
+     * </p>
+     * @param requestId リクエストID
+     * @param resumeKey 最後に正常に処理できたレコードのキー値(resumeKeyColumnNamesプロパティと同じ順序)
+     * @throws IllegalStateException resumeKeyColumnNamesプロパティが設定されていない場合
+     * @throws IllegalArgumentException キー値の数がresumeKeyColumnNamesプロパティのカラム数と一致しない場合
+     */
+    public void saveResumeKey(String requestId, Object[] resumeKey) {
+        if (!isResumable(requestId)) {
+            return;
+        }
+        checkResumeKeyColumnNamesSet();
+        if (resumeKey.length != resumeKeyColumnNames.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "resume key must have the same number of values as resume key columns. "
+                            + "resume key columns=%s, resume key=%s.",
+                            resumeKeyColumnNames, Arrays.toString(resumeKey)));
+        }
+
+        SqlPStatement statement = DbConnectionContext.getConnection(dbTransactionName)
+                .prepareStatement(saveResumeKeySql);
+        for (int i = 0; i < resumeKey.length; i++) {
+            statement.setObject(i + 1, resumeKey[i]);
+        }
+        statement.setString(resumeKey.length + 1, requestId);
+        int updateCount = statement.executeUpdate();
+
+        if (updateCount != 1) {
+            throw new IllegalStateException(String.format(
+                    "Couldn't save resume key. "
+                            + "sql=[%s], request id=[%s].",
+                            saveResumeKeySql, requestId));
+        }
+    }
+
+    /**
+     * キー値を保存する物理カラム名のリストが設定されていることを確認する。
+     * @throws IllegalStateException resumeKeyColumnNamesプロパティが設定されていない場合
+     */
+    private void checkResumeKeyColumnNamesSet() throws IllegalStateException {
+        if (resumeKeyColumnNames.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "[resumeKeyColumnNames] property must be set. class=[%s].", getClass().getName()));
+        }
+    }
+
     /**
      * レジューム機能が有効かどうかを取得する。
      * <p/>
@@ -245,6 +464,57 @@ public class ResumePointManager implements Initializable {
                 " WHERE ", requestIdColumnName, " = ?");
     }
 
+    /**
+     * パーティション毎の正常に処理できたポイントを取得するためのSQLを取得する。
+     *
+     * @return パーティション毎の正常に処理できたポイントを読み込むためのSQL
+     */
+    protected String buildLoadPartitionResumePointSql() {
+        return Builder.concat(
+                "SELECT ", resumePointColumnName,
+                " FROM ", tableName,
+                " WHERE ", requestIdColumnName, " = ?",
+                " AND ", partitionColumnName, " = ?");
+    }
+
+    /**
+     * パーティション毎の正常に処理できたポイントを保存するためのSQLを取得する。
+     *
+     * @return パーティション毎の正常に処理できたポイントを保存するためのSQL
+     */
+    protected String buildSavePartitionResumePointSql() {
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ",
+                resumePointColumnName, " = ?",
+                " WHERE ", requestIdColumnName, " = ?",
+                " AND ", partitionColumnName, " = ?");
+    }
+
+    /**
+     * 最後に正常に処理できたレコードのキー値を取得するためのSQLを取得する。
+     *
+     * @return キー値を読み込むためのSQL
+     */
+    protected String buildLoadResumeKeySql() {
+        return Builder.concat(
+                "SELECT ", Builder.join(resumeKeyColumnNames, ", "),
+                " FROM ", tableName,
+                " WHERE ", requestIdColumnName, " = ?");
+    }
+
+    /**
+     * 最後に正常に処理できたレコードのキー値を保存するためのSQLを取得する。
+     *
+     * @return キー値を保存するためのSQL
+     */
+    protected String buildSaveResumeKeySql() {
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ", Builder.join(resumeKeyColumnNames, " = ?, "), " = ?",
+                " WHERE ", requestIdColumnName, " = ?");
+    }
+
     /**
      * 実行管理テーブルのテーブル名を設定する。
      * @param tableName tableName テーブル名
@@ -275,6 +545,32 @@ public class ResumePointManager implements Initializable {
         return this;
     }
     
+    /**
+     * パーティション番号の物理カラム名を設定する。
+     * <p>
+     * マルチスレッドで実行するバッチでレジューム機能を使用する場合に設定する。
+     * </p>
+     * @param partitionColumnName パーティション番号の物理カラム名
+     * @return このオブジェクト自体
+     */
+    public ResumePointManager setPartitionColumnName(String partitionColumnName) {
+        this.partitionColumnName = partitionColumnName;
+        return this;
+    }
+
+    /**
+     * 最後に正常に処理できたレコードのキー値を保存する物理カラム名のリストを設定する。
+     * <p>
+     * {@link KeysetResumeDataReader}を使用する場合に、読み込むレコードのキー項目と同じ順序で設定する。
+     * </p>
+     * @param resumeKeyColumnNames キー値を保存する物理カラム名のリスト
+     * @return このオブジェクト自体
+     */
+    public ResumePointManager setResumeKeyColumnNames(List<String> resumeKeyColumnNames) {
+        this.resumeKeyColumnNames = resumeKeyColumnNames;
+        return this;
+    }
+
     /**
      * レジューム機能を有効にするかどうかを設定する。
      * @param isResumable レジューム機能を有効にする場合、trueを設定する
@@ -0,0 +1,182 @@
+package nablarch.fw.reader;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import nablarch.core.dataformat.DataRecord;
+import nablarch.core.dataformat.DataRecordFormatter;
+import nablarch.core.dataformat.FileRecordReader;
+import nablarch.core.dataformat.FixedLengthDataRecordFormatter;
+import nablarch.core.dataformat.LayoutFileParser;
+import nablarch.core.log.Logger;
+import nablarch.core.log.LoggerManager;
+import nablarch.core.util.StringUtil;
+
+/**
+ * 固定長ファイルの任意のレコードから読み込みを開始できる{@link FileRecordReader}。
+ * <p/>
+ * 固定長ファイルでは、レコード番号とファイル先頭からのバイト位置が
+ * (レコード長 + レコード終端文字列のバイト長) × レコード数 で対応するため、
+ * 先頭からレコードを読み込むことなく、指定したレコードの位置から読み込みを開始できる。
+ * 固定長以外のファイルでは、読み込み開始位置の変更は行わない。
+ */
+class SeekableFileRecordReader extends FileRecordReader {
+
+    /** ロガー */
+    private static final Logger LOGGER = LoggerManager.get(SeekableFileRecordReader.class);
+
+    /** データファイル */
+    private final File dataFile;
+
+    /** フォーマット定義ファイル */
+    private final File layoutFile;
+
+    /** 読み込み時に使用するバッファのサイズ */
+    private final int bufferSize;
+
+    /**
+     * データファイルを読み込むフォーマッタ。
+     * <p/>
+     * 親クラスのコンストラクタから呼び出される{@link #initialize(DataRecordFormatter)}で設定するため、初期値を持たないこと。
+     */
+    private DataRecordFormatter formatter;
+
+    /** 読み込み開始位置を変更したストリーム */
+    private InputStream seekedSource;
+
+    /** 読み込み開始位置までに読み飛ばしたレコード数 */
+    private int skippedCount;
+
+    /**
+     * 読み込み開始位置を変更できる{@code FileRecordReader}を生成する。
+     *
+     * @param dataFile データファイル
+     * @param layoutFile フォーマット定義ファイル
+     * @param bufferSize 読み込み時に使用するバッファのサイズ
+     */
+    SeekableFileRecordReader(File dataFile, File layoutFile, int bufferSize) {
+        super(dataFile, layoutFile, bufferSize);
+        this.dataFile = dataFile;
+        this.layoutFile = layoutFile;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    protected FileRecordReader initialize(DataRecordFormatter formatter) {
+        this.formatter = formatter;
+        return super.initialize(formatter);
+    }
+
+    /**
+     * 指定したレコード数を読み飛ばした位置から、読み込みを開始する。
+     * <p/>
+     * 読み込み開始位置を変更したストリームをフォーマッタに設定する前に、
+     * コンストラクタで開いたストリームをフォーマッタ経由で閉じる。
+     * <p/>
+     * 以下のいずれかに該当する場合は読み込み開始位置を変更せず、{@code false}を返却する。
+     * <ul>
+     * <li>固定長ファイルでない場合</li>
+     * <li>既にレコードを読み込んでいる場合</li>
+     * <li>読み飛ばす位置がファイルサイズを超える場合</li>
+     * </ul>
+     *
+     * @param recordCount 読み飛ばすレコード数
+     * @return 読み込み開始位置を変更した場合は{@code true}
+     */
+    boolean seek(int recordCount) {
+        if (!(formatter instanceof FixedLengthDataRecordFormatter) || getRecordNumber() > 0) {
+            return false;
+        }
+        long offset = recordCount * getRecordSize((FixedLengthDataRecordFormatter) formatter);
+        if (offset > dataFile.length()) {
+            return false;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(dataFile);
+            in.getChannel().position(offset);
+            seekedSource = new BufferedInputStream(in, bufferSize);
+        } catch (IOException e) {
+            closeQuietly(in);
+            throw new RuntimeException("I/O error happened while seeking the file. file path=["
+                    + dataFile.getAbsolutePath() + "], offset=[" + offset + "]", e);
+        }
+        // コンストラクタで開いたストリームは、フォーマッタからのみ参照できるため、フォーマッタ経由で閉じる。
+        formatter.close();
+        formatter.setInputStream(seekedSource);
+        skippedCount = recordCount;
+        return true;
+    }
+
+    /**
+     * 1レコードのバイト長(レコード終端文字列を含む)を取得する。
+     *
+     * @param fixedLengthFormatter 固定長ファイルのフォーマッタ
+     * @return 1レコードのバイト長
+     */
+    private long getRecordSize(FixedLengthDataRecordFormatter fixedLengthFormatter) {
+        Map<String, Object> directive = new LayoutFileParser(layoutFile.getPath()).parse().getDirective();
+        long recordSize = (Integer) directive.get("record-length");
+        String recordSeparator = (String) directive.get("record-separator");
+        if (recordSeparator != null) {
+            recordSize += StringUtil.getBytes(recordSeparator, fixedLengthFormatter.getDefaultEncoding()).length;
+        }
+        return recordSize;
+    }
+
+    /**
+     * 1レコード分のデータを読み込む。
+     * <p/>
+     * 読み込み開始位置を変更した場合は、{@link #getRecordNumber()}と同じ、読み飛ばしたレコード数を含めたレコード番号を
+     * データレコードに設定する。
+     * 読み飛ばしたレコード数を二重に加算しないよう、データレコードに設定済みのレコード番号は使用しない。
+     *
+     * @return データレコード
+     */
+    @Override
+    protected DataRecord readRecord() {
+        DataRecord record = super.readRecord();
+        if (record != null && skippedCount > 0) {
+            record.setRecordNumber(getRecordNumber());
+        }
+        return record;
+    }
+
+    /**
+     * 読み込んだレコードのレコード番号を返却する。
+     * <p/>
+     * 読み込み開始位置を変更した場合は、読み飛ばしたレコード数を含めたレコード番号を返却する。
+     *
+     * @return レコード番号
+     */
+    @Override
+    public int getRecordNumber() {
+        return skippedCount + super.getRecordNumber();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closeQuietly(seekedSource);
+    }
+
+    /**
+     * ストリームを閉じる。
+     *
+     * @param in ストリーム
+     */
+    private static void closeQuietly(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            LOGGER.logWarn("I/O error happened while closing the file.", e);
+        }
+    }
+}
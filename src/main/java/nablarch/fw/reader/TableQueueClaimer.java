@@ -0,0 +1,681 @@
+package nablarch.fw.reader;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.util.Builder;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link DatabaseTableQueueReader}が読み込んだレコードを、処理するプロセスの所有として確保するクラス。
+ * <p>
+ * {@link DatabaseTableQueueReader}は、同一プロセス内の他のスレッドで処理中のレコードを読み飛ばすが、
+ * 他のプロセスで処理中のレコードを判別することはできない。
+ * 本クラスを{@link DatabaseTableQueueReader#setClaimer(TableQueueClaimer)}で設定すると、
+ * 読み込んだレコードの所有者カラムを、所有者カラムが{@code null}かつ未処理であることを条件に自プロセスの所有者IDで更新する。
+ * 更新できたレコードのみを処理対象とするため、複数のプロセスが同一のテーブルを並行して処理することができる。
+ * </p>
+ * <p>
+ * 所有者カラムの更新は、業務処理とは別のトランザクションで行い、即時にコミットする。
+ * 処理を終えたレコード(次のレコードを読み込む時点で、スレッドが処理していたレコード)および、
+ * リーダを閉じた時点で処理中のレコードは、所有者カラムを{@code null}に戻す。
+ * このため、業務処理が失敗したレコードは、再度いずれかのプロセスで処理対象となる。
+ * </p>
+ * <p>
+ * {@link DatabaseTableQueueReader}に設定するSQLは、所有者カラムが{@code null}のレコードのみを取得すること。
+ * <pre>{@code
+ *     SELECT * FROM INPUT_TABLE WHERE STATUS = '0' AND OWNER IS NULL ORDER BY ID
+ * }</pre>
+ * また、{@link #setPendingCondition(String)}には、上記SQLのうち未処理のレコードを表す条件を設定すること。
+ * <pre>{@code
+ *     STATUS = '0'
+ * }</pre>
+ * この条件は確保の更新条件に含まれるため、他のプロセスが処理を終えて確保を解除したレコードを、
+ * 古い検索結果をもとに再度確保することはない。
+ * </p>
+ * <p>
+ * {@link #setClaimSize(int)}で2以上を設定した場合、{@link DatabaseTableQueueReader}は指定件数のレコードを
+ * 1回のバッチ更新でまとめて確保し、確保したレコードをリーダ内のバッファから順に返却する。
+ * バッファの件数が{@link #setLowWaterMark(int)}で設定した件数を下回った時点で、次のレコードを確保する。
+ * これにより、レコード1件毎に確保のためのデータベースアクセスが発生することを避けられる。
+ * バッファに残った未処理のレコードは、リーダを閉じた時点で確保を解除する。
+ * </p>
+ * <p>
+ * {@link #setLeaseColumnName(String)}および{@link #setLeaseTime(long)}を設定した場合、確保にリース期限を設ける。
+ * 確保時にリース期限カラムへ現在時刻にリース期間を加えた時刻を設定し、処理中のレコードのリース期限は
+ * {@link DatabaseTableQueueReader}がバックグラウンドで延長する。
+ * リース期限を過ぎたレコードは、他のプロセスが確保できる。
+ * これにより、プロセスが異常終了した場合でも、そのプロセスが確保していたレコードはリース期限後に他のプロセスで処理される。
+ * また、{@link #setMaxLeaseTime(long)}を設定した場合、確保してから指定時間を経過したレコードのリース期限は延長しない。
+ * これにより、処理が停止したスレッドが確保しているレコードも、いずれ他のプロセスで処理される。
+ * リース期限を設ける場合、{@link DatabaseTableQueueReader}に設定するSQLは、
+ * 所有者カラムが{@code null}もしくはリース期限を過ぎたレコードを取得すること。
+ * <pre>{@code
+ *     SELECT * FROM INPUT_TABLE WHERE STATUS = '0' AND (OWNER IS NULL OR LEASE_EXPIRY < CURRENT_TIMESTAMP) ORDER BY ID
+ * }</pre>
+ * リース期限を過ぎたレコードを確保する場合も、未処理のレコードを表す条件を満たすレコードのみを確保する。
+ * リース期限は各プロセスのシステム時刻をもとに設定するため、プロセス間でシステム時刻を同期しておくこと。
+ * </p>
+ * <p>
+ * 本クラスは、条件付きの更新により確保を行うため、{@code SELECT ... FOR UPDATE SKIP LOCKED}に対応していない
+ * データベースでも使用できる。
+ * </p>
+ *
+ * @see DatabaseTableQueueReader
+ */
+@Published(tag = "architect")
+public class TableQueueClaimer {
+
+    /** 所有者カラムを更新するトランザクション */
+    private SimpleDbTransactionManager transactionManager;
+
+    /** テーブル名 */
+    private String tableName;
+
+    /** 所有者カラムの名前 */
+    private String ownerColumnName;
+
+    /** 未処理のレコードを表す条件 */
+    private String pendingCondition;
+
+    /** 所有者ID */
+    private String ownerId = ManagementFactory.getRuntimeMXBean().getName();
+
+    /** リース期限カラムの名前({@code null}の場合はリース期限を設けない) */
+    private String leaseColumnName;
+
+    /** リース期間(ミリ秒) */
+    private long leaseTime = 0;
+
+    /** リース期限を延長する最大の期間(ミリ秒。0の場合は無期限に延長する) */
+    private long maxLeaseTime = 0;
+
+    /** まとめて確保するレコード数 */
+    private int claimSize = 1;
+
+    /** 次のレコードを確保する、バッファの残件数の下限 */
+    private int lowWaterMark = 0;
+
+    /** 主キーのカラム名 */
+    private String[] primaryKeys;
+
+    /** レコードを確保するSQL文 */
+    private String claimSql;
+
+    /** レコードの確保を解除するSQL文 */
+    private String releaseSql;
+
+    /** 自プロセスがレコードを確保しているかを確認するSQL文 */
+    private String confirmSql;
+
+    /** リース期限を延長するSQL文 */
+    private String renewSql;
+
+    /** 確保できたレコード数 */
+    private final AtomicLong claimCount = new AtomicLong();
+
+    /** 他のプロセスに確保されていたため確保できなかったレコード数 */
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    /** 確保を解除したレコード数 */
+    private final AtomicLong releaseCount = new AtomicLong();
+
+    /** リース期限を延長したレコード数 */
+    private final AtomicLong renewCount = new AtomicLong();
+
+    /** 他のプロセスにリース期限切れで確保され、リース期限を延長できなかったレコード数 */
+    private final AtomicLong lostLeaseCount = new AtomicLong();
+
+    /**
+     * 主キーのカラム名をもとに、確保および解除で使用するSQLを構築する。
+     *
+     * @param primaryKeys 主キーのカラム名
+     * @throws IllegalStateException 必須のプロパティが設定されていない場合
+     */
+    synchronized void prepare(String[] primaryKeys) {
+        if (transactionManager == null) {
+            throw new IllegalStateException(String.format(
+                    "[transactionManager] property must be set. class=[%s].", getClass().getName()));
+        }
+        checkPropertySet("tableName", tableName);
+        checkPropertySet("ownerColumnName", ownerColumnName);
+        checkPropertySet("pendingCondition", pendingCondition);
+        checkPropertySet("ownerId", ownerId);
+        if (isLeaseEnabled() && leaseTime <= 0) {
+            throw new IllegalStateException(String.format(
+                    "[leaseTime] property must be greater than 0. leaseTime=[%d], class=[%s].",
+                    leaseTime, getClass().getName()));
+        }
+        if (lowWaterMark >= claimSize && claimSize > 1) {
+            throw new IllegalStateException(String.format(
+                    "[lowWaterMark] property must be less than claimSize. lowWaterMark=[%d], claimSize=[%d], class=[%s].",
+                    lowWaterMark, claimSize, getClass().getName()));
+        }
+        this.primaryKeys = primaryKeys.clone();
+        claimSql = buildClaimSql();
+        releaseSql = buildReleaseSql();
+        confirmSql = buildConfirmSql();
+        renewSql = isLeaseEnabled() ? buildRenewSql() : null;
+    }
+
+    /**
+     * リース期限を設けるか否か。
+     *
+     * @return リース期限を設ける場合は{@code true}
+     */
+    boolean isLeaseEnabled() {
+        return !StringUtil.isNullOrEmpty(leaseColumnName);
+    }
+
+    /**
+     * プロパティの値が設定されていることを確認する。
+     * @param name  プロパティ名
+     * @param value プロパティの値
+     * @throws IllegalStateException プロパティが設定されていない場合
+     */
+    protected void checkPropertySet(String name, String value) throws IllegalStateException {
+        if (StringUtil.isNullOrEmpty(value)) {
+            throw new IllegalStateException(String.format(
+                    "[%s] property must be set. class=[%s].", name, getClass().getName()));
+        }
+    }
+
+    /**
+     * レコードを確保する。
+     *
+     * @param keyValues 主キーの値(主キーのカラム名と同じ順序)
+     * @return 確保できた場合は{@code true}
+     */
+    boolean claim(final Object[] keyValues) {
+        int updated = new SimpleDbTransactionExecutor<Integer>(transactionManager) {
+            @Override
+            public Integer execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(claimSql);
+                setClaimParameters(statement, keyValues, System.currentTimeMillis());
+                return statement.executeUpdate();
+            }
+        }.doTransaction();
+        if (updated == 1) {
+            claimCount.incrementAndGet();
+            return true;
+        }
+        conflictCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * 複数のレコードを1回のバッチ更新で確保する。
+     * <p>
+     * 更新件数を返却しないJDBCドライバの場合は、確保できたか否かを所有者カラムを検索して確認する。
+     * 1件ずつ確保する場合と同じく、未処理のレコードを表す条件を満たさないレコードは確保しない。
+     * </p>
+     *
+     * @param keyValuesList 主キーの値(主キーのカラム名と同じ順序)のリスト
+     * @return レコード毎の確保結果(確保できた場合は{@code true})
+     */
+    boolean[] claim(final List<Object[]> keyValuesList) {
+        boolean[] claimed = new SimpleDbTransactionExecutor<boolean[]>(transactionManager) {
+            @Override
+            public boolean[] execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(claimSql);
+                long now = System.currentTimeMillis();
+                for (Object[] keyValues : keyValuesList) {
+                    setClaimParameters(statement, keyValues, now);
+                    statement.addBatch();
+                }
+                int[] updated = statement.executeBatch();
+                boolean[] result = new boolean[updated.length];
+                for (int i = 0; i < updated.length; i++) {
+                    result[i] = updated[i] == Statement.SUCCESS_NO_INFO
+                            ? isOwned(connection, keyValuesList.get(i))
+                            : updated[i] == 1;
+                }
+                return result;
+            }
+        }.doTransaction();
+        for (boolean b : claimed) {
+            if (b) {
+                claimCount.incrementAndGet();
+            } else {
+                conflictCount.incrementAndGet();
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * レコードを確保するSQLのパラメータを設定する。
+     *
+     * @param statement ステートメント
+     * @param keyValues 主キーの値(主キーのカラム名と同じ順序)
+     * @param now 現在時刻
+     */
+    private void setClaimParameters(SqlPStatement statement, Object[] keyValues, long now) {
+        statement.setString(1, ownerId);
+        if (isLeaseEnabled()) {
+            statement.setTimestamp(2, new Timestamp(now + leaseTime));
+            setKeyValues(statement, 3, keyValues);
+            statement.setTimestamp(keyValues.length + 3, new Timestamp(now));
+        } else {
+            setKeyValues(statement, 2, keyValues);
+        }
+    }
+
+    /**
+     * 自プロセスが確保している複数のレコードのリース期限を、1回のバッチ更新で延長する。
+     *
+     * @param keyValuesList 主キーの値(主キーのカラム名と同じ順序)のリスト
+     * @return レコード毎の延長結果(他のプロセスに確保され、延長できなかった場合は{@code false})
+     */
+    boolean[] renew(final List<Object[]> keyValuesList) {
+        if (keyValuesList.isEmpty()) {
+            return new boolean[0];
+        }
+        int[] updated = new SimpleDbTransactionExecutor<int[]>(transactionManager) {
+            @Override
+            public int[] execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(renewSql);
+                Timestamp expiry = new Timestamp(System.currentTimeMillis() + leaseTime);
+                for (Object[] keyValues : keyValuesList) {
+                    statement.setTimestamp(1, expiry);
+                    setKeyValues(statement, 2, keyValues);
+                    statement.setString(keyValues.length + 2, ownerId);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        }.doTransaction();
+        boolean[] renewed = new boolean[updated.length];
+        for (int i = 0; i < updated.length; i++) {
+            renewed[i] = updated[i] != 0;
+            if (renewed[i]) {
+                renewCount.incrementAndGet();
+            } else {
+                lostLeaseCount.incrementAndGet();
+            }
+        }
+        return renewed;
+    }
+
+    /**
+     * 自プロセスがレコードを確保しているか否か。
+     *
+     * @param connection データベース接続
+     * @param keyValues 主キーの値(主キーのカラム名と同じ順序)
+     * @return 自プロセスが確保している場合は{@code true}
+     */
+    private boolean isOwned(AppDbConnection connection, Object[] keyValues) {
+        SqlPStatement statement = connection.prepareStatement(confirmSql);
+        setKeyValues(statement, 1, keyValues);
+        statement.setString(keyValues.length + 1, ownerId);
+        SqlResultSet rows = statement.retrieve();
+        return !rows.isEmpty();
+    }
+
+    /**
+     * 自プロセスが確保しているレコードの確保を解除する。
+     *
+     * @param keyValues 主キーの値(主キーのカラム名と同じ順序)
+     */
+    void release(final Object[] keyValues) {
+        int updated = new SimpleDbTransactionExecutor<Integer>(transactionManager) {
+            @Override
+            public Integer execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(releaseSql);
+                setKeyValues(statement, 1, keyValues);
+                statement.setString(keyValues.length + 1, ownerId);
+                return statement.executeUpdate();
+            }
+        }.doTransaction();
+        releaseCount.addAndGet(updated);
+    }
+
+    /**
+     * 自プロセスが確保している複数のレコードの確保を、1回のバッチ更新で解除する。
+     *
+     * @param keyValuesList 主キーの値(主キーのカラム名と同じ順序)のリスト
+     */
+    void release(final List<Object[]> keyValuesList) {
+        if (keyValuesList.isEmpty()) {
+            return;
+        }
+        int[] updated = new SimpleDbTransactionExecutor<int[]>(transactionManager) {
+            @Override
+            public int[] execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(releaseSql);
+                for (Object[] keyValues : keyValuesList) {
+                    setKeyValues(statement, 1, keyValues);
+                    statement.setString(keyValues.length + 1, ownerId);
+                    statement.addBatch();
+                }
+                return statement.executeBatch();
+            }
+        }.doTransaction();
+        for (int count : updated) {
+            releaseCount.addAndGet(count == Statement.SUCCESS_NO_INFO ? 1 : count);
+        }
+    }
+
+    /**
+     * 主キーの値をステートメントに設定する。
+     *
+     * @param statement ステートメント
+     * @param startIndex 最初の主キーのパラメータインデックス
+     * @param keyValues 主キーの値
+     */
+    private static void setKeyValues(SqlPStatement statement, int startIndex, Object[] keyValues) {
+        for (int i = 0; i < keyValues.length; i++) {
+            statement.setObject(startIndex + i, keyValues[i]);
+        }
+    }
+
+    /**
+     * レコードを確保するSQLを構築する。
+     *
+     * @return レコードを確保するSQL
+     */
+    protected String buildClaimSql() {
+        if (isLeaseEnabled()) {
+            return Builder.concat(
+                    "UPDATE ", tableName,
+                    " SET ", ownerColumnName, " = ?, ", leaseColumnName, " = ?",
+                    " WHERE ", buildPrimaryKeyCondition(),
+                    " AND (", ownerColumnName, " IS NULL OR ", leaseColumnName, " < ?)",
+                    " AND (", pendingCondition, ")");
+        }
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ", ownerColumnName, " = ?",
+                " WHERE ", buildPrimaryKeyCondition(),
+                " AND ", ownerColumnName, " IS NULL",
+                " AND (", pendingCondition, ")");
+    }
+
+    /**
+     * レコードの確保を解除するSQLを構築する。
+     *
+     * @return レコードの確保を解除するSQL
+     */
+    protected String buildReleaseSql() {
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ", ownerColumnName, " = NULL",
+                isLeaseEnabled() ? Builder.concat(", ", leaseColumnName, " = NULL") : "",
+                " WHERE ", buildPrimaryKeyCondition(),
+                " AND ", ownerColumnName, " = ?");
+    }
+
+    /**
+     * リース期限を延長するSQLを構築する。
+     *
+     * @return リース期限を延長するSQL
+     */
+    protected String buildRenewSql() {
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ", leaseColumnName, " = ?",
+                " WHERE ", buildPrimaryKeyCondition(),
+                " AND ", ownerColumnName, " = ?");
+    }
+
+    /**
+     * 自プロセスがレコードを確保しているかを確認するSQLを構築する。
+     *
+     * @return 自プロセスがレコードを確保しているかを確認するSQL
+     */
+    protected String buildConfirmSql() {
+        return Builder.concat(
+                "SELECT ", ownerColumnName,
+                " FROM ", tableName,
+                " WHERE ", buildPrimaryKeyCondition(),
+                " AND ", ownerColumnName, " = ?");
+    }
+
+    /**
+     * 主キーを条件とするWHERE句の条件を構築する。
+     *
+     * @return 主キーの条件
+     */
+    private String buildPrimaryKeyCondition() {
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < primaryKeys.length; i++) {
+            if (i > 0) {
+                condition.append(" AND ");
+            }
+            condition.append(primaryKeys[i]).append(" = ?");
+        }
+        return condition.toString();
+    }
+
+    /**
+     * 所有者カラムを更新するトランザクションを設定する。
+     * <p>
+     * 業務処理のトランザクションとは異なるトランザクションを設定すること。
+     * </p>
+     * @param transactionManager トランザクション
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setTransactionManager(SimpleDbTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+        return this;
+    }
+
+    /**
+     * テーブル名を設定する。
+     * @param tableName テーブル名
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setTableName(String tableName) {
+        this.tableName = tableName;
+        return this;
+    }
+
+    /**
+     * 所有者カラムの名前を設定する。
+     * @param ownerColumnName 所有者カラムの名前
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setOwnerColumnName(String ownerColumnName) {
+        this.ownerColumnName = ownerColumnName;
+        return this;
+    }
+
+    /**
+     * 未処理のレコードを表す条件を設定する。
+     * <p>
+     * {@link DatabaseTableQueueReader}に設定するSQLのうち、未処理のレコードを表す条件(例: {@code STATUS = '0'})を設定する。
+     * 条件はバインド変数を含まないこと。
+     * 確保の更新条件に含めることで、処理済みのレコードを確保することを防ぐ。
+     * </p>
+     * @param pendingCondition 未処理のレコードを表す条件
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setPendingCondition(String pendingCondition) {
+        this.pendingCondition = pendingCondition;
+        return this;
+    }
+
+    /**
+     * 所有者IDを設定する。
+     * <p>
+     * 同一のテーブルを処理するプロセス間で一意となる値を設定すること。
+     * 設定しない場合は、JVMの名前(通常は「プロセスID@ホスト名」)を使用する。
+     * </p>
+     * @param ownerId 所有者ID
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+        return this;
+    }
+
+    /**
+     * リース期限カラムの名前を設定する。
+     * <p>
+     * 設定しない場合は、リース期限を設けない。
+     * </p>
+     * @param leaseColumnName リース期限カラム(タイムスタンプ型)の名前
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setLeaseColumnName(String leaseColumnName) {
+        this.leaseColumnName = leaseColumnName;
+        return this;
+    }
+
+    /**
+     * リース期間を設定する。
+     * <p>
+     * 処理中のレコードのリース期限は、リース期間の3分の1毎に延長する。
+     * </p>
+     * @param leaseTime リース期間(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+        return this;
+    }
+
+    /**
+     * リース期間を取得する。
+     * @return リース期間(ミリ秒)
+     */
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    /**
+     * リース期限を延長する最大の期間を設定する。
+     * <p>
+     * 確保してから本設定値を経過したレコードは、処理中であってもリース期限を延長しない。
+     * 業務処理の最大処理時間より長い値を設定すること。
+     * デフォルトは0(処理中の間は無期限に延長する)。
+     * </p>
+     * @param maxLeaseTime リース期限を延長する最大の期間(ミリ秒)
+     * @return このオブジェクト自体
+     */
+    public TableQueueClaimer setMaxLeaseTime(long maxLeaseTime) {
+        this.maxLeaseTime = maxLeaseTime;
+        return this;
+    }
+
+    /**
+     * リース期限を延長する最大の期間を取得する。
+     * @return リース期限を延長する最大の期間(ミリ秒)
+     */
+    public long getMaxLeaseTime() {
+        return maxLeaseTime;
+    }
+
+    /**
+     * まとめて確保するレコード数を設定する。
+     * <p>
+     * デフォルトは1(レコードを1件ずつ確保する)。
+     * </p>
+     * @param claimSize まとめて確保するレコード数
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 1未満の値を設定した場合
+     */
+    public TableQueueClaimer setClaimSize(int claimSize) {
+        if (claimSize < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "[claimSize] property must be greater than 0. claimSize=[%d], class=[%s].",
+                    claimSize, getClass().getName()));
+        }
+        this.claimSize = claimSize;
+        return this;
+    }
+
+    /**
+     * まとめて確保するレコード数を取得する。
+     * @return まとめて確保するレコード数
+     */
+    public int getClaimSize() {
+        return claimSize;
+    }
+
+    /**
+     * 次のレコードを確保する、バッファの残件数の下限を設定する。
+     * <p>
+     * バッファの残件数が本設定値を下回った時点で、次のレコードを確保する。
+     * {@link #setClaimSize(int)}より小さい値を設定すること。
+     * デフォルトは0(バッファが空になった時点で次のレコードを確保する)。
+     * </p>
+     * @param lowWaterMark バッファの残件数の下限
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 負の値を設定した場合
+     */
+    public TableQueueClaimer setLowWaterMark(int lowWaterMark) {
+        if (lowWaterMark < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "[lowWaterMark] property must be 0 or greater. lowWaterMark=[%d], class=[%s].",
+                    lowWaterMark, getClass().getName()));
+        }
+        this.lowWaterMark = lowWaterMark;
+        return this;
+    }
+
+    /**
+     * 次のレコードを確保する、バッファの残件数の下限を取得する。
+     * @return バッファの残件数の下限
+     */
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    /**
+     * 所有者IDを取得する。
+     * @return 所有者ID
+     */
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * 確保できたレコード数を取得する。
+     * @return 確保できたレコード数
+     */
+    public long getClaimCount() {
+        return claimCount.get();
+    }
+
+    /**
+     * 他のプロセスに確保されていたため、確保できなかったレコード数を取得する。
+     * @return 確保できなかったレコード数
+     */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /**
+     * 確保を解除したレコード数を取得する。
+     * @return 確保を解除したレコード数
+     */
+    public long getReleaseCount() {
+        return releaseCount.get();
+    }
+
+    /**
+     * リース期限を延長したレコード数(延べ数)を取得する。
+     * @return リース期限を延長したレコード数
+     */
+    public long getRenewCount() {
+        return renewCount.get();
+    }
+
+    /**
+     * リース期限切れで他のプロセスに確保され、リース期限を延長できなかったレコード数を取得する。
+     * @return リース期限を延長できなかったレコード数
+     */
+    public long getLostLeaseCount() {
+        return lostLeaseCount.get();
+    }
+}
@@ -0,0 +1,231 @@
+package nablarch.fw.reader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.util.Builder;
+import nablarch.core.util.StringUtil;
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link DatabaseTableQueueReader}が繰り返し処理に失敗したレコードを、処理対象から隔離するクラス。
+ * <p>
+ * 業務処理が失敗したレコードは未処理のまま残るため、{@link DatabaseTableQueueReader}は再検索の度に
+ * そのレコードを読み込み、業務処理は失敗し続ける。
+ * 本クラスを{@link DatabaseTableQueueReader#setQuarantine(TableQueueQuarantine)}で設定すると、
+ * {@link DatabaseTableQueueReader}はレコードを返却した回数をレコード毎に記録し、
+ * 返却済みのレコードを再度読み込んだ場合は、前回の処理が失敗したものとみなす。
+ * 失敗回数が{@link #setMaxFailureCount(int)}で設定した回数に達したレコードは返却せず、
+ * ステータスカラムを隔離ステータスに更新し、以降は処理対象から除外する。
+ * </p>
+ * <p>
+ * ステータスカラムの更新は、業務処理とは別のトランザクションで行い、即時にコミットする。
+ * {@link DatabaseTableQueueReader}に設定するSQLは、隔離ステータスのレコードを取得しない条件とすること。
+ * なお、{@link DatabaseTableQueueReader}は隔離したレコードのキーも保持し、
+ * ステータスカラムの更新がSQLの結果に反映されるまでの間も、隔離したレコードを読み飛ばす。
+ * </p>
+ * <p>
+ * 隔離したレコードを別のテーブル(デッドレターテーブル)に移す場合は、
+ * {@link #buildQuarantineSql()}をオーバーライドすること。
+ * </p>
+ *
+ * @see DatabaseTableQueueReader
+ */
+@Published(tag = "architect")
+public class TableQueueQuarantine {
+
+    /** ステータスカラムを更新するトランザクション */
+    private SimpleDbTransactionManager transactionManager;
+
+    /** テーブル名 */
+    private String tableName;
+
+    /** ステータスカラムの名前 */
+    private String statusColumnName;
+
+    /** 隔離ステータス */
+    private String quarantineStatus;
+
+    /** レコードを隔離する失敗回数 */
+    private int maxFailureCount = 3;
+
+    /** 主キーのカラム名 */
+    private String[] primaryKeys;
+
+    /** レコードを隔離するSQL文 */
+    private String quarantineSql;
+
+    /** 隔離したレコード数 */
+    private final AtomicLong quarantineCount = new AtomicLong();
+
+    /**
+     * 主キーのカラム名をもとに、隔離で使用するSQLを構築する。
+     *
+     * @param primaryKeys 主キーのカラム名
+     * @throws IllegalStateException 必須のプロパティが設定されていない場合
+     */
+    synchronized void prepare(String[] primaryKeys) {
+        if (transactionManager == null) {
+            throw new IllegalStateException(String.format(
+                    "[transactionManager] property must be set. class=[%s].", getClass().getName()));
+        }
+        checkPropertySet("tableName", tableName);
+        checkPropertySet("statusColumnName", statusColumnName);
+        checkPropertySet("quarantineStatus", quarantineStatus);
+        this.primaryKeys = primaryKeys.clone();
+        quarantineSql = buildQuarantineSql();
+    }
+
+    /**
+     * プロパティの値が設定されていることを確認する。
+     * @param name  プロパティ名
+     * @param value プロパティの値
+     * @throws IllegalStateException プロパティが設定されていない場合
+     */
+    protected void checkPropertySet(String name, String value) throws IllegalStateException {
+        if (StringUtil.isNullOrEmpty(value)) {
+            throw new IllegalStateException(String.format(
+                    "[%s] property must be set. class=[%s].", name, getClass().getName()));
+        }
+    }
+
+    /**
+     * レコードを隔離する。
+     *
+     * @param keyValues 主キーの値(主キーのカラム名と同じ順序)
+     */
+    void quarantine(final Object[] keyValues) {
+        new SimpleDbTransactionExecutor<Integer>(transactionManager) {
+            @Override
+            public Integer execute(AppDbConnection connection) {
+                SqlPStatement statement = connection.prepareStatement(quarantineSql);
+                setQuarantineParameters(statement, keyValues);
+                return statement.executeUpdate();
+            }
+        }.doTransaction();
+        quarantineCount.incrementAndGet();
+    }
+
+    /**
+     * レコードを隔離するSQLのパラメータを設定する。
+     * <p>
+     * {@link #buildQuarantineSql()}をオーバーライドした場合は、構築したSQLに合わせてオーバーライドすること。
+     * </p>
+     * @param statement ステートメント
+     * @param keyValues 主キーの値
+     */
+    protected void setQuarantineParameters(SqlPStatement statement, Object[] keyValues) {
+        statement.setString(1, quarantineStatus);
+        for (int i = 0; i < keyValues.length; i++) {
+            statement.setObject(i + 2, keyValues[i]);
+        }
+    }
+
+    /**
+     * レコードを隔離するSQLを構築する。
+     *
+     * @return レコードを隔離するSQL
+     */
+    protected String buildQuarantineSql() {
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < primaryKeys.length; i++) {
+            if (i > 0) {
+                condition.append(" AND ");
+            }
+            condition.append(primaryKeys[i]).append(" = ?");
+        }
+        return Builder.concat(
+                "UPDATE ", tableName,
+                " SET ", statusColumnName, " = ?",
+                " WHERE ", condition.toString());
+    }
+
+    /**
+     * 主キーのカラム名を取得する。
+     * @return 主キーのカラム名
+     */
+    protected String[] getPrimaryKeys() {
+        return primaryKeys.clone();
+    }
+
+    /**
+     * ステータスカラムを更新するトランザクションを設定する。
+     * <p>
+     * 業務処理のトランザクションとは異なるトランザクションを設定すること。
+     * </p>
+     * @param transactionManager トランザクション
+     * @return このオブジェクト自体
+     */
+    public TableQueueQuarantine setTransactionManager(SimpleDbTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+        return this;
+    }
+
+    /**
+     * テーブル名を設定する。
+     * @param tableName テーブル名
+     * @return このオブジェクト自体
+     */
+    public TableQueueQuarantine setTableName(String tableName) {
+        this.tableName = tableName;
+        return this;
+    }
+
+    /**
+     * ステータスカラムの名前を設定する。
+     * @param statusColumnName ステータスカラムの名前
+     * @return このオブジェクト自体
+     */
+    public TableQueueQuarantine setStatusColumnName(String statusColumnName) {
+        this.statusColumnName = statusColumnName;
+        return this;
+    }
+
+    /**
+     * 隔離したレコードに設定するステータスを設定する。
+     * @param quarantineStatus 隔離ステータス
+     * @return このオブジェクト自体
+     */
+    public TableQueueQuarantine setQuarantineStatus(String quarantineStatus) {
+        this.quarantineStatus = quarantineStatus;
+        return this;
+    }
+
+    /**
+     * レコードを隔離する失敗回数を設定する。
+     * <p>
+     * デフォルトは3回。
+     * </p>
+     * @param maxFailureCount レコードを隔離する失敗回数
+     * @return このオブジェクト自体
+     * @throws IllegalArgumentException 1未満の値を設定した場合
+     */
+    public TableQueueQuarantine setMaxFailureCount(int maxFailureCount) {
+        if (maxFailureCount < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "[maxFailureCount] property must be greater than 0. maxFailureCount=[%d], class=[%s].",
+                    maxFailureCount, getClass().getName()));
+        }
+        this.maxFailureCount = maxFailureCount;
+        return this;
+    }
+
+    /**
+     * レコードを隔離する失敗回数を取得する。
+     * @return レコードを隔離する失敗回数
+     */
+    public int getMaxFailureCount() {
+        return maxFailureCount;
+    }
+
+    /**
+     * 隔離したレコード数を取得する。
+     * @return 隔離したレコード数
+     */
+    public long getQuarantineCount() {
+        return quarantineCount.get();
+    }
+}
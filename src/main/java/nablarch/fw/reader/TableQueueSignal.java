@@ -0,0 +1,28 @@
+package nablarch.fw.reader;
+
+import nablarch.core.util.annotation.Published;
+
+/**
+ * {@link DatabaseTableQueueReader}に、処理対象レコードが登録されたことを通知するインタフェース。
+ * <p/>
+ * {@link DatabaseTableQueueReader#setSignal(TableQueueSignal)}で設定した場合、
+ * 処理対象レコードが存在しない間、{@link DatabaseTableQueueReader}は待機時間分スリープする代わりに
+ * 本インタフェースの{@link #await(long)}で通知を待つ。
+ * 通知を受けた時点で再検索を行うため、処理対象レコードが登録されてから処理を開始するまでの遅延が短くなる。
+ *
+ * @see InMemoryTableQueueSignal
+ */
+@Published(tag = "architect")
+public interface TableQueueSignal {
+
+    /**
+     * 処理対象レコードが登録されたことが通知されるまで、最大で指定時間待機する。
+     * <p/>
+     * 前回の待機以降に通知されていた場合は、待機せずに復帰すること。
+     *
+     * @param timeout 最大待機時間(ミリ秒)
+     * @return 通知を受けた場合は{@code true}、タイムアウトした場合は{@code false}
+     * @throws InterruptedException 待機中に割り込みが発生した場合
+     */
+    boolean await(long timeout) throws InterruptedException;
+}
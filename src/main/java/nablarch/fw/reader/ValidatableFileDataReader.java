@@ -119,6 +119,28 @@ public class ValidatableFileDataReader extends FileDataReader {
         return super.hasNext(ctx);
     }
 
+    /**
+     * 指定したレコード数を読み飛ばし、次に読み込むレコードの位置を変更する。
+     * <p/>
+     * ファイルがバリデーション済みでない場合、バリデーションを行う。<br/>
+     * データをキャッシュしている場合は、読み込み位置を変更せず{@code false}を返却する。
+     *
+     * @param ctx 実行コンテキスト
+     * @param recordCount 読み飛ばすレコード数
+     * @return 読み込み位置を変更した場合は{@code true}
+     * @see FileDataReader#seek(ExecutionContext, int)
+     */
+    @Override
+    public synchronized boolean seek(ExecutionContext ctx, int recordCount) {
+        if (!validated) {
+            validate(ctx);
+        }
+        if (useCache) {
+            return false;
+        }
+        return super.seek(ctx, recordCount);
+    }
+
     /**
      * このリーダの利用を停止し、内部的に保持している各種リソースを解放する。
      * <p/>
@@ -0,0 +1,124 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.fw.ExecutionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link ChunkedDatabaseRecordReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class ChunkedDatabaseRecordReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private static TransactionManagerConnection tmConn;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(ReaderBook.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ConnectionFactory factory = SystemRepository.get("connectionFactory");
+        tmConn = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(tmConn);
+        VariousDbTestHelper.delete(ReaderBook.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tmConn.terminate();
+        DbConnectionContext.removeConnection();
+    }
+
+    /**
+     * チャンクサイズ分ずつレコードが読み込まれること。
+     * 最後のチャンクは残りのレコードのみとなること。
+     */
+    @Test
+    public void testRead() {
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher1", "authors1"),
+                new ReaderBook("title2", "publisher2", "authors2"),
+                new ReaderBook("title3", "publisher3", "authors3"),
+                new ReaderBook("title4", "publisher4", "authors4"),
+                new ReaderBook("title5", "publisher5", "authors5"));
+
+        ExecutionContext ctx = new ExecutionContext();
+        DatabaseRecordReader reader = new DatabaseRecordReader().setStatement(
+                DbConnectionContext.getConnection().prepareStatement("SELECT * FROM READER_BOOK ORDER BY TITLE"));
+        ChunkedDatabaseRecordReader sut = new ChunkedDatabaseRecordReader(reader, 2);
+
+        assertThat(sut.hasNext(ctx), is(true));
+        List<SqlRow> chunk = sut.read(ctx);
+        assertThat(chunk.size(), is(2));
+        assertThat(chunk.get(0).getString("title"), is("title1"));
+        assertThat(chunk.get(1).getString("title"), is("title2"));
+
+        chunk = sut.read(ctx);
+        assertThat(chunk.size(), is(2));
+        assertThat(chunk.get(0).getString("title"), is("title3"));
+        assertThat(chunk.get(1).getString("title"), is("title4"));
+
+        assertThat(sut.hasNext(ctx), is(true));
+        chunk = sut.read(ctx);
+        assertThat(chunk.size(), is(1));
+        assertThat(chunk.get(0).getString("title"), is("title5"));
+
+        assertThat(sut.hasNext(ctx), is(false));
+        assertThat(sut.read(ctx), is(nullValue()));
+        sut.close(ctx);
+    }
+
+    /**
+     * 参照結果が0件の場合、{@code null}が返却されること。
+     */
+    @Test
+    public void testReadNoRecord() {
+        ExecutionContext ctx = new ExecutionContext();
+        DatabaseRecordReader reader = new DatabaseRecordReader().setStatement(
+                DbConnectionContext.getConnection().prepareStatement("SELECT * FROM READER_BOOK ORDER BY TITLE"));
+        ChunkedDatabaseRecordReader sut = new ChunkedDatabaseRecordReader(reader, 10);
+
+        assertThat(sut.read(ctx), is(nullValue()));
+        assertThat(sut.hasNext(ctx), is(false));
+        sut.close(ctx);
+    }
+
+    /**
+     * チャンクサイズに1未満を指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidChunkSize() {
+        try {
+            new ChunkedDatabaseRecordReader(new DatabaseRecordReader(), 0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("chunk size must be greater than 0. chunk size = [0]"));
+        }
+    }
+}
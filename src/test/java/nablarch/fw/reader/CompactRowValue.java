@@ -0,0 +1,53 @@
+package nablarch.fw.reader;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * COMPACT_ROW_VALUE
+ */
+@Entity
+@Table(name = "COMPACT_ROW_VALUE")
+public class CompactRowValue {
+
+    public CompactRowValue() {
+    }
+
+    public CompactRowValue(Long id, Date dateCol, Timestamp timestampCol, BigDecimal decimalCol,
+            byte[] blobCol, String clobCol) {
+        this.id = id;
+        this.dateCol = dateCol;
+        this.timestampCol = timestampCol;
+        this.decimalCol = decimalCol;
+        this.blobCol = blobCol;
+        this.clobCol = clobCol;
+    }
+
+    @Id
+    @Column(name = "ID", length = 10, nullable = false)
+    public Long id;
+
+    @Column(name = "DATE_COL")
+    public Date dateCol;
+
+    @Column(name = "TIMESTAMP_COL")
+    public Timestamp timestampCol;
+
+    @Column(name = "DECIMAL_COL", precision = 10, scale = 3)
+    public BigDecimal decimalCol;
+
+    @Lob
+    @Column(name = "BLOB_COL")
+    public byte[] blobCol;
+
+    @Lob
+    @Column(name = "CLOB_COL")
+    public String clobCol;
+}
@@ -0,0 +1,134 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+import nablarch.test.support.log.app.OnMemoryLogWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link DatabaseRecordMetricsListener}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class DatabaseRecordMetricsListenerTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(ReaderBook.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(connection);
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher1", "authors1"),
+                new ReaderBook("title2", "publisher2", "authors2"),
+                new ReaderBook("title3", "publisher3", "authors3"));
+        OnMemoryLogWriter.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+    }
+
+    /**
+     * ステートメントの実行回数、終端到達回数、読み込んだレコード数が集計されること。
+     */
+    @Test
+    public void testMetrics() {
+        DatabaseRecordMetricsListener sut = new DatabaseRecordMetricsListener("book");
+        DatabaseRecordReader reader = new DatabaseRecordReader()
+                .setStatement(connection.prepareStatement("SELECT * FROM READER_BOOK ORDER BY TITLE"))
+                .setListener(sut);
+
+        while (reader.hasNext(null)) {
+            assertThat(reader.read(null), is(notNullValue()));
+        }
+        assertThat(reader.read(null), is(nullValue()));
+        assertThat(sut.getExecuteCount(), is(1L));
+        assertThat("終端到達の通知はステートメントの実行毎に1回のみ", sut.getExhaustedCount(), is(1L));
+        assertThat(sut.getLastReadCount(), is(3L));
+
+        // 再実行後、途中まで読み込んだ場合は終端到達は通知されないこと
+        reader.reopen(null);
+        reader.read(null);
+        assertThat(sut.getExecuteCount(), is(2L));
+        assertThat(sut.getExhaustedCount(), is(1L));
+
+        reader.reopen(null);
+        while (reader.read(null) != null) {
+            // 全件読み込む
+        }
+        assertThat(sut.getExecuteCount(), is(3L));
+        assertThat(sut.getExhaustedCount(), is(2L));
+        assertThat(sut.getLastReadCount(), is(3L));
+        assertThat(sut.getTotalReadCount(), is(6L));
+        assertThat(sut.getTotalExecuteTime() >= sut.getMaxExecuteTime(), is(true));
+        assertThat(sut.getMaxExecuteTime() >= sut.getLastExecuteTime(), is(true));
+        assertThat(sut.getCloseCount(), is(0L));
+
+        reader.close(null);
+        assertThat(sut.getCloseCount(), is(1L));
+    }
+
+    /**
+     * ステートメントの実行時間が閾値以上の場合、ログが出力されること。
+     */
+    @Test
+    public void testSlowQueryLog() {
+        DatabaseRecordMetricsListener sut = new DatabaseRecordMetricsListener("book");
+        sut.afterReadRecords(999);
+        assertThat("閾値未設定の場合は出力されない", slowQueryLogs().size(), is(0));
+
+        sut.setSlowQueryThreshold(1000);
+        sut.afterReadRecords(999);
+        assertThat("閾値未満の場合は出力されない", slowQueryLogs().size(), is(0));
+
+        sut.afterReadRecords(1000);
+        List<String> logs = slowQueryLogs();
+        assertThat(logs.size(), is(1));
+        assertThat(logs.get(0), containsString(
+                "slow query detected. reader name = [book], elapsed time = [1000ms], threshold = [1000ms]"));
+        assertThat(sut.getExecuteCount(), is(3L));
+        assertThat(sut.getMaxExecuteTime(), is(1000L));
+        assertThat(sut.getTotalExecuteTime(), is(2998L));
+    }
+
+    private static List<String> slowQueryLogs() {
+        List<String> result = new ArrayList<String>();
+        for (String message : OnMemoryLogWriter.getMessages("writer.appLog")) {
+            if (message.contains("slow query detected.")) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+}
@@ -8,6 +8,9 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.List;
 
@@ -57,6 +60,7 @@ public class DatabaseRecordReaderTest {
     @BeforeClass
     public static void setUpClass() throws Exception {
         VariousDbTestHelper.createTable(ReaderBook.class);
+        VariousDbTestHelper.createTable(CompactRowValue.class);
     }
 
     /**
@@ -330,4 +334,134 @@ public class DatabaseRecordReaderTest {
         assertThat(reader.read(null).getString("publisher"), is("change"));
         assertThat(reader.read(null), is(nullValue()));
     }
+
+    /**
+     * フェッチサイズが設定され、読み込んだレコード数が取得できること。
+     */
+    @Test
+    public void testFetchSizeAndReadCount() {
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher1", "authors1"),
+                new ReaderBook("title2", "publisher2", "authors2"),
+                new ReaderBook("title3", "publisher3", "authors3"));
+
+        SqlPStatement statement = DbConnectionContext.getConnection()
+                                                     .prepareStatement("SELECT * FROM READER_BOOK ORDER BY TITLE");
+        DatabaseRecordReader reader = new DatabaseRecordReader()
+                .setStatement(statement)
+                .setFetchSize(2);
+
+        assertThat(reader.getFetchSize(), is(2));
+        assertThat(reader.getReadCount(), is(0L));
+
+        assertThat(reader.read(null).getString("title"), is("title1"));
+        assertThat(statement.getFetchSize(), is(2));
+        assertThat(reader.read(null).getString("title"), is("title2"));
+        assertThat(reader.read(null).getString("title"), is("title3"));
+        assertThat(reader.read(null), is(nullValue()));
+        assertThat(reader.getReadCount(), is(3L));
+        assertThat(reader.getTotalReadCount(), is(3L));
+
+        // 再実行した場合、直近の読み込み件数はクリアされ、総数は加算されること
+        reader.reopen(null);
+        assertThat(reader.getReadCount(), is(0L));
+        assertThat(reader.read(null).getString("title"), is("title1"));
+        assertThat(reader.getReadCount(), is(1L));
+        assertThat(reader.getTotalReadCount(), is(4L));
+        reader.close(null);
+    }
+
+    /**
+     * 軽量なレコード表現を使用した場合でも、通常のレコードと同様に値を参照・追加できること。
+     */
+    @Test
+    public void testCompactRow() {
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher1", "authors1"),
+                new ReaderBook("title2", "publisher2", "authors2"));
+
+        SqlPStatement statement = DbConnectionContext.getConnection()
+                                                     .prepareStatement("SELECT TITLE, PUBLISHER, AUTHORS FROM READER_BOOK ORDER BY TITLE");
+        DatabaseRecordReader reader = new DatabaseRecordReader()
+                .setStatement(statement)
+                .setCompactRow(true);
+
+        SqlRow first = reader.read(null);
+        assertThat(first, is(instanceOf(CompactSqlRow.class)));
+        assertThat(first.size(), is(3));
+        assertThat(first.getString("title"), is("title1"));
+        assertThat(first.getString("TITLE"), is("title1"));
+        assertThat((String) first.get("Publisher"), is("publisher1"));
+        assertThat(first.containsKey("authors"), is(true));
+        assertThat(first.keySet(), hasItems("TITLE", "PUBLISHER", "AUTHORS"));
+
+        // 参照結果に含まれない項目を追加できること
+        first.put("extraItem", "extra");
+        assertThat(first.size(), is(4));
+        assertThat(first.getString("EXTRA_ITEM"), is("extra"));
+
+        // 参照結果のカラムの値を変更できること
+        first.put("title", "changed");
+        assertThat(first.getString("TITLE"), is("changed"));
+
+        // 参照結果のカラムは削除できないこと
+        try {
+            first.remove("TITLE");
+            fail("ここはとおらない");
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getMessage(), is("column of result set can not be removed. key = [TITLE]"));
+        }
+
+        SqlRow second = reader.read(null);
+        assertThat(second.getString("title"), is("title2"));
+        assertThat(second.size(), is(3));
+        assertThat(reader.read(null), is(nullValue()));
+        reader.close(null);
+    }
+
+    /**
+     * 軽量なレコード表現を使用した場合でも、日付・数値・LOBのカラムの値が
+     * 通常のレコードと同じくダイアレクトによる変換後の値で取得できること。
+     */
+    @Test
+    public void testCompactRowConvertedValue() {
+        VariousDbTestHelper.setUpTable(
+                new CompactRowValue(1L, Date.valueOf("2026-01-02"), Timestamp.valueOf("2026-01-02 03:04:05.678"),
+                        new BigDecimal("123.456"), new byte[] {0x01, 0x02, 0x03}, "clob1"),
+                new CompactRowValue(2L, null, null, null, null, null));
+
+        String sql = "SELECT ID, DATE_COL, TIMESTAMP_COL, DECIMAL_COL, BLOB_COL, CLOB_COL FROM COMPACT_ROW_VALUE ORDER BY ID";
+        DatabaseRecordReader normalReader = new DatabaseRecordReader()
+                .setStatement(DbConnectionContext.getConnection().prepareStatement(sql));
+        DatabaseRecordReader compactReader = new DatabaseRecordReader()
+                .setStatement(DbConnectionContext.getConnection().prepareStatement(sql))
+                .setCompactRow(true);
+
+        String[] columns = {"ID", "DATE_COL", "TIMESTAMP_COL", "DECIMAL_COL", "BLOB_COL", "CLOB_COL"};
+        for (int i = 0; i < 2; i++) {
+            SqlRow normal = normalReader.read(null);
+            SqlRow compact = compactReader.read(null);
+            assertThat(compact, is(instanceOf(CompactSqlRow.class)));
+
+            // 通常のレコードと同じ型の値を保持していること
+            for (String column : columns) {
+                Object expected = normal.get(column);
+                if (expected == null) {
+                    assertThat(column, compact.get(column), is(nullValue()));
+                } else {
+                    assertThat(column, compact.get(column), is(instanceOf(expected.getClass())));
+                }
+            }
+            assertThat(compact.getBigDecimal("id"), is(normal.getBigDecimal("id")));
+            assertThat(compact.getDate("dateCol"), is(normal.getDate("dateCol")));
+            assertThat(compact.getTimestamp("timestampCol"), is(normal.getTimestamp("timestampCol")));
+            assertThat(compact.getBigDecimal("decimalCol"), is(normal.getBigDecimal("decimalCol")));
+            assertThat(compact.getBytes("blobCol"), is(normal.getBytes("blobCol")));
+            assertThat(compact.getString("clobCol"), is(normal.getString("clobCol")));
+        }
+        assertThat(normalReader.read(null), is(nullValue()));
+        assertThat(compactReader.read(null), is(nullValue()));
+        normalReader.close(null);
+        compactReader.close(null);
+    }
 }
@@ -6,6 +6,7 @@ import static org.junit.Assert.fail;
 
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -147,7 +148,6 @@ public class DatabaseTableQueueReaderTest {
         // 別スレッドでデータをリード
         ExecutorService executor = Executors.newSingleThreadExecutor();
         Future<SqlRow> future = executor.submit(new DataReadTask(sut));
-        executor.shutdown();
         SqlRow row = future.get();
         assertThat("子スレッド側でデータが読み込めていること", row.getBigDecimal("id")
                                               .intValue(), is(1));
@@ -155,6 +155,7 @@ public class DatabaseTableQueueReaderTest {
         SqlRow nullObj = sut.read(null);
         assertThat("子スレッドでデータが読み込まれているので、親スレッド側でデータは読み取れないこと",
                 nullObj, is(nullValue()));
+        executor.shutdown();
     }
 
 
@@ -346,6 +347,279 @@ public class DatabaseTableQueueReaderTest {
         assertThat("データが存在しないので一定時間待機後にデータが取得される", (end - start) >= 1000, is(true));
     }
 
+    /**
+     * 最大待機時間を設定した場合、処理対象レコードの有無に応じて待機時間が調整されること。
+     */
+    @Test
+    public void adaptiveWaitTime() throws Exception {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 10, "ID")
+                .setMaxWaitTime(40);
+        assertThat(sut.getEffectiveWaitTime(), is(10L));
+
+        // データが存在しない間は、最大待機時間まで待機時間が倍になること
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(20L));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(40L));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(40L));
+        assertThat(sut.getEmptyPollCount(), is(3L));
+        assertThat(sut.getConsecutiveEmptyPollCount(), is(3L));
+
+        // データが取得できた場合は、待機時間が0になること
+        createTestData(1);
+        assertThat(sut.read(null), is(notNullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(0L));
+        assertThat(sut.getConsecutiveEmptyPollCount(), is(0L));
+
+        // 再度データが存在しなくなった場合は、指定した待機時間から倍にしていくこと
+        updateStatus();
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(10L));
+        assertThat(sut.getEmptyPollCount(), is(4L));
+    }
+
+    /**
+     * 差分検索用のステートメントを設定した場合、再検索ではウォーターマークより大きいレコードのみを検索し、
+     * 全件の再検索を行う間隔毎に全件を検索すること。
+     */
+    @Test
+    public void incrementalPolling() throws Exception {
+        createTestData(2, 2);
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 0, "ID")
+                .setIncrementalStatement(connection.prepareParameterizedSqlStatement(
+                        "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = :status AND ID > :watermark ORDER BY ID"),
+                        Collections.singletonMap("status", "0"), "ID")
+                .setFullScanInterval(2);
+        assertThat(sut.getWatermark(), is(nullValue()));
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        assertThat(sut.read(null).getInteger("ID"), is(3));
+        assertThat(sut.getWatermark().toString(), is("3"));
+
+        // ウォーターマークより小さいキーのレコードを後から登録
+        updateStatus();
+        createTestData(1, 1);
+        createTestData(4, 1);
+
+        assertThat("差分検索では、ウォーターマークより大きいレコードのみが読み込まれること",
+                sut.read(null).getInteger("ID"), is(4));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getIncrementalPollCount(), is(2L));
+        assertThat(sut.getFullScanCount(), is(0L));
+
+        assertThat("全件の再検索で、ウォーターマークより小さいレコードが読み込まれること",
+                sut.read(null).getInteger("ID"), is(1));
+        assertThat(sut.getFullScanCount(), is(1L));
+        assertThat(sut.getWatermark().toString(), is("4"));
+        sut.close(null);
+    }
+
+    /**
+     * 差分検索では、コンストラクタで指定したリーダのデータベースレコードリスナおよび軽量なレコード表現の設定が引き継がれること。
+     */
+    @Test
+    public void incrementalPollingInheritsReaderSetting() throws Exception {
+        createTestData(1, 1);
+        final int[] beforeReadCount = {0};
+        DatabaseRecordReader reader = new DatabaseRecordReader()
+                .setCompactRow(true)
+                .setListener(new DatabaseRecordListener() {
+                    @Override
+                    public void beforeReadRecords() {
+                        beforeReadCount[0]++;
+                    }
+                });
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 0, "ID")
+                .setIncrementalStatement(connection.prepareParameterizedSqlStatement(
+                        "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = :status AND ID > :watermark ORDER BY ID"),
+                        Collections.singletonMap("status", "0"), "ID")
+                .setFullScanInterval(10);
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+
+        createTestData(2, 1);
+        SqlRow row = sut.read(null);
+        assertThat(row.getInteger("ID"), is(2));
+        assertThat(sut.getIncrementalPollCount(), is(1L));
+        assertThat("差分検索でもリスナが呼び出されること", beforeReadCount[0], is(2));
+        assertThat("差分検索でも軽量なレコード表現が使用されること",
+                row, is(instanceOf(CompactSqlRow.class)));
+        sut.close(null);
+    }
+
+    /**
+     * 差分検索の設定値が不正な場合、例外が発生すること。
+     */
+    @Test
+    public void invalidIncrementalSetting() throws Exception {
+        DatabaseTableQueueReader sut = createReader();
+        try {
+            sut.setIncrementalStatement(null, null, "ID");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("incremental statement must be set."));
+        }
+        try {
+            sut.setIncrementalStatement(connection.prepareParameterizedSqlStatement(
+                    "SELECT * FROM BATCH_REQUEST_TABLE WHERE ID > :watermark"), null, "");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("watermark column must be set."));
+        }
+        try {
+            sut.setFullScanInterval(0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("full scan interval must be greater than 0. full scan interval = [0]"));
+        }
+    }
+
+    /**
+     * 処理中のまま終了したスレッドのレコードは、再検索時に処理中のレコードから除外されること。
+     */
+    @Test
+    public void terminatedThreadRecordReleased() throws Exception {
+        createTestData(2);
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        final DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 0, "ID");
+
+        final SqlRow[] terminatedThreadRecord = new SqlRow[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                terminatedThreadRecord[0] = sut.read(null);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertThat(terminatedThreadRecord[0].getInteger("ID"), is(1));
+
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        assertThat("終了したスレッドのレコードは再度読み込まれること", sut.read(null).getInteger("ID"), is(1));
+        sut.close(null);
+    }
+
+    /**
+     * キーとなるカラムを設定した場合、同じキーのレコードは登録順に1件ずつ読み込まれ、
+     * 異なるキーのレコードは並行して読み込まれること。
+     */
+    @Test
+    public void partitionedRead() throws Exception {
+        createTestData(5);
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT B.*, MOD(ID, 2) AS ACCOUNT FROM BATCH_REQUEST_TABLE B WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 0, "ID")
+                .setPartitionColumn("ACCOUNT");
+
+        // 別スレッドでキー1のレコードを処理中とする
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        assertThat(executor.submit(new DataReadTask(sut)).get().getInteger("ID"), is(1));
+
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        assertThat("キー1のレコードは読み飛ばされること", sut.read(null).getInteger("ID"), is(4));
+        completeRecord(2);
+        completeRecord(4);
+        assertThat("後続のキー1のレコードも読み飛ばされること", sut.read(null), is(nullValue()));
+        assertThat(sut.getDeferredCount(), is(2L));
+
+        completeRecord(1);
+        assertThat("キー1のレコードが登録順に読み込まれること",
+                executor.submit(new DataReadTask(sut)).get().getInteger("ID"), is(3));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getDeferredCount(), is(3L));
+        executor.shutdown();
+        sut.close(null);
+
+        try {
+            sut.setPartitionColumn(null);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("partition column must be set."));
+        }
+    }
+
+    /**
+     * 通知を設定した場合、待機時間の経過を待たずに、通知を受けた時点で再検索が行われること。
+     */
+    @Test
+    public void signal() throws Exception {
+        final InMemoryTableQueueSignal signal = new InMemoryTableQueueSignal();
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 10000, "ID").setSignal(signal);
+
+        Thread enqueuer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                createTestData(1);
+                signal.signal();
+            }
+        });
+        enqueuer.start();
+        long start = System.currentTimeMillis();
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        assertThat("待機時間の経過前に読み込まれること", System.currentTimeMillis() - start < 5000, is(true));
+        assertThat(sut.getSignaledCount(), is(1L));
+        enqueuer.join();
+        sut.close(null);
+    }
+
+    /**
+     * 集計モードの場合、レコード毎のログに代わり、集計結果とサンプリングしたレコードの情報が出力されること。
+     */
+    @Test
+    public void writeSummaryLog() throws Exception {
+        createTestData(3);
+
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 1000, "ID")
+                .setSummaryLogInterval(50)
+                .setLogSampleInterval(2);
+
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        Thread.sleep(100);
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        assertThat(sut.read(null).getInteger("ID"), is(3));
+        sut.close(null);
+
+        List<String> log = OnMemoryLogWriter.getMessages("writer.queue");
+        assertThat(log.size(), is(3));
+        assertLog(log.get(0), "key info: {ID=2}");
+        assertThat(log.get(1), containsString("read database record summary. count = [2]"));
+        assertThat(log.get(2), containsString("read database record summary. count = [1]"));
+        assertThat(sut.getReadCount(), is(3L));
+    }
+
+    /**
+     * 最大待機時間を設定しない場合、待機時間は変化しないこと。
+     */
+    @Test
+    public void fixedWaitTime() throws Exception {
+        DatabaseTableQueueReader sut = createReader();
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getEffectiveWaitTime(), is(1000L));
+        assertThat(sut.getEmptyPollCount(), is(2L));
+    }
+
     /**
      * ログメッセージのアサートを行う。
      * <p>
@@ -504,6 +778,18 @@ public class DatabaseTableQueueReaderTest {
     }
 
 
+    /**
+     * 指定したIDの要求データのステータスを処理済みに更新する。
+     *
+     * @param id ID
+     */
+    private static void completeRecord(int id) {
+        SqlPStatement statement = connection.prepareStatement("UPDATE BATCH_REQUEST_TABLE SET STATUS = '1' WHERE ID = ?");
+        statement.setInt(1, id);
+        statement.executeUpdate();
+        connection.commit();
+    }
+
     /**
      * 要求データのステータスを全て処理済みに更新する。
      */
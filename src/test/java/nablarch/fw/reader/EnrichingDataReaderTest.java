@@ -0,0 +1,151 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link EnrichingDataReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class EnrichingDataReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+        VariousDbTestHelper.createTable(ReaderBook.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new BatchRequestTable(1L, "title1", "0"),
+                new BatchRequestTable(2L, "title2", "0"),
+                new BatchRequestTable(3L, "title1", "0"),
+                new BatchRequestTable(4L, "unknown", "0"),
+                new BatchRequestTable(5L, "title3", "0"));
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher1", "authors1"),
+                new ReaderBook("title2", "publisher2", "authors2"),
+                new ReaderBook("title3", "publisher3", "authors3"));
+
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+    }
+
+    /**
+     * ウィンドウ毎に1回のSQLで付加情報が取得され、各入力レコードに設定されること。
+     */
+    @Test
+    public void testEnrich() throws Exception {
+        DatabaseRecordReader source = new DatabaseRecordReader()
+                .setStatement(connection.prepareStatement("SELECT ID, DATA FROM BATCH_REQUEST_TABLE ORDER BY ID"));
+        EnrichingDataReader sut = new EnrichingDataReader(
+                source, "DATA", "SELECT TITLE, PUBLISHER FROM READER_BOOK", "TITLE")
+                .setEnrichmentName("book")
+                .setWindowSize(3);
+
+        assertThat(sut.hasNext(null), is(true));
+        assertPublisher(sut.read(null), 1, "publisher1");
+        assertPublisher(sut.read(null), 2, "publisher2");
+        assertPublisher(sut.read(null), 3, "publisher1");
+        assertThat("1ウィンドウ目は1回のSQLで取得されること", sut.getLookupCount(), is(1L));
+
+        SqlRow notFound = sut.read(null);
+        assertThat(notFound.getInteger("ID"), is(4));
+        assertThat("付加情報が存在しない場合はnullが設定されること", notFound.get("book"), is(nullValue()));
+        assertPublisher(sut.read(null), 5, "publisher3");
+
+        assertThat(sut.hasNext(null), is(false));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getWindowCount(), is(2L));
+        assertThat(sut.getLookupCount(), is(2L));
+        sut.close(null);
+    }
+
+    /**
+     * 不正な引数を指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidArgument() {
+        DatabaseRecordReader source = new DatabaseRecordReader();
+        try {
+            new EnrichingDataReader(null, "DATA", "SELECT * FROM READER_BOOK", "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("source reader must be set."));
+        }
+        try {
+            new EnrichingDataReader(new DatabaseTableQueueReader(source, 0, "ID"), "DATA", "SELECT * FROM READER_BOOK", "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("table queue reader is not supported. "
+                    + "source reader = [nablarch.fw.reader.DatabaseTableQueueReader]"));
+        }
+        try {
+            new EnrichingDataReader(source, "", "SELECT * FROM READER_BOOK", "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("foreign key column must be set."));
+        }
+        try {
+            new EnrichingDataReader(source, "DATA", null, "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("lookup sql must be set."));
+        }
+        try {
+            new EnrichingDataReader(source, "DATA", "SELECT * FROM READER_BOOK", null);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("lookup key column must be set."));
+        }
+        EnrichingDataReader sut = new EnrichingDataReader(source, "DATA", "SELECT * FROM READER_BOOK", "TITLE");
+        try {
+            sut.setWindowSize(1001);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("window size must be between 1 and 1000. window size = [1001]"));
+        }
+        try {
+            sut.setEnrichmentName("");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("enrichment name must be set."));
+        }
+    }
+
+    private static void assertPublisher(SqlRow record, int id, String publisher) {
+        assertThat(record.getInteger("ID"), is(id));
+        assertThat(((SqlRow) record.get("book")).getString("publisher"), is(publisher));
+    }
+}
@@ -0,0 +1,61 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * {@link InMemoryTableQueueSignal}のテスト。
+ */
+public class InMemoryTableQueueSignalTest {
+
+    /**
+     * 通知されない場合は、最大待機時間の経過後に{@code false}が返却されること。
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        InMemoryTableQueueSignal sut = new InMemoryTableQueueSignal();
+        long start = System.currentTimeMillis();
+        assertThat(sut.await(100), is(false));
+        assertThat(System.currentTimeMillis() - start >= 100, is(true));
+        assertThat(sut.await(0), is(false));
+    }
+
+    /**
+     * 待機前に通知された場合は、待機せずに{@code true}が返却され、通知は1回の待機で消費されること。
+     */
+    @Test
+    public void testSignalBeforeAwait() throws Exception {
+        InMemoryTableQueueSignal sut = new InMemoryTableQueueSignal();
+        sut.signal();
+        sut.signal();
+        assertThat(sut.await(10000), is(true));
+        assertThat(sut.await(10), is(false));
+        assertThat(sut.getSignalCount(), is(2L));
+    }
+
+    /**
+     * 待機中に通知された場合は、待機中のスレッドが復帰すること。
+     */
+    @Test
+    public void testSignalWhileAwaiting() throws Exception {
+        final InMemoryTableQueueSignal sut = new InMemoryTableQueueSignal();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                sut.signal();
+            }
+        });
+        thread.start();
+        long start = System.currentTimeMillis();
+        assertThat(sut.await(10000), is(true));
+        assertThat(System.currentTimeMillis() - start < 5000, is(true));
+        thread.join();
+    }
+}
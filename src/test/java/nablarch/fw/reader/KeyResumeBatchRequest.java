@@ -0,0 +1,37 @@
+package nablarch.fw.reader;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * KEY_RESUME_BATCH_REQUEST
+ */
+@Entity
+@Table(name = "KEY_RESUME_BATCH_REQUEST")
+public class KeyResumeBatchRequest {
+
+    public KeyResumeBatchRequest() {
+    }
+
+    public KeyResumeBatchRequest(String requestId, String lastPublisher, String lastTitle) {
+        this.requestId = requestId;
+        this.resumePoint = 0L;
+        this.lastPublisher = lastPublisher;
+        this.lastTitle = lastTitle;
+    }
+
+    @Id
+    @Column(name = "REQUEST_ID", length = 8, nullable = false)
+    public String requestId;
+
+    @Column(name = "RESUME_POINT", length = 5)
+    public Long resumePoint;
+
+    @Column(name = "LAST_PUBLISHER", length = 128)
+    public String lastPublisher;
+
+    @Column(name = "LAST_TITLE", length = 128)
+    public String lastTitle;
+}
@@ -0,0 +1,158 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.repository.SystemRepository;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link KeysetPagingDatabaseRecordReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class KeysetPagingDatabaseRecordReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private static TransactionManagerConnection tmConn;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(ReaderBook.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ConnectionFactory factory = SystemRepository.get("connectionFactory");
+        tmConn = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(tmConn);
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher2", "authors1"),
+                new ReaderBook("title2", "publisher1", "authors2"),
+                new ReaderBook("title3", "publisher2", "authors3"),
+                new ReaderBook("title4", "publisher1", "authors4"),
+                new ReaderBook("title5", "publisher2", "authors5"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tmConn.terminate();
+        DbConnectionContext.removeConnection();
+    }
+
+    /**
+     * ページ単位に再検索しながら、キー項目の昇順で全レコードが読み込まれること。
+     */
+    @Test
+    public void testRead() {
+        KeysetPagingDatabaseRecordReader sut = new KeysetPagingDatabaseRecordReader(
+                "SELECT TITLE, PUBLISHER FROM READER_BOOK", "TITLE")
+                .setPageSize(2);
+
+        for (int i = 1; i <= 5; i++) {
+            assertThat(sut.hasNext(null), is(true));
+            assertThat(sut.read(null).getString("title"), is("title" + i));
+        }
+        assertThat(sut.hasNext(null), is(false));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat("2件ずつ3ページ取得されること", sut.getPageCount(), is(3L));
+
+        // 再度開き直した場合は先頭から読み込まれること
+        sut.reopen(null);
+        assertThat(sut.read(null).getString("title"), is("title1"));
+        sut.close(null);
+        assertThat(sut.hasNext(null), is(false));
+    }
+
+    /**
+     * 条件および複数のキー項目を指定した場合、キー項目の組み合わせ順に読み込まれること。
+     */
+    @Test
+    public void testReadWithConditionAndMultipleKeys() {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("authors", "authors5");
+        KeysetPagingDatabaseRecordReader sut = new KeysetPagingDatabaseRecordReader(
+                "SELECT TITLE, PUBLISHER FROM READER_BOOK WHERE AUTHORS <> :authors", "PUBLISHER", "TITLE")
+                .setCondition(condition)
+                .setPageSize(1);
+
+        assertThat(sut.read(null).getString("title"), is("title2"));
+        assertThat(sut.read(null).getString("title"), is("title4"));
+        assertThat(sut.read(null).getString("title"), is("title1"));
+        assertThat(sut.read(null).getString("title"), is("title3"));
+        assertThat(sut.read(null), is(nullValue()));
+    }
+
+    /**
+     * 開始位置のキー値を指定した場合、そのキー値より後ろのレコードから読み込まれること。
+     */
+    @Test
+    public void testSetLastKey() {
+        KeysetPagingDatabaseRecordReader sut = new KeysetPagingDatabaseRecordReader(
+                "SELECT TITLE, PUBLISHER FROM READER_BOOK", "PUBLISHER", "TITLE")
+                .setLastKey("publisher1", "title4");
+
+        assertThat(sut.getLastKey(), is(new Object[] {"publisher1", "title4"}));
+        assertThat(sut.read(null).getString("title"), is("title1"));
+        assertThat(sut.getLastKey(), is(new Object[] {"publisher2", "title1"}));
+
+        try {
+            sut.setLastKey("publisher1");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("last key must have the same number of values as key columns. "
+                    + "key columns = [PUBLISHER, TITLE], last key = [publisher1]"));
+        }
+    }
+
+    /**
+     * 不正なパラメータを指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidParameter() {
+        try {
+            new KeysetPagingDatabaseRecordReader("", "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("sql must be set."));
+        }
+        try {
+            new KeysetPagingDatabaseRecordReader("SELECT * FROM READER_BOOK");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("key columns must be set."));
+        }
+        try {
+            new KeysetPagingDatabaseRecordReader("SELECT * FROM READER_BOOK", "TITLE", "TITLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(),
+                    is("duplicated key column. must be unique column name. key columns = [TITLE, TITLE]"));
+        }
+        try {
+            new KeysetPagingDatabaseRecordReader("SELECT * FROM READER_BOOK", "TITLE").setPageSize(0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("page size must be greater than 0. page size = [0]"));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.fw.ExecutionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link KeysetResumeDataReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class KeysetResumeDataReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/fw/reader/KeysetResumeDataReaderTest.xml");
+
+    private TransactionManagerConnection connection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(ReaderBook.class);
+        VariousDbTestHelper.createTable(KeyResumeBatchRequest.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new ReaderBook("title1", "publisher2", "authors1"),
+                new ReaderBook("title2", "publisher1", "authors2"),
+                new ReaderBook("title3", "publisher2", "authors3"),
+                new ReaderBook("title4", "publisher1", "authors4"),
+                new ReaderBook("title5", "publisher2", "authors5"));
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(connection);
+        ThreadContext.setRequestId("RW000001");
+        ThreadContext.setConcurrentNumber(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+        ThreadContext.clear();
+    }
+
+    /**
+     * コミットの度に最後に読み込んだレコードのキー値が保存され、
+     * 再実行時には保存されたキー値より後ろのレコードから読み込まれること。
+     */
+    @Test
+    public void testResume() throws Exception {
+        VariousDbTestHelper.setUpTable(new KeyResumeBatchRequest("RW000001", null, null));
+
+        KeysetResumeDataReader sut = createReader();
+        assertThat("キー値が保存されていない場合は先頭から読み込まれること",
+                sut.read(new ExecutionContext()).getString("title"), is("title2"));
+        assertThat(sut.read(new ExecutionContext()).getString("title"), is("title4"));
+        connection.commit();
+        sut.close(null);
+
+        KeyResumeBatchRequest saved = VariousDbTestHelper.findById(KeyResumeBatchRequest.class, "RW000001");
+        assertThat(saved.lastPublisher, is("publisher1"));
+        assertThat(saved.lastTitle, is("title4"));
+
+        sut = createReader();
+        assertThat(sut.hasNext(new ExecutionContext()), is(true));
+        assertThat(sut.read(new ExecutionContext()).getString("title"), is("title1"));
+        assertThat(sut.read(new ExecutionContext()).getString("title"), is("title3"));
+        assertThat(sut.read(new ExecutionContext()).getString("title"), is("title5"));
+        assertThat(sut.read(new ExecutionContext()), is(nullValue()));
+        connection.commit();
+        sut.close(null);
+
+        saved = VariousDbTestHelper.findById(KeyResumeBatchRequest.class, "RW000001");
+        assertThat(saved.lastPublisher, is("publisher2"));
+        assertThat(saved.lastTitle, is("title5"));
+
+        sut = createReader();
+        assertThat("全て処理済みの場合は読み込まれないこと", sut.hasNext(new ExecutionContext()), is(false));
+    }
+
+    /**
+     * 保存されたキー値が不正な場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidResumeKey() throws Exception {
+        VariousDbTestHelper.setUpTable(new KeyResumeBatchRequest("RW000001", "publisher1", null));
+        try {
+            createReader().read(new ExecutionContext());
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("invalid resume key was stored on the table. "
+                    + "all resume key columns must be null or not null. resume key=[publisher1, null], "
+                    + "sql=[SELECT LAST_PUBLISHER, LAST_TITLE FROM KEY_RESUME_BATCH_REQUEST WHERE REQUEST_ID = ?], "
+                    + "request id=[RW000001]."));
+        }
+
+        VariousDbTestHelper.delete(KeyResumeBatchRequest.class);
+        try {
+            createReader().read(new ExecutionContext());
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Couldn't load resume key from the table. "
+                    + "sql=[SELECT LAST_PUBLISHER, LAST_TITLE FROM KEY_RESUME_BATCH_REQUEST WHERE REQUEST_ID = ?], "
+                    + "request id=[RW000001]."));
+        }
+    }
+
+    /**
+     * リーダが指定されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidParameter() {
+        try {
+            new KeysetResumeDataReader(null);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("source reader must be set."));
+        }
+    }
+
+    private KeysetResumeDataReader createReader() {
+        return new KeysetResumeDataReader(new KeysetPagingDatabaseRecordReader(
+                "SELECT TITLE, PUBLISHER FROM READER_BOOK", "PUBLISHER", "TITLE")
+                .setPageSize(2));
+    }
+}
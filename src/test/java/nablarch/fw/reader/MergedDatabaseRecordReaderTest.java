@@ -0,0 +1,232 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionFactory;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link MergedDatabaseRecordReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MergedDatabaseRecordReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = 1; i <= 10; i++) {
+            records.add(new BatchRequestTable(i, "data_" + i, i <= 5 ? "0" : "1"));
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+    }
+
+    /**
+     * ソートキーを指定した場合、全ての参照元のレコードがソートキーの昇順で読み込まれること。
+     */
+    @Test
+    public void testMergeBySortKey() throws Exception {
+        MergedDatabaseRecordReader sut = new MergedDatabaseRecordReader()
+                .setBufferSize(2)
+                .addSource(transactionManager("shard1"), "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE MOD(ID, 3) = 0 ORDER BY ID")
+                .addSource(transactionManager("shard2"), "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE MOD(ID, 3) = 1 ORDER BY ID")
+                .addSource(transactionManager("shard3"), "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE MOD(ID, 3) = 2 ORDER BY ID")
+                .setSortKeys("ID");
+
+        List<Integer> actual = new ArrayList<Integer>();
+        while (sut.hasNext(null)) {
+            SqlRow row = sut.read(null);
+            if (row != null) {
+                actual.add(row.getInteger("id"));
+            }
+        }
+        assertThat(actual, is(ids(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.getSourceCount(), is(3));
+        assertThat(sut.getFetchedCount(0), is(3L));
+        assertThat(sut.getFetchedCount(1), is(4L));
+        assertThat(sut.getFetchedCount(2), is(3L));
+        sut.close(null);
+    }
+
+    /**
+     * ソートキーを指定しない場合、全ての参照元のレコードが1回ずつ読み込まれること。
+     */
+    @Test
+    public void testInterleave() throws Exception {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("status", "0");
+        MergedDatabaseRecordReader sut = new MergedDatabaseRecordReader()
+                .addSource(transactionManager("shard1"), "SELECT ID FROM BATCH_REQUEST_TABLE WHERE STATUS = :status", condition)
+                .addSource(transactionManager("shard2"), "SELECT ID FROM BATCH_REQUEST_TABLE WHERE STATUS = '1'")
+                .setFetchSize(3);
+
+        List<Integer> actual = new ArrayList<Integer>();
+        SqlRow row;
+        while ((row = sut.read(null)) != null) {
+            actual.add(row.getInteger("ID"));
+        }
+        Collections.sort(actual);
+        assertThat(actual, is(ids(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertThat(sut.hasNext(null), is(false));
+        sut.close(null);
+        assertThat("閉じた後は読み込めないこと", sut.hasNext(null), is(false));
+    }
+
+    /**
+     * 他のスレッドが参照元のレコードの読み込みを待機している間でも、リーダを閉じられること。
+     * 待機中の読み込みは{@code null}を返却すること。
+     */
+    @Test
+    public void testCloseWhileWaiting() throws Exception {
+        final CountDownLatch stuck = new CountDownLatch(1);
+        SimpleDbTransactionManager stuckManager = setUpTransactionManager(new SimpleDbTransactionManager() {
+            @Override
+            public void beginTransaction() {
+                // 応答しない参照元
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.beginTransaction();
+            }
+        }, "shard1");
+        final MergedDatabaseRecordReader sut = new MergedDatabaseRecordReader()
+                .addSource(stuckManager, "SELECT ID FROM BATCH_REQUEST_TABLE ORDER BY ID")
+                .setSortKeys("ID");
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SqlRow> future = executor.submit(new Callable<SqlRow>() {
+                @Override
+                public SqlRow call() throws Exception {
+                    return sut.read(null);
+                }
+            });
+            // 読み込みが待機状態となるまで待つ
+            Thread.sleep(100);
+            long start = System.currentTimeMillis();
+            sut.close(null);
+            assertThat("待機中の読み込みを待たずに閉じられること", System.currentTimeMillis() - start < 1000, is(true));
+            assertThat(future.get(1, TimeUnit.SECONDS), is(nullValue()));
+            assertThat(sut.hasNext(null), is(false));
+        } finally {
+            stuck.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 参照元の読み込みで発生した例外が再送出されること。
+     */
+    @Test
+    public void testReadFailure() throws Exception {
+        MergedDatabaseRecordReader sut = new MergedDatabaseRecordReader()
+                .addSource(transactionManager("shard1"), "SELECT ID FROM BATCH_REQUEST_TABLE ORDER BY ID")
+                .addSource(transactionManager("shard2"), "SELECT ID FROM NOT_EXISTS_TABLE ORDER BY ID")
+                .setSortKeys("ID");
+        try {
+            sut.read(null);
+            fail("ここはとおらない");
+        } catch (DbAccessException e) {
+            assertThat(e.getMessage().contains("NOT_EXISTS_TABLE"), is(true));
+        }
+        sut.close(null);
+    }
+
+    /**
+     * 不正な設定をした場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidSetting() {
+        try {
+            new MergedDatabaseRecordReader().addSource(null, "SELECT ID FROM BATCH_REQUEST_TABLE");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("transaction manager must be set."));
+        }
+        try {
+            new MergedDatabaseRecordReader().addSource(transactionManager("shard1"), "");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("sql must be set."));
+        }
+        try {
+            new MergedDatabaseRecordReader().setBufferSize(0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("buffer size must be greater than 0. buffer size = [0]"));
+        }
+        try {
+            new MergedDatabaseRecordReader().read(null);
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("source was not added."));
+        }
+
+        MergedDatabaseRecordReader sut = new MergedDatabaseRecordReader()
+                .addSource(transactionManager("shard1"), "SELECT ID FROM BATCH_REQUEST_TABLE");
+        sut.read(null);
+        try {
+            sut.addSource(transactionManager("shard2"), "SELECT ID FROM BATCH_REQUEST_TABLE");
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("source can not be added after reading started."));
+        }
+        sut.close(null);
+    }
+
+    private SimpleDbTransactionManager transactionManager(String name) {
+        return setUpTransactionManager(new SimpleDbTransactionManager(), name);
+    }
+
+    private SimpleDbTransactionManager setUpTransactionManager(SimpleDbTransactionManager manager, String name) {
+        ConnectionFactory connectionFactory = repositoryResource.getComponent("connectionFactory");
+        TransactionFactory transactionFactory = repositoryResource.getComponent("jdbcTransactionFactory");
+        manager.setDbTransactionName(name);
+        manager.setConnectionFactory(connectionFactory);
+        manager.setTransactionFactory(transactionFactory);
+        return manager;
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+}
@@ -0,0 +1,231 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link MicroBatchTableQueueReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class MicroBatchTableQueueReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    private TransactionManagerConnection updateConnection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new BatchRequestTable(1L, "data_1", "0"),
+                new BatchRequestTable(2L, "data_2", "0"),
+                new BatchRequestTable(3L, "data_3", "0"),
+                new BatchRequestTable(4L, "data_4", "0"),
+                new BatchRequestTable(5L, "data_5", "0"));
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        updateConnection = factory.getConnection("update");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.terminate();
+        updateConnection.terminate();
+    }
+
+    /**
+     * 最大件数ごとにまとめて返却され、返却したレコードは他のスレッドに返却されないこと。
+     */
+    @Test
+    public void testMaxBatchSize() throws Exception {
+        final MicroBatchTableQueueReader sut = new MicroBatchTableQueueReader(createQueueReader(), 2, 100);
+
+        assertThat(toIds(sut.read(null)), is("[1, 2]"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<SqlRow> otherThreadBatch = executor.submit(new Callable<List<SqlRow>>() {
+            @Override
+            public List<SqlRow> call() throws Exception {
+                return sut.read(null);
+            }
+        }).get();
+        assertThat("他のスレッドで処理中のレコードは返却されないこと", toIds(otherThreadBatch), is("[3, 4]"));
+
+        complete(1, 2);
+        assertThat("カーソルの終端に達した場合は、最大待ち時間の間に読み込めたレコードのみ返却されること",
+                toIds(sut.read(null)), is("[5]"));
+        complete(3, 4, 5);
+        assertThat(sut.read(null), is(nullValue()));
+        executor.shutdown();
+        sut.close(null);
+        assertThat(sut.hasNext(null), is(false));
+    }
+
+    /**
+     * 最大待ち時間の間に登録されたレコードもまとめて返却されること。
+     */
+    @Test
+    public void testMaxLatency() throws Exception {
+        complete(2, 3, 4, 5);
+        MicroBatchTableQueueReader sut = new MicroBatchTableQueueReader(createQueueReader(), 10, 500);
+
+        Thread enqueuer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                SqlPStatement statement = updateConnection.prepareStatement(
+                        "INSERT INTO BATCH_REQUEST_TABLE VALUES (6, 'data_6', '0')");
+                statement.executeUpdate();
+                updateConnection.commit();
+            }
+        });
+        long start = System.currentTimeMillis();
+        enqueuer.start();
+        assertThat(toIds(sut.read(null)), is("[1, 6]"));
+        assertThat("最大待ち時間まで待機すること", System.currentTimeMillis() - start >= 500, is(true));
+        enqueuer.join();
+        sut.close(null);
+    }
+
+    /**
+     * 最大待ち時間の途中で登録されたレコードは、待機時間毎の再検索で読み込まれ、
+     * 最大件数に達した時点で最大待ち時間の経過を待たずに返却されること。
+     */
+    @Test
+    public void testPollWithinMaxLatency() throws Exception {
+        complete(2, 3, 4, 5);
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        MicroBatchTableQueueReader sut = new MicroBatchTableQueueReader(
+                new DatabaseTableQueueReader(reader, 50, "ID"), 2, 3000);
+
+        Thread enqueuer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                SqlPStatement statement = updateConnection.prepareStatement(
+                        "INSERT INTO BATCH_REQUEST_TABLE VALUES (6, 'data_6', '0')");
+                statement.executeUpdate();
+                updateConnection.commit();
+            }
+        });
+        long start = System.currentTimeMillis();
+        enqueuer.start();
+        assertThat(toIds(sut.read(null)), is("[1, 6]"));
+        assertThat("最大待ち時間の経過を待たずに返却されること", System.currentTimeMillis() - start < 2000, is(true));
+        enqueuer.join();
+        sut.close(null);
+    }
+
+    /**
+     * 最大待ち時間の間の再検索でレコードが取得できなくても、待機時間の調整および取得できなかった回数に反映されないこと。
+     */
+    @Test
+    public void testPollWithinMaxLatencyKeepsWaitTime() throws Exception {
+        complete(2, 3, 4, 5);
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        DatabaseTableQueueReader queueReader = new DatabaseTableQueueReader(reader, 10, "ID")
+                .setMaxWaitTime(1000);
+        MicroBatchTableQueueReader sut = new MicroBatchTableQueueReader(queueReader, 10, 200);
+
+        assertThat(toIds(sut.read(null)), is("[1]"));
+        assertThat(queueReader.getEmptyPollCount(), is(0L));
+        assertThat(queueReader.getConsecutiveEmptyPollCount(), is(0L));
+        assertThat("待機時間が延長されないこと", queueReader.getEffectiveWaitTime(), is(10L));
+        sut.close(null);
+    }
+
+    /**
+     * 不正な引数を指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidArgument() throws Exception {
+        try {
+            new MicroBatchTableQueueReader(null, 1, 0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("queue reader must be set."));
+        }
+        try {
+            new MicroBatchTableQueueReader(createQueueReader(), 0, 0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("max batch size must be greater than 0. max batch size = [0]"));
+        }
+        try {
+            new MicroBatchTableQueueReader(createQueueReader(), 1, -1);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("max latency must be 0 or greater. max latency = [-1]"));
+        }
+        MicroBatchTableQueueReader sut = new MicroBatchTableQueueReader(createQueueReader(), 10, 20);
+        assertThat(sut.getMaxBatchSize(), is(10));
+        assertThat(sut.getMaxLatency(), is(20L));
+    }
+
+    private DatabaseTableQueueReader createQueueReader() {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        return new DatabaseTableQueueReader(reader, 0, "ID");
+    }
+
+    private void complete(int... ids) {
+        SqlPStatement statement = updateConnection.prepareStatement("UPDATE BATCH_REQUEST_TABLE SET STATUS = '1' WHERE ID = ?");
+        for (int id : ids) {
+            statement.setInt(1, id);
+            statement.executeUpdate();
+        }
+        updateConnection.commit();
+    }
+
+    private static String toIds(List<SqlRow> batch) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (SqlRow row : batch) {
+            ids.add(row.getInteger("ID"));
+        }
+        return ids.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package nablarch.fw.reader;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * PARTITION_RESUME_BATCH_REQUEST
+ */
+@Entity
+@Table(name = "PARTITION_RESUME_BATCH_REQUEST")
+public class PartitionResumeBatchRequest {
+
+    public PartitionResumeBatchRequest() {
+    }
+
+    public PartitionResumeBatchRequest(String requestId, Long partitionNo, Long resumePoint) {
+        this.requestId = requestId;
+        this.partitionNo = partitionNo;
+        this.resumePoint = resumePoint;
+    }
+
+    @Id
+    @Column(name = "REQUEST_ID", length = 8, nullable = false)
+    public String requestId;
+
+    @Id
+    @Column(name = "PARTITION_NO", length = 3, nullable = false)
+    public Long partitionNo;
+
+    @Column(name = "RESUME_POINT", length = 5)
+    public Long resumePoint;
+}
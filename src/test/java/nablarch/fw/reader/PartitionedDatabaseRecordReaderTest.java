@@ -0,0 +1,239 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.fw.reader.PartitionedDatabaseRecordReader.PartitionType;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link PartitionedDatabaseRecordReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class PartitionedDatabaseRecordReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = 1; i <= 10; i++) {
+            records.add(new BatchRequestTable(i, "data_" + i, i == 10 ? "1" : "0"));
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 余りによる分割の場合、スレッド毎に異なるパーティションのレコードが読み込まれること。
+     */
+    @Test
+    public void testModuloPartition() throws Exception {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("status", "0");
+        PartitionedDatabaseRecordReader sut = new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = :status", "ID")
+                .setCondition(condition)
+                .setPartitionCount(3);
+
+        List<List<Integer>> actual = readByThreads(sut, 3);
+        assertThat(actual.get(0), is(ids(3, 6, 9)));
+        assertThat(actual.get(1), is(ids(1, 4, 7)));
+        assertThat(actual.get(2), is(ids(2, 5, 8)));
+
+        assertThat("全てのパーティションが割り当て済み", sut.hasNext(null), is(false));
+        assertThat(sut.read(null), is(nullValue()));
+        sut.close(null);
+    }
+
+    /**
+     * 余りによる分割の場合、パーティションキーが負の値のレコードも、いずれかのパーティションから読み込まれること。
+     */
+    @Test
+    public void testModuloPartitionNegativeKey() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = -4; i <= 4; i++) {
+            if (i != 0) {
+                records.add(new BatchRequestTable(i, "data_" + i, "0"));
+            }
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+        PartitionedDatabaseRecordReader sut = new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = '0'", "ID")
+                .setPartitionCount(3);
+
+        List<List<Integer>> actual = readByThreads(sut, 3);
+        assertThat(actual.get(0), is(ids(-3, 3)));
+        assertThat(actual.get(1), is(ids(-4, -1, 1, 4)));
+        assertThat(actual.get(2), is(ids(-2, 2)));
+        sut.close(null);
+    }
+
+    /**
+     * 範囲による分割の場合、スレッド毎に異なる範囲のレコードが読み込まれること。
+     */
+    @Test
+    public void testRangePartition() throws Exception {
+        PartitionedDatabaseRecordReader sut = new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = '0'", "ID")
+                .setPartitionType(PartitionType.RANGE)
+                .setPartitionCount(3);
+
+        List<List<Integer>> actual = readByThreads(sut, 3);
+        assertThat(actual.get(0), is(ids(1, 2, 3)));
+        assertThat(actual.get(1), is(ids(4, 5, 6)));
+        assertThat(actual.get(2), is(ids(7, 8, 9)));
+        sut.close(null);
+    }
+
+    /**
+     * パーティション数がスレッド数より多い場合、読み込みを終えたスレッドが残りのパーティションを読み込み、
+     * 全てのパーティションのレコードが読み込まれること。
+     */
+    @Test
+    public void testMorePartitionsThanThreads() throws Exception {
+        PartitionedDatabaseRecordReader sut = new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = '0'", "ID")
+                .setPartitionCount(4);
+
+        List<List<Integer>> actual = readByThreads(sut, 2);
+        assertThat(actual.size(), is(4));
+        assertThat(actual.get(0), is(ids(4, 8)));
+        assertThat(actual.get(1), is(ids(1, 5, 9)));
+        assertThat(actual.get(2), is(ids(2, 6)));
+        assertThat(actual.get(3), is(ids(3, 7)));
+
+        assertThat("全てのパーティションが割り当て済み", sut.hasNext(null), is(false));
+        sut.close(null);
+    }
+
+    /**
+     * 処理対象レコードが存在しない場合、範囲による分割でも{@code null}が返却されること。
+     */
+    @Test
+    public void testRangePartitionNoRecord() throws Exception {
+        PartitionedDatabaseRecordReader sut = new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = '9'", "ID")
+                .setPartitionType(PartitionType.RANGE)
+                .setPartitionCount(2);
+
+        List<List<Integer>> actual = readByThreads(sut, 2);
+        assertThat(actual.isEmpty(), is(true));
+        sut.close(null);
+    }
+
+    /**
+     * 不正なパラメータを指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidParameter() {
+        try {
+            new PartitionedDatabaseRecordReader(null, "ID");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("sql must be set."));
+        }
+        try {
+            new PartitionedDatabaseRecordReader("SELECT * FROM BATCH_REQUEST_TABLE", "");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("partition key column must be set."));
+        }
+    }
+
+    /**
+     * 指定されたスレッド数でレコードを読み込み、パーティション番号順に読み込んだIDを返却する。
+     * <p/>
+     * レコードが読み込まれなかったパーティションは含まない。
+     */
+    private List<List<Integer>> readByThreads(final PartitionedDatabaseRecordReader sut, int threadCount)
+            throws Exception {
+        final ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        // 各タスクが異なるスレッドで実行されるよう、全タスクの開始を待ち合わせる。
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        List<Future<Map<Integer, List<Integer>>>> futures = new ArrayList<Future<Map<Integer, List<Integer>>>>();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(executor.submit(new Callable<Map<Integer, List<Integer>>>() {
+                @Override
+                public Map<Integer, List<Integer>> call() throws Exception {
+                    barrier.await();
+                    TransactionManagerConnection connection = factory.getConnection(
+                            TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+                    DbConnectionContext.setConnection(connection);
+                    try {
+                        Map<Integer, List<Integer>> result = new HashMap<Integer, List<Integer>>();
+                        SqlRow row;
+                        while ((row = sut.read(null)) != null) {
+                            List<Integer> ids = result.get(sut.getPartitionNo());
+                            if (ids == null) {
+                                ids = new ArrayList<Integer>();
+                                result.put(sut.getPartitionNo(), ids);
+                            }
+                            ids.add(row.getInteger("ID"));
+                        }
+                        return result;
+                    } finally {
+                        DbConnectionContext.removeConnection();
+                        connection.terminate();
+                    }
+                }
+            }));
+        }
+        Map<Integer, List<Integer>> merged = new TreeMap<Integer, List<Integer>>();
+        for (Future<Map<Integer, List<Integer>>> future : futures) {
+            for (Map.Entry<Integer, List<Integer>> entry : future.get().entrySet()) {
+                assertThat("パーティションは1つのスレッドのみが読み込むこと", merged.containsKey(entry.getKey()), is(false));
+                Collections.sort(entry.getValue());
+                merged.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return new ArrayList<List<Integer>>(merged.values());
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+}
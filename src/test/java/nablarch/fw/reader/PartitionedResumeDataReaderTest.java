@@ -0,0 +1,327 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.core.ThreadContext;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.fw.ExecutionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link PartitionedResumeDataReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class PartitionedResumeDataReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource(
+            "nablarch/fw/reader/PartitionedResumeDataReaderTest.xml");
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+        VariousDbTestHelper.createTable(PartitionResumeBatchRequest.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = 10; i >= 1; i--) {
+            records.add(new BatchRequestTable(i, "data_" + i, "0"));
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        ThreadContext.clear();
+    }
+
+    /**
+     * パーティション毎に、正常に処理できたポイントの次のレコードから読み込みが再開されること。
+     * 読み込みの度に、パーティション毎の正常に処理できたポイントが保存されること。
+     */
+    @Test
+    public void testResumeEachPartition() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 2L),
+                new PartitionResumeBatchRequest("RW000001", 1L, 0L));
+
+        List<List<Integer>> actual = readByThreads(createSourceReader(), "RW000001");
+        assertThat(actual.get(0), is(ids(6, 8, 10)));
+        assertThat(actual.get(1), is(ids(1, 3, 5, 7, 9)));
+
+        List<PartitionResumeBatchRequest> points = VariousDbTestHelper.findAll(
+                PartitionResumeBatchRequest.class, "partitionNo");
+        assertThat(points.get(0).resumePoint, is(5L));
+        assertThat(points.get(1).resumePoint, is(5L));
+    }
+
+    /**
+     * 処理済みのパーティションからは読み込まれず、他のパーティションのみ処理が再開されること。
+     */
+    @Test
+    public void testCompletedPartition() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 5L),
+                new PartitionResumeBatchRequest("RW000001", 1L, 4L));
+
+        List<List<Integer>> actual = readByThreads(createSourceReader(), "RW000001");
+        assertThat(actual.get(0).isEmpty(), is(true));
+        assertThat(actual.get(1), is(ids(9)));
+    }
+
+    /**
+     * パーティション数がスレッド数より多い場合、全てのパーティションが正常に処理できたポイントから再開され、
+     * パーティション毎に正常に処理できたポイントが保存されること。
+     */
+    @Test
+    public void testMorePartitionsThanThreads() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 1L),
+                new PartitionResumeBatchRequest("RW000001", 1L, 0L),
+                new PartitionResumeBatchRequest("RW000001", 2L, 3L),
+                new PartitionResumeBatchRequest("RW000001", 3L, 1L));
+
+        List<List<Integer>> actual = readByThreads(createSourceReader().setPartitionCount(4), "RW000001");
+        assertThat(actual.get(0), is(ids(8)));
+        assertThat(actual.get(1), is(ids(1, 5, 9)));
+        assertThat("処理済みのパーティションからは読み込まれないこと", actual.get(2).isEmpty(), is(true));
+        assertThat(actual.get(3), is(ids(7)));
+
+        List<PartitionResumeBatchRequest> points = VariousDbTestHelper.findAll(
+                PartitionResumeBatchRequest.class, "partitionNo");
+        assertThat(points.get(0).resumePoint, is(2L));
+        assertThat(points.get(1).resumePoint, is(3L));
+        assertThat(points.get(2).resumePoint, is(3L));
+        assertThat(points.get(3).resumePoint, is(2L));
+    }
+
+    /**
+     * 割り当て可能なパーティションがなくなったスレッドは、コミットのタイミングでなくても、
+     * 読み込みを終えたパーティションの正常に処理できたポイントを保存すること。
+     * 他のスレッドが異常終了した場合でも、再実行時にコミット済みのレコードが再度読み込まれないこと。
+     */
+    @Test
+    public void testSaveResumePointWhenNoPartitionLeft() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 0L),
+                new PartitionResumeBatchRequest("RW000001", 1L, 0L));
+        final PartitionedResumeDataReader sut = new PartitionedResumeDataReader(createSourceReader());
+        final CountDownLatch assigned = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        Future<List<Integer>> failed = executor.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws Exception {
+                TransactionManagerConnection connection = openConnection("RW000001");
+                try {
+                    List<Integer> ids = new ArrayList<Integer>();
+                    ids.add(sut.read(createBulkCommitContext()).getInteger("ID"));
+                    assigned.countDown();
+                    finished.await();
+                    // 業務処理が失敗し、ロールバックされたものとする
+                    connection.rollback();
+                    return ids;
+                } finally {
+                    assigned.countDown();
+                    closeConnection(connection);
+                }
+            }
+        });
+        Future<List<Integer>> completed = executor.submit(new Callable<List<Integer>>() {
+            @Override
+            public List<Integer> call() throws Exception {
+                TransactionManagerConnection connection = openConnection("RW000001");
+                try {
+                    assigned.await();
+                    List<Integer> ids = new ArrayList<Integer>();
+                    SqlRow row;
+                    while ((row = sut.read(createBulkCommitContext())) != null) {
+                        ids.add(row.getInteger("ID"));
+                    }
+                    // 最後のコミット
+                    connection.commit();
+                    return ids;
+                } finally {
+                    finished.countDown();
+                    closeConnection(connection);
+                }
+            }
+        });
+        assertThat(failed.get(), is(ids(2)));
+        assertThat(completed.get(), is(ids(1, 3, 5, 7, 9)));
+
+        List<PartitionResumeBatchRequest> points = VariousDbTestHelper.findAll(
+                PartitionResumeBatchRequest.class, "partitionNo");
+        assertThat("異常終了したスレッドのパーティションは保存されないこと", points.get(0).resumePoint, is(0L));
+        assertThat("コミットのタイミングでなくても、読み込みを終えたパーティションが保存されること",
+                points.get(1).resumePoint, is(5L));
+
+        List<List<Integer>> actual = readByThreads(createSourceReader(), "RW000001");
+        assertThat(actual.get(0), is(ids(2, 4, 6, 8, 10)));
+        assertThat("コミット済みのレコードは再度読み込まれないこと", actual.get(1).isEmpty(), is(true));
+    }
+
+    /**
+     * 正常に処理できたポイントがパーティションのレコード数を上回る場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidResumePoint() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 6L),
+                new PartitionResumeBatchRequest("RW000001", 1L, 0L));
+        try {
+            readByThreads(createSourceReader(), "RW000001");
+            fail("ここはとおらない");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("invalid resume point was specified. "
+                    + "The total number of reads input data was [5], but resume point was [6]. "
+                    + "request id=[RW000001], partition no=[0]."));
+        }
+    }
+
+    /**
+     * パーティションの正常に処理できたポイントが登録されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testResumePointNotFound() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new PartitionResumeBatchRequest("RW000001", 0L, 0L));
+        try {
+            readByThreads(createSourceReader(), "RW000001");
+            fail("ここはとおらない");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), containsString("Couldn't load resume point from the table. "
+                    + "sql=[SELECT RESUME_POINT FROM PARTITION_RESUME_BATCH_REQUEST WHERE REQUEST_ID = ? AND PARTITION_NO = ?], "
+                    + "request id=[RW000001], partition no=[1]."));
+        }
+    }
+
+    /**
+     * リーダが指定されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidParameter() {
+        try {
+            new PartitionedResumeDataReader(null);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("source reader must be set."));
+        }
+        PartitionedResumeDataReader sut = new PartitionedResumeDataReader(createSourceReader());
+        assertThat("パーティションが割り当てられていない場合は-1", sut.getResumePoint(), is(-1));
+    }
+
+    private PartitionedDatabaseRecordReader createSourceReader() {
+        return new PartitionedDatabaseRecordReader(
+                "SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE STATUS = '0'", "ID")
+                .setPartitionCount(2);
+    }
+
+    /**
+     * 2スレッドでレコードを読み込み、パーティション番号順に読み込んだ順序のIDを返却する。
+     * 各スレッドは、読み込みが終わった時点でコミットする。
+     */
+    private List<List<Integer>> readByThreads(final PartitionedDatabaseRecordReader source, final String requestId)
+            throws Exception {
+        final PartitionedResumeDataReader sut = new PartitionedResumeDataReader(source);
+        final ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        // 各タスクが異なるスレッドで実行されるよう、全タスクの開始を待ち合わせる。
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final List<List<Integer>> result = Collections.synchronizedList(new ArrayList<List<Integer>>());
+        for (int i = 0; i < source.getPartitionCount(); i++) {
+            result.add(new ArrayList<Integer>());
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 2; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    barrier.await();
+                    ThreadContext.setRequestId(requestId);
+                    TransactionManagerConnection connection = factory.getConnection(
+                            TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+                    DbConnectionContext.setConnection(connection);
+                    try {
+                        SqlRow row;
+                        while ((row = sut.read(new ExecutionContext())) != null) {
+                            result.get(source.getPartitionNo()).add(row.getInteger("ID"));
+                        }
+                        assertThat(sut.read(new ExecutionContext()), is(nullValue()));
+                        connection.commit();
+                        return null;
+                    } finally {
+                        DbConnectionContext.removeConnection();
+                        connection.terminate();
+                    }
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        return result;
+    }
+
+    private TransactionManagerConnection openConnection(String requestId) {
+        ThreadContext.setRequestId(requestId);
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        TransactionManagerConnection connection = factory.getConnection(
+                TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(connection);
+        return connection;
+    }
+
+    private static void closeConnection(TransactionManagerConnection connection) {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+    }
+
+    /**
+     * トランザクションループ制御ハンドラが、コミットのタイミングではないと判定した状態の実行コンテキストを生成する。
+     */
+    private static ExecutionContext createBulkCommitContext() {
+        ExecutionContext ctx = new ExecutionContext();
+        ctx.setRequestScopedVar("nablarch_LoopHandler_is_about_to_commit", false);
+        return ctx;
+    }
+
+    private static List<Integer> ids(Integer... ids) {
+        List<Integer> list = new ArrayList<Integer>();
+        Collections.addAll(list, ids);
+        return list;
+    }
+}
@@ -0,0 +1,154 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.fw.DataReader;
+import nablarch.fw.ExecutionContext;
+
+import org.junit.Test;
+
+/**
+ * {@link PrefetchDataReader}のテスト。
+ */
+public class PrefetchDataReaderTest {
+
+    /**
+     * ラップしたリーダのデータが順に全て読み込めること。
+     */
+    @Test
+    public void testRead() throws Exception {
+        IntegerReader source = new IntegerReader(10);
+        PrefetchDataReader<Integer> sut = new PrefetchDataReader<Integer>(source, 3);
+
+        for (int i = 1; i <= 10; i++) {
+            assertThat(sut.hasNext(null), is(true));
+            assertThat(sut.read(null), is(i));
+        }
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.hasNext(null), is(false));
+        assertThat(sut.getPrefetchDepth(), is(3));
+        assertThat(sut.getQueueSize(), is(0));
+
+        sut.close(null);
+        assertThat("ラップしたリーダが閉じられていること", source.closed, is(true));
+    }
+
+    /**
+     * 複数スレッドから読み込んだ場合でも、全てのデータが1回ずつ読み込まれること。
+     */
+    @Test
+    public void testMultiThreadRead() throws Exception {
+        final PrefetchDataReader<Integer> sut = new PrefetchDataReader<Integer>(new IntegerReader(1000), 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<List<Integer>>() {
+                @Override
+                public List<Integer> call() throws Exception {
+                    List<Integer> result = new ArrayList<Integer>();
+                    while (sut.hasNext(null)) {
+                        Integer data = sut.read(null);
+                        if (data != null) {
+                            result.add(data);
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        List<Integer> actual = new ArrayList<Integer>();
+        for (Future<List<Integer>> future : futures) {
+            actual.addAll(future.get());
+        }
+        Collections.sort(actual);
+        assertThat(actual.size(), is(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(actual.get(i), is(i + 1));
+        }
+        sut.close(null);
+    }
+
+    /**
+     * 読み込み専用スレッドで発生した例外が再送出されること。
+     */
+    @Test
+    public void testReadFailure() throws Exception {
+        PrefetchDataReader<Integer> sut = new PrefetchDataReader<Integer>(new IntegerReader(2) {
+            @Override
+            public Integer read(ExecutionContext ctx) {
+                Integer data = super.read(ctx);
+                if (data == 2) {
+                    throw new IllegalStateException("read error.");
+                }
+                return data;
+            }
+        }, 5);
+
+        assertThat(sut.read(null), is(1));
+        try {
+            sut.read(null);
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("read error."));
+        }
+        sut.close(null);
+    }
+
+    /**
+     * 先行読み込みするデータ数の上限に1未満を指定した場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidPrefetchDepth() {
+        try {
+            new PrefetchDataReader<Integer>(new IntegerReader(1), 0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("prefetch depth must be greater than 0. prefetch depth = [0]"));
+        }
+    }
+
+    /**
+     * 1から指定された数までの整数を読み込むリーダ。
+     */
+    private static class IntegerReader implements DataReader<Integer> {
+
+        private final int max;
+
+        private int current = 0;
+
+        private boolean closed = false;
+
+        IntegerReader(int max) {
+            this.max = max;
+        }
+
+        @Override
+        public Integer read(ExecutionContext ctx) {
+            return current < max ? ++current : null;
+        }
+
+        @Override
+        public boolean hasNext(ExecutionContext ctx) {
+            return current < max;
+        }
+
+        @Override
+        public void close(ExecutionContext ctx) {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link PriorityTableQueueReader}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class PriorityTableQueueReaderTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    private TransactionManagerConnection updateConnection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = 1; i <= 3; i++) {
+            records.add(new BatchRequestTable(i, "urgent", "0"));
+        }
+        for (long i = 11; i <= 16; i++) {
+            records.add(new BatchRequestTable(i, "bulk", "0"));
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        updateConnection = factory.getConnection("update");
+        DbConnectionContext.setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+        updateConnection.terminate();
+    }
+
+    /**
+     * 重みの比率でレベルが選択され、レコードが存在しないレベルは待機時間の間読み込まれないこと。
+     */
+    @Test
+    public void testWeightedRead() throws Exception {
+        PriorityTableQueueReader sut = new PriorityTableQueueReader(500, "ID")
+                .addLevel("urgent", createRecordReader("urgent"), 2)
+                .addLevel("bulk", createRecordReader("bulk"), 1);
+
+        assertThat(sut.read(null).getString("DATA"), is("urgent"));
+        assertThat(sut.read(null).getString("DATA"), is("bulk"));
+        assertThat(sut.read(null).getString("DATA"), is("urgent"));
+        assertThat(sut.read(null).getString("DATA"), is("urgent"));
+        assertThat(sut.read(null).getString("DATA"), is("bulk"));
+
+        // urgentのレコードが存在しない場合は、bulkのレコードが読み込まれること
+        complete("urgent");
+        assertThat(sut.read(null).getInteger("ID"), is(13));
+        assertThat(sut.getEmptyPollCount("urgent"), is(1L));
+        assertThat(sut.read(null).getInteger("ID"), is(14));
+        assertThat("待機時間の間は再検索されないこと", sut.getEmptyPollCount("urgent"), is(1L));
+
+        assertThat(sut.getReadCount("urgent"), is(3L));
+        assertThat(sut.getReadCount("bulk"), is(4L));
+        assertThat(sut.getEmptyPollCount("bulk"), is(0L));
+        sut.close(null);
+        assertThat(sut.hasNext(null), is(false));
+    }
+
+    /**
+     * 待ち時間と未処理のレコード数がレベル毎に取得できること。
+     */
+    @Test
+    public void testStatistics() throws Exception {
+        DatabaseRecordReader urgent = new DatabaseRecordReader();
+        urgent.setStatement(connection.prepareStatement(
+                "SELECT B.*, TIMESTAMP '2000-01-01 00:00:00' AS ENQUEUED FROM BATCH_REQUEST_TABLE B"
+                        + " WHERE STATUS = '0' AND DATA = 'urgent' ORDER BY ID"));
+        PriorityTableQueueReader sut = new PriorityTableQueueReader(500, "ID")
+                .addLevel("urgent", urgent, 1)
+                .setEnqueuedTimeColumn("ENQUEUED")
+                .setQueueDepthSql("urgent", "SELECT COUNT(*) FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' AND DATA = 'urgent'");
+
+        assertThat(sut.getQueueDepth("urgent"), is(3L));
+        sut.read(null);
+        sut.read(null);
+        assertThat(sut.getMaxWaitTime("urgent") > 0, is(true));
+        assertThat(sut.getTotalWaitTime("urgent") > sut.getMaxWaitTime("urgent"), is(true));
+
+        PriorityTableQueueReader noStatistics = new PriorityTableQueueReader(500, "ID")
+                .addLevel("bulk", createRecordReader("bulk"), 1);
+        assertThat("SQLが設定されていない場合は-1", noStatistics.getQueueDepth("bulk"), is(-1L));
+        assertThat("登録日時カラムが設定されていない場合は0", noStatistics.getMaxWaitTime("bulk"), is(0L));
+    }
+
+    /**
+     * 不正な設定の場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidSetting() throws Exception {
+        PriorityTableQueueReader sut = new PriorityTableQueueReader(500, "ID");
+        try {
+            sut.read(null);
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("level was not added."));
+        }
+        try {
+            sut.addLevel("", createRecordReader("bulk"), 1);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("level name must be set."));
+        }
+        try {
+            sut.addLevel("bulk", null, 1);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("reader must be set."));
+        }
+        try {
+            sut.addLevel("bulk", createRecordReader("bulk"), 0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("weight must be greater than 0. weight = [0]"));
+        }
+        sut.addLevel("bulk", createRecordReader("bulk"), 1);
+        try {
+            sut.addLevel("bulk", createRecordReader("bulk"), 1);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("duplicated level name. level name = [bulk]"));
+        }
+        try {
+            sut.getReadCount("urgent");
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("level was not found. level name = [urgent]"));
+        }
+    }
+
+    private DatabaseRecordReader createRecordReader(String data) {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' AND DATA = '" + data + "' ORDER BY ID"));
+        return reader;
+    }
+
+    private void complete(String data) {
+        SqlPStatement statement = updateConnection.prepareStatement(
+                "UPDATE BATCH_REQUEST_TABLE SET STATUS = '1' WHERE DATA = ?");
+        statement.setString(1, data);
+        statement.executeUpdate();
+        updateConnection.commit();
+    }
+}
@@ -0,0 +1,43 @@
+package nablarch.fw.reader;
+
+import java.sql.Timestamp;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * QUEUE_CLAIM_TABLE
+ */
+@Entity
+@Table(name = "QUEUE_CLAIM_TABLE")
+public class QueueClaimTable {
+
+    public QueueClaimTable() {
+    }
+
+    public QueueClaimTable(Long id, String status, String owner) {
+        this(id, status, owner, null);
+    }
+
+    public QueueClaimTable(Long id, String status, String owner, Timestamp lease) {
+        this.id = id;
+        this.status = status;
+        this.owner = owner;
+        this.lease = lease;
+    }
+
+    @Id
+    @Column(name = "ID", length = 10, nullable = false)
+    public Long id;
+
+    @Column(name = "STATUS", length = 1, nullable = false)
+    public String status;
+
+    @Column(name = "OWNER", length = 100)
+    public String owner;
+
+    @Column(name = "LEASE")
+    public Timestamp lease;
+}
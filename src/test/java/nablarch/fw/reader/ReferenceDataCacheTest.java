@@ -0,0 +1,190 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link ReferenceDataCache}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class ReferenceDataCacheTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        List<BatchRequestTable> records = new ArrayList<BatchRequestTable>();
+        for (long i = 1; i <= 5; i++) {
+            records.add(new BatchRequestTable(i, "data_" + i, "0"));
+        }
+        VariousDbTestHelper.setUpTable(records.toArray());
+
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        DbConnectionContext.setConnection(connection);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DbConnectionContext.removeConnection();
+        connection.terminate();
+    }
+
+    /**
+     * 一括読み込みの場合、初回参照時に全レコードが読み込まれ、以降はキャッシュから取得されること。
+     */
+    @Test
+    public void testPreload() throws Exception {
+        ReferenceDataCache sut = new ReferenceDataCache()
+                .setSql("SELECT ID, DATA FROM BATCH_REQUEST_TABLE")
+                .setKeyColumnName("ID")
+                .setPreload(true);
+        sut.initialize();
+
+        assertThat(sut.get(1L).getString("data"), is("data_1"));
+        assertThat("キーは文字列として比較されること", sut.get("2").getString("data"), is("data_2"));
+        assertThat(sut.get(99), is(nullValue()));
+        assertThat(sut.get(null), is(nullValue()));
+        assertThat(sut.getSize(), is(5));
+        assertThat(sut.getLoadCount(), is(1L));
+        assertThat("存在しないキーの参照はミスとして数えること", sut.getMissCount(), is(2L));
+        assertThat(sut.getHitCount(), is(1L));
+
+        // 破棄した場合は読み込み直されること
+        VariousDbTestHelper.insert(new BatchRequestTable(6L, "data_6", "0"));
+        sut.clear();
+        assertThat(sut.get(6).getString("data"), is("data_6"));
+        assertThat(sut.getLoadCount(), is(2L));
+    }
+
+    /**
+     * 一括読み込みの場合、有効期間を過ぎると読み込み直されること。
+     */
+    @Test
+    public void testPreloadExpired() throws Exception {
+        ReferenceDataCache sut = new ReferenceDataCache()
+                .setSql("SELECT ID, DATA FROM BATCH_REQUEST_TABLE")
+                .setKeyColumnName("ID")
+                .setPreload(true)
+                .setTimeToLive(50);
+        sut.initialize();
+
+        assertThat(sut.get(1).getString("data"), is("data_1"));
+        VariousDbTestHelper.setUpTable(new BatchRequestTable(1L, "changed", "0"));
+        assertThat("有効期間内はキャッシュから取得されること", sut.get(1).getString("data"), is("data_1"));
+
+        Thread.sleep(100);
+        assertThat(sut.get(1).getString("data"), is("changed"));
+        assertThat(sut.getLoadCount(), is(2L));
+    }
+
+    /**
+     * 都度読み込みの場合、キャッシュに存在しないキーのみ読み込まれ、最大数を超えると最も長く参照されていないキーから破棄されること。
+     */
+    @Test
+    public void testLazyLoad() throws Exception {
+        ReferenceDataCache sut = new ReferenceDataCache()
+                .setSql("SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE ID = :key")
+                .setKeyColumnName("ID")
+                .setMaxSize(2);
+        sut.initialize();
+
+        assertThat(sut.get(1).getString("data"), is("data_1"));
+        assertThat(sut.get(2).getString("data"), is("data_2"));
+        assertThat(sut.get(1).getString("data"), is("data_1"));
+        assertThat(sut.getLoadCount(), is(2L));
+        assertThat(sut.getHitCount(), is(1L));
+
+        // 最も長く参照されていないキー(2)が破棄されること
+        assertThat(sut.get(3).getString("data"), is("data_3"));
+        assertThat(sut.getSize(), is(2));
+        assertThat(sut.getEvictionCount(), is(1L));
+        sut.get(1);
+        assertThat(sut.getLoadCount(), is(3L));
+        sut.get(2);
+        assertThat(sut.getLoadCount(), is(4L));
+
+        // 存在しないことがキャッシュされること
+        assertThat(sut.get(99), is(nullValue()));
+        assertThat(sut.get(99), is(nullValue()));
+        assertThat(sut.getLoadCount(), is(5L));
+        assertThat(sut.getMissCount(), is(5L));
+    }
+
+    /**
+     * 都度読み込みの場合、有効期間を過ぎたキーは読み込み直されること。
+     */
+    @Test
+    public void testLazyLoadExpired() throws Exception {
+        ReferenceDataCache sut = new ReferenceDataCache()
+                .setSql("SELECT ID, DATA FROM BATCH_REQUEST_TABLE WHERE ID = :key")
+                .setKeyColumnName("ID")
+                .setTimeToLive(50);
+        sut.initialize();
+
+        assertThat(sut.get(1).getString("data"), is("data_1"));
+        Thread.sleep(100);
+        assertThat(sut.get(1).getString("data"), is("data_1"));
+        assertThat(sut.getLoadCount(), is(2L));
+        assertThat(sut.getEvictionCount(), is(1L));
+    }
+
+    /**
+     * 必須プロパティが設定されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidProperty() {
+        try {
+            new ReferenceDataCache().setKeyColumnName("ID").initialize();
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[sql] property must be set. class=[nablarch.fw.reader.ReferenceDataCache]."));
+        }
+        try {
+            new ReferenceDataCache().setSql("SELECT * FROM BATCH_REQUEST_TABLE").initialize();
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[keyColumnName] property must be set. class=[nablarch.fw.reader.ReferenceDataCache]."));
+        }
+        try {
+            new ReferenceDataCache().setSql("SELECT * FROM BATCH_REQUEST_TABLE").setKeyColumnName("ID").setMaxSize(0).initialize();
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[maxSize] property must be greater than 0. maxSize=[0], class=[nablarch.fw.reader.ReferenceDataCache]."));
+        }
+        try {
+            new ReferenceDataCache().get(1);
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("ReferenceDataCache was not initialized."));
+        }
+    }
+}
@@ -699,6 +699,83 @@ public class ResumeDataReaderTest {
     }
 
 
+    /**
+     * 固定長ファイルの場合に、正常に処理できたポイントまで読み込み位置を移動してレジュームが行われることの確認テスト。
+     */
+    @Test
+    public void testReadFixedLength() throws Exception {
+        File fixedFormatFile = new File(tempFile, "fixedFormat.fmt");
+        TestSupport.createFile(fixedFormatFile, Charset.forName("UTF-8"),
+                "file-type:    \"Fixed\"",
+                "text-encoding:     \"ms932\"",
+                "record-length: 10",
+                "record-separator:  \"\\r\\n\"",
+                "",
+                "[DataRecord]",
+                "1   userId           X(4)",
+                "5   userCode         X(3)",
+                "8   price            X(3)"
+        );
+        TestSupport.createFile(new File(tempFile, "record.dat"), "\r\n", Charset.forName("UTF-8"),
+                "0001A01010",
+                "0001A01020",
+                "0002A02030");
+
+        String requestId = "RW000001";
+        ThreadContext.setRequestId(requestId);
+        VariousDbTestHelper.setUpTable(new ResumeBatchRequest(requestId, 2L));
+
+        ExecutionContext ctx = new ExecutionContext();
+
+        // 3レコード目から読み込まれること
+        FileDataReader fileReader = new FileDataReader().setDataFile("record")
+                                                        .setLayoutFile("fixedFormat");
+        ResumeDataReader<DataRecord> reader = new ResumeDataReader<DataRecord>().setSourceReader(fileReader);
+        DataRecord record = reader.read(ctx);
+        assertEquals("0002", record.get("userId"));
+        assertEquals("A02", record.get("userCode"));
+        assertEquals("030", record.get("price"));
+        assertEquals(3, record.getRecordNumber());
+        assertEquals(3, ctx.getLastRecordNumber());
+        assertFalse(reader.hasNext(ctx));
+        reader.close(ctx);
+
+        transactionManager.commitTransaction();
+        ResumeBatchRequest result = VariousDbTestHelper.findById(ResumeBatchRequest.class, requestId);
+        assertThat(result.resumePoint, is(3L));
+
+        // 固定長ファイルの場合は読み込み位置が移動し、可変長ファイルの場合は移動しないこと
+        fileReader = new FileDataReader().setDataFile("record")
+                                         .setLayoutFile("fixedFormat");
+        assertTrue(fileReader.seek(ctx, 1));
+        record = fileReader.read(ctx);
+        assertEquals("020", record.get("price"));
+        assertEquals(2, record.getRecordNumber());
+        assertEquals(2, ctx.getLastRecordNumber());
+        assertFalse("読み込み後は移動しない", fileReader.seek(ctx, 0));
+        record = fileReader.read(ctx);
+        assertEquals("030", record.get("price"));
+        assertEquals("読み飛ばしたレコード数が二重に加算されないこと", 3, record.getRecordNumber());
+        assertEquals(3, ctx.getLastRecordNumber());
+        assertFalse(fileReader.hasNext(ctx));
+        fileReader.close(ctx);
+        assertTrue("閉じた後はデータファイルを削除できること", new File(tempFile, "record.dat").delete());
+        TestSupport.createFile(new File(tempFile, "record.dat"), "\r\n", Charset.forName("UTF-8"),
+                "0001A01010",
+                "0001A01020",
+                "0002A02030");
+
+        fileReader = new FileDataReader().setDataFile("record")
+                                         .setLayoutFile("fixedFormat");
+        assertFalse("ファイルサイズを超える場合は移動しない", fileReader.seek(ctx, 4));
+        fileReader.close(ctx);
+
+        fileReader = new FileDataReader().setDataFile("record")
+                                         .setLayoutFile("format");
+        assertFalse(fileReader.seek(ctx, 1));
+        fileReader.close(ctx);
+    }
+
     /**
      * バリデーション機能（キャッシュ無効）を使用する場合に、正しくレジュームが行われることの確認テスト。
      */
@@ -1,11 +1,13 @@
 package nablarch.fw.reader;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.nio.charset.Charset;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import nablarch.core.ThreadContext;
 import nablarch.core.db.transaction.SimpleDbTransactionManager;
@@ -239,6 +241,84 @@ public class ResumePointManagerTest {
     }
 
 
+    /**
+     * パーティション番号のカラム名が設定されていない場合に、パーティション毎のポイントを参照・更新するとエラーとなるテスト。
+     */
+    @Test
+    public void testNotSetPartitionColumnName() throws Exception {
+        ResumePointManager target = new ResumePointManager();
+        target.setRequestIdColumnName("REQUEST_ID");
+        target.setResumable(true);
+        target.setTableName("RESUME_BATCH_REQUEST");
+        target.setResumePointColumnName("RESUME_POINT");
+        target.initialize();
+        target.setDbTransactionName("resumeTransaction");
+
+        try {
+            target.loadResumePoint("RW000001", 0);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("[partitionColumnName] property must be set. class=[nablarch.fw.reader.ResumePointManager].",
+                    e.getMessage());
+        }
+        try {
+            target.saveResumePoint("RW000001", 0, 1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("[partitionColumnName] property must be set. class=[nablarch.fw.reader.ResumePointManager].",
+                    e.getMessage());
+        }
+
+        // レジューム機能が無効の場合は、参照・更新を行わない
+        target.setResumable(false);
+        assertEquals(0, target.loadResumePoint("RW000001", 0));
+        target.saveResumePoint("RW000001", 0, 1);
+    }
+
+    /**
+     * キー値を保存するカラム名が設定されていない場合に、キー値を参照・更新するとエラーとなるテスト。
+     */
+    @Test
+    public void testNotSetResumeKeyColumnNames() throws Exception {
+        ResumePointManager target = new ResumePointManager();
+        target.setRequestIdColumnName("REQUEST_ID");
+        target.setResumable(true);
+        target.setTableName("RESUME_BATCH_REQUEST");
+        target.setResumePointColumnName("RESUME_POINT");
+        target.initialize();
+        target.setDbTransactionName("resumeTransaction");
+
+        try {
+            target.loadResumeKey("RW000001");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("[resumeKeyColumnNames] property must be set. class=[nablarch.fw.reader.ResumePointManager].",
+                    e.getMessage());
+        }
+        try {
+            target.saveResumeKey("RW000001", new Object[] {1});
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("[resumeKeyColumnNames] property must be set. class=[nablarch.fw.reader.ResumePointManager].",
+                    e.getMessage());
+        }
+
+        target.setResumeKeyColumnNames(Arrays.asList("LAST_KEY"));
+        target.initialize();
+        try {
+            target.saveResumeKey("RW000001", new Object[] {1, 2});
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("resume key must have the same number of values as resume key columns. "
+                    + "resume key columns=[LAST_KEY], resume key=[1, 2].", e.getMessage());
+        }
+
+        // レジューム機能が無効の場合は、参照・更新を行わない
+        target.setResumable(false);
+        assertNull(target.loadResumeKey("RW000001"));
+        target.saveResumeKey("RW000001", new Object[] {1});
+    }
+
     /**
      * マルチスレッドで実行した場合に、例外がスローされることを確認するテスト。
      */
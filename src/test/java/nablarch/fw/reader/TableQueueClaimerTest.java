@@ -0,0 +1,459 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.transaction.TransactionFactory;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link TableQueueClaimer}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class TableQueueClaimerTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connectionA;
+
+    private TransactionManagerConnection connectionB;
+
+    private TransactionManagerConnection updateConnection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(QueueClaimTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new QueueClaimTable(1L, "0", null),
+                new QueueClaimTable(2L, "0", null),
+                new QueueClaimTable(3L, "0", null),
+                new QueueClaimTable(4L, "0", "otherNode"),
+                new QueueClaimTable(5L, "0", "deadNode", new Timestamp(System.currentTimeMillis() - 60000)));
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connectionA = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        connectionB = factory.getConnection("nodeB");
+        updateConnection = factory.getConnection("update");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionA.terminate();
+        connectionB.terminate();
+        updateConnection.terminate();
+    }
+
+    /**
+     * 複数のプロセスで同一のテーブルを処理した場合でも、同じレコードが重複して処理されないこと。
+     */
+    @Test
+    public void testClaim() throws Exception {
+        TableQueueClaimer claimerA = createClaimer("nodeA");
+        TableQueueClaimer claimerB = createClaimer("nodeB");
+        DatabaseTableQueueReader nodeA = createReader(connectionA, claimerA);
+        DatabaseTableQueueReader nodeB = createReader(connectionB, claimerB);
+
+        SqlRow row = nodeA.read(null);
+        assertThat(row.getInteger("ID"), is(1));
+        assertThat(findOwner(1), is("nodeA"));
+
+        row = nodeB.read(null);
+        assertThat("nodeAが確保したレコードは読み飛ばされること", row.getInteger("ID"), is(2));
+        assertThat(findOwner(2), is("nodeB"));
+
+        // nodeAの処理完了
+        complete(1);
+        row = nodeA.read(null);
+        assertThat("nodeBが確保したレコードは読み飛ばされること", row.getInteger("ID"), is(3));
+        assertThat("処理を終えたレコードは確保が解除されること", findOwner(1), is(nullValue()));
+        assertThat(claimerA.getClaimCount(), is(2L));
+        assertThat(claimerA.getConflictCount(), is(1L));
+        assertThat(claimerA.getReleaseCount(), is(1L));
+
+        // 閉じた場合は、処理中のレコードの確保が解除されること
+        nodeA.close(null);
+        nodeB.close(null);
+        assertThat(findOwner(2), is(nullValue()));
+        assertThat(findOwner(3), is(nullValue()));
+        assertThat("他のプロセスが確保したレコードは解除されないこと", findOwner(4), is("otherNode"));
+    }
+
+    /**
+     * 他のプロセスが処理を終えて確保を解除したレコードは、古い検索結果をもとに確保できないこと。
+     */
+    @Test
+    public void testClaimCompletedRecord() throws Exception {
+        TableQueueClaimer claimerA = createClaimer("nodeA");
+        TableQueueClaimer claimerB = createClaimer("nodeB");
+        DatabaseTableQueueReader nodeA = createReader(connectionA, claimerA);
+        createReader(connectionB, claimerB);
+
+        // nodeBは、ID=1が未処理かつ未確保の時点の検索結果を保持しているものとする
+        assertThat(nodeA.read(null).getInteger("ID"), is(1));
+        complete(1);
+        assertThat(nodeA.read(null).getInteger("ID"), is(2));
+        assertThat("処理を終えたレコードは確保が解除されること", findOwner(1), is(nullValue()));
+
+        assertThat("処理済みのレコードは確保できないこと", claimerB.claim(new Object[] {1L}), is(false));
+        assertThat(findOwner(1), is(nullValue()));
+        assertThat(claimerB.getConflictCount(), is(1L));
+        assertThat("未処理のレコードは確保できること", claimerB.claim(new Object[] {3L}), is(true));
+        assertThat(findOwner(3), is("nodeB"));
+
+        nodeA.close(null);
+    }
+
+    /**
+     * レコードの確保はリーダのロックを解放した後に行われ、確保中も他のスレッドがレコードを読み込めること。
+     * 確保中のレコードは、他のスレッドには返却されないこと。
+     */
+    @Test
+    public void testClaimOutsideLock() throws Exception {
+        final CountDownLatch claiming = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        TableQueueClaimer claimer = setUpClaimer(new TableQueueClaimer() {
+            @Override
+            boolean claim(Object[] keyValues) {
+                if (((Number) keyValues[0]).intValue() == 1) {
+                    claiming.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.claim(keyValues);
+            }
+        }, "nodeA");
+        final DatabaseTableQueueReader sut = createReader(connectionA, claimer);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<SqlRow> future = executor.submit(new Callable<SqlRow>() {
+                @Override
+                public SqlRow call() throws Exception {
+                    return sut.read(null);
+                }
+            });
+            claiming.await();
+            assertThat("確保中のレコードは読み飛ばし、ロックを待たずに次のレコードが読み込まれること",
+                    sut.read(null).getInteger("ID"), is(2));
+            assertThat(findOwner(2), is("nodeA"));
+
+            resume.countDown();
+            assertThat(future.get().getInteger("ID"), is(1));
+            assertThat(findOwner(1), is("nodeA"));
+        } finally {
+            resume.countDown();
+            executor.shutdownNow();
+        }
+
+        sut.close(null);
+        assertThat(findOwner(1), is(nullValue()));
+        assertThat(findOwner(2), is(nullValue()));
+    }
+
+    /**
+     * まとめて確保した場合、確保したレコードがバッファから順に返却されること。
+     */
+    @Test
+    public void testBulkClaim() throws Exception {
+        TableQueueClaimer claimerA = createClaimer("nodeA").setClaimSize(2);
+        TableQueueClaimer claimerB = createClaimer("nodeB").setClaimSize(2);
+        DatabaseTableQueueReader nodeA = createReader(connectionA, claimerA);
+        DatabaseTableQueueReader nodeB = createReader(connectionB, claimerB);
+
+        SqlRow row = nodeA.read(null);
+        assertThat(row.getInteger("ID"), is(1));
+        assertThat("まとめて確保されること", findOwner(1), is("nodeA"));
+        assertThat("まとめて確保されること", findOwner(2), is("nodeA"));
+        assertThat(claimerA.getClaimCount(), is(2L));
+
+        row = nodeB.read(null);
+        assertThat("nodeAが確保したレコードは読み込まれないこと", row.getInteger("ID"), is(3));
+        assertThat(findOwner(3), is("nodeB"));
+
+        row = nodeA.read(null);
+        assertThat("バッファから返却されること", row.getInteger("ID"), is(2));
+        assertThat("バッファから返却する場合は確保を行わないこと", claimerA.getClaimCount(), is(2L));
+        assertThat(claimerA.getConflictCount(), is(0L));
+        assertThat("処理を終えたレコードは確保が解除されること", findOwner(1), is(nullValue()));
+
+        assertThat("他のプロセスが確保したレコードしか残っていない場合はnull", nodeA.read(null), is(nullValue()));
+        assertThat(claimerA.getConflictCount(), is(1L));
+        assertThat(findOwner(2), is(nullValue()));
+
+        nodeA.close(null);
+        nodeB.close(null);
+        assertThat(findOwner(3), is(nullValue()));
+        assertThat(findOwner(4), is("otherNode"));
+    }
+
+    /**
+     * まとめて確保する場合も、他のプロセスが処理を終えて確保を解除したレコードは、古い検索結果をもとに確保できないこと。
+     */
+    @Test
+    public void testBulkClaimCompletedRecord() throws Exception {
+        TableQueueClaimer claimerA = createClaimer("nodeA");
+        TableQueueClaimer claimerB = createClaimer("nodeB").setClaimSize(3);
+        DatabaseTableQueueReader nodeA = createReader(connectionA, claimerA);
+        createReader(connectionB, claimerB);
+
+        assertThat(nodeA.read(null).getInteger("ID"), is(1));
+        complete(1);
+        assertThat(nodeA.read(null).getInteger("ID"), is(2));
+        assertThat(findOwner(1), is(nullValue()));
+
+        boolean[] claimed = claimerB.claim(Arrays.asList(new Object[] {1L}, new Object[] {2L}, new Object[] {3L}));
+        assertThat("処理済みのレコードは確保できないこと", claimed[0], is(false));
+        assertThat("他のプロセスが確保したレコードは確保できないこと", claimed[1], is(false));
+        assertThat("未処理のレコードは確保できること", claimed[2], is(true));
+        assertThat(findOwner(1), is(nullValue()));
+        assertThat(findOwner(2), is("nodeA"));
+        assertThat(findOwner(3), is("nodeB"));
+        assertThat(claimerB.getClaimCount(), is(1L));
+        assertThat(claimerB.getConflictCount(), is(2L));
+
+        nodeA.close(null);
+    }
+
+    /**
+     * 閉じた場合、バッファに残った未処理のレコードの確保が解除されること。
+     */
+    @Test
+    public void testBulkClaimReleasedOnClose() throws Exception {
+        TableQueueClaimer claimer = createClaimer("nodeA").setClaimSize(5).setLowWaterMark(1);
+        DatabaseTableQueueReader sut = createReader(connectionA, claimer);
+
+        SqlRow row = sut.read(null);
+        assertThat(row.getInteger("ID"), is(1));
+        assertThat(claimer.getClaimCount(), is(3L));
+        assertThat(claimer.getConflictCount(), is(0L));
+        assertThat(findOwner(2), is("nodeA"));
+        assertThat(findOwner(3), is("nodeA"));
+
+        sut.close(null);
+        assertThat("処理中および未処理のレコードの確保が解除されること", claimer.getReleaseCount(), is(3L));
+        assertThat(findOwner(1), is(nullValue()));
+        assertThat(findOwner(2), is(nullValue()));
+        assertThat(findOwner(3), is(nullValue()));
+        assertThat(findOwner(4), is("otherNode"));
+    }
+
+    /**
+     * リース期限を設けた場合、処理中のレコードのリース期限が延長され、
+     * リース期限を過ぎたレコードは他のプロセスが確保できること。
+     */
+    @Test
+    public void testLease() throws Exception {
+        TableQueueClaimer claimer = createClaimer("nodeA").setLeaseColumnName("LEASE").setLeaseTime(300);
+        DatabaseTableQueueReader sut = createLeaseReader(connectionA, claimer);
+
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        assertThat("リース期限が設定されること", find(1).lease.getTime() > System.currentTimeMillis(), is(true));
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        assertThat(sut.read(null).getInteger("ID"), is(3));
+        assertThat("リース期限を過ぎたレコードは確保できること", sut.read(null).getInteger("ID"), is(5));
+        assertThat(findOwner(5), is("nodeA"));
+        assertThat("処理を終えたレコードはリース期限も解除されること", find(3).lease, is(nullValue()));
+
+        Thread.sleep(600);
+        assertThat("処理中のレコードのリース期限が延長されること", claimer.getRenewCount() > 0, is(true));
+        assertThat(find(5).lease.getTime() > System.currentTimeMillis(), is(true));
+        assertThat(claimer.getLostLeaseCount(), is(0L));
+
+        sut.close(null);
+        assertThat(findOwner(5), is(nullValue()));
+        assertThat(find(5).lease, is(nullValue()));
+
+        long renewCount = claimer.getRenewCount();
+        Thread.sleep(300);
+        assertThat("閉じた後はリース期限が延長されないこと", claimer.getRenewCount(), is(renewCount));
+        assertThat("確保を解除したレコードのリース期限切れを検知しないこと", claimer.getLostLeaseCount(), is(0L));
+    }
+
+    /**
+     * リース期限を過ぎたレコードであっても、処理済みのレコードは確保できないこと。
+     */
+    @Test
+    public void testLeaseClaimCompletedRecord() throws Exception {
+        TableQueueClaimer claimer = createClaimer("nodeA").setLeaseColumnName("LEASE").setLeaseTime(300);
+        DatabaseTableQueueReader sut = createLeaseReader(connectionA, claimer);
+
+        // 古い検索結果をもとに、リース期限を過ぎたID=5を確保しようとしたものとする
+        complete(5);
+        assertThat("処理済みのレコードは確保できないこと", claimer.claim(new Object[] {5L}), is(false));
+        assertThat(findOwner(5), is("deadNode"));
+        assertThat("未処理のレコードは確保できること", claimer.claim(new Object[] {1L}), is(true));
+        assertThat(findOwner(1), is("nodeA"));
+
+        sut.close(null);
+    }
+
+    /**
+     * リース期限を延長する最大の期間を経過したレコードは、処理中であってもリース期限が延長されず、
+     * 他のプロセスが確保できること。
+     */
+    @Test
+    public void testMaxLeaseTime() throws Exception {
+        TableQueueClaimer claimerA = createClaimer("nodeA").setLeaseColumnName("LEASE").setLeaseTime(300)
+                .setMaxLeaseTime(50);
+        TableQueueClaimer claimerB = createClaimer("nodeB").setLeaseColumnName("LEASE").setLeaseTime(300);
+        DatabaseTableQueueReader nodeA = createLeaseReader(connectionA, claimerA);
+        DatabaseTableQueueReader nodeB = createLeaseReader(connectionB, claimerB);
+
+        assertThat(nodeA.read(null).getInteger("ID"), is(1));
+        Thread.sleep(600);
+        assertThat(claimerA.getRenewCount(), is(0L));
+
+        assertThat("リース期限が切れたレコードは他のプロセスが確保できること", nodeB.read(null).getInteger("ID"), is(1));
+        assertThat(findOwner(1), is("nodeB"));
+
+        nodeA.close(null);
+        assertThat("他のプロセスに確保されたレコードは解除されないこと", findOwner(1), is("nodeB"));
+        nodeB.close(null);
+        assertThat(findOwner(1), is(nullValue()));
+    }
+
+    /**
+     * 必須プロパティが設定されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidProperty() {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(reader, 0, "ID");
+        try {
+            sut.setClaimer(new TableQueueClaimer().setTableName("QUEUE_CLAIM_TABLE").setOwnerColumnName("OWNER"));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[transactionManager] property must be set. class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            sut.setClaimer(createClaimer("node").setTableName(null));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[tableName] property must be set. class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            sut.setClaimer(createClaimer("node").setOwnerColumnName(""));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[ownerColumnName] property must be set. class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            sut.setClaimer(createClaimer("node").setPendingCondition(null));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[pendingCondition] property must be set. class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            createClaimer("node").setClaimSize(0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("[claimSize] property must be greater than 0. claimSize=[0], class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            createClaimer("node").setLowWaterMark(-1);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("[lowWaterMark] property must be 0 or greater. lowWaterMark=[-1], class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            sut.setClaimer(createClaimer("node").setClaimSize(10).setLowWaterMark(10));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[lowWaterMark] property must be less than claimSize. lowWaterMark=[10], claimSize=[10], class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        try {
+            sut.setClaimer(createClaimer("node").setLeaseColumnName("LEASE"));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[leaseTime] property must be greater than 0. leaseTime=[0], class=[nablarch.fw.reader.TableQueueClaimer]."));
+        }
+        assertThat("所有者IDのデフォルトはJVMの名前", new TableQueueClaimer().getOwnerId().length() > 0, is(true));
+    }
+
+    private TableQueueClaimer createClaimer(String ownerId) {
+        return setUpClaimer(new TableQueueClaimer(), ownerId);
+    }
+
+    private TableQueueClaimer setUpClaimer(TableQueueClaimer claimer, String ownerId) {
+        ConnectionFactory connectionFactory = repositoryResource.getComponent("connectionFactory");
+        TransactionFactory transactionFactory = repositoryResource.getComponent("jdbcTransactionFactory");
+        SimpleDbTransactionManager manager = new SimpleDbTransactionManager();
+        manager.setDbTransactionName("claim");
+        manager.setConnectionFactory(connectionFactory);
+        manager.setTransactionFactory(transactionFactory);
+        return claimer
+                .setTransactionManager(manager)
+                .setTableName("QUEUE_CLAIM_TABLE")
+                .setOwnerColumnName("OWNER")
+                .setPendingCondition("STATUS = '0'")
+                .setOwnerId(ownerId);
+    }
+
+    private DatabaseTableQueueReader createReader(TransactionManagerConnection connection, TableQueueClaimer claimer) {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM QUEUE_CLAIM_TABLE WHERE STATUS = '0' AND OWNER IS NULL ORDER BY ID"));
+        return new DatabaseTableQueueReader(reader, 0, "ID").setClaimer(claimer);
+    }
+
+    private DatabaseTableQueueReader createLeaseReader(TransactionManagerConnection connection, TableQueueClaimer claimer) {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM QUEUE_CLAIM_TABLE WHERE STATUS = '0' AND (OWNER IS NULL OR LEASE < CURRENT_TIMESTAMP) ORDER BY ID"));
+        return new DatabaseTableQueueReader(reader, 0, "ID").setClaimer(claimer);
+    }
+
+    private void complete(int id) {
+        SqlPStatement statement = updateConnection.prepareStatement("UPDATE QUEUE_CLAIM_TABLE SET STATUS = '1' WHERE ID = ?");
+        statement.setInt(1, id);
+        statement.executeUpdate();
+        updateConnection.commit();
+    }
+
+    private String findOwner(int id) {
+        return find(id).owner;
+    }
+
+    private QueueClaimTable find(int id) {
+        List<QueueClaimTable> rows = VariousDbTestHelper.findAll(QueueClaimTable.class, "id");
+        for (QueueClaimTable row : rows) {
+            if (row.id == id) {
+                return row;
+            }
+        }
+        throw new IllegalArgumentException("id = " + id);
+    }
+}
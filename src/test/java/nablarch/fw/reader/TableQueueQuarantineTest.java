@@ -0,0 +1,210 @@
+package nablarch.fw.reader;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionContext;
+import nablarch.core.transaction.TransactionFactory;
+import nablarch.test.support.SystemRepositoryResource;
+import nablarch.test.support.db.helper.DatabaseTestRunner;
+import nablarch.test.support.db.helper.VariousDbTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * {@link TableQueueQuarantine}のテスト。
+ */
+@RunWith(DatabaseTestRunner.class)
+public class TableQueueQuarantineTest {
+
+    @Rule
+    public SystemRepositoryResource repositoryResource = new SystemRepositoryResource("db-default.xml");
+
+    private TransactionManagerConnection connection;
+
+    private TransactionManagerConnection updateConnection;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        VariousDbTestHelper.createTable(BatchRequestTable.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        VariousDbTestHelper.setUpTable(
+                new BatchRequestTable(1L, "poison", "0"),
+                new BatchRequestTable(2L, "data", "0"));
+        ConnectionFactory factory = repositoryResource.getComponent("connectionFactory");
+        connection = factory.getConnection(TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY);
+        updateConnection = factory.getConnection("update");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connection.terminate();
+        updateConnection.terminate();
+    }
+
+    /**
+     * 失敗回数が上限に達したレコードは、隔離ステータスに更新され読み込まれないこと。
+     */
+    @Test
+    public void testQuarantine() throws Exception {
+        TableQueueQuarantine quarantine = createQuarantine().setMaxFailureCount(2);
+        DatabaseTableQueueReader sut = createReader(quarantine);
+
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        complete(2);
+
+        assertThat("1回目の失敗では再度読み込まれること", sut.read(null).getInteger("ID"), is(1));
+        assertThat("2回目の失敗で隔離されること", sut.read(null), is(nullValue()));
+        assertThat(findStatus(1), is("9"));
+        assertThat(quarantine.getQuarantineCount(), is(1L));
+
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(quarantine.getQuarantineCount(), is(1L));
+        sut.close(null);
+    }
+
+    /**
+     * 隔離ステータスが反映されるまでの間も、隔離したレコードが読み込まれないこと。
+     */
+    @Test
+    public void testQuarantinedRecordSkipped() throws Exception {
+        TableQueueQuarantine quarantine = createQuarantine().setMaxFailureCount(1).setQuarantineStatus("0");
+        DatabaseTableQueueReader sut = createReader(quarantine);
+
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        complete(2);
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(sut.read(null), is(nullValue()));
+        assertThat(findStatus(1), is("0"));
+        assertThat(quarantine.getQuarantineCount(), is(1L));
+        sut.close(null);
+    }
+
+    /**
+     * 隔離ステータスへの更新に失敗した場合、例外が送出され、次に読み込んだ時点で再度隔離されること。
+     */
+    @Test
+    public void testQuarantineFailure() throws Exception {
+        final int[] quarantineCalls = {0};
+        TableQueueQuarantine quarantine = setUpQuarantine(new TableQueueQuarantine() {
+            @Override
+            void quarantine(Object[] keyValues) {
+                if (quarantineCalls[0]++ == 0) {
+                    throw new IllegalStateException("quarantine failed.");
+                }
+                super.quarantine(keyValues);
+            }
+        }).setMaxFailureCount(1);
+        DatabaseTableQueueReader sut = createReader(quarantine);
+
+        assertThat(sut.read(null).getInteger("ID"), is(1));
+        assertThat(sut.read(null).getInteger("ID"), is(2));
+        complete(2);
+        try {
+            sut.read(null);
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("quarantine failed."));
+        }
+        assertThat(findStatus(1), is("0"));
+        assertThat(quarantine.getQuarantineCount(), is(0L));
+
+        assertThat("隔離に失敗したレコードは、次に読み込んだ時点で再度隔離されること", sut.read(null), is(nullValue()));
+        assertThat(findStatus(1), is("9"));
+        assertThat(quarantine.getQuarantineCount(), is(1L));
+        sut.close(null);
+    }
+
+    /**
+     * 必須プロパティが設定されていない場合、例外が発生すること。
+     */
+    @Test
+    public void testInvalidProperty() {
+        DatabaseTableQueueReader sut = new DatabaseTableQueueReader(new DatabaseRecordReader(), 0, "ID");
+        try {
+            sut.setQuarantine(new TableQueueQuarantine().setTableName("BATCH_REQUEST_TABLE"));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[transactionManager] property must be set. class=[nablarch.fw.reader.TableQueueQuarantine]."));
+        }
+        try {
+            sut.setQuarantine(createQuarantine().setStatusColumnName(null));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[statusColumnName] property must be set. class=[nablarch.fw.reader.TableQueueQuarantine]."));
+        }
+        try {
+            sut.setQuarantine(createQuarantine().setQuarantineStatus(""));
+            fail("ここはとおらない");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("[quarantineStatus] property must be set. class=[nablarch.fw.reader.TableQueueQuarantine]."));
+        }
+        try {
+            createQuarantine().setMaxFailureCount(0);
+            fail("ここはとおらない");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("[maxFailureCount] property must be greater than 0. maxFailureCount=[0], class=[nablarch.fw.reader.TableQueueQuarantine]."));
+        }
+        assertThat("失敗回数のデフォルトは3回", new TableQueueQuarantine().getMaxFailureCount(), is(3));
+    }
+
+    private TableQueueQuarantine createQuarantine() {
+        return setUpQuarantine(new TableQueueQuarantine());
+    }
+
+    private TableQueueQuarantine setUpQuarantine(TableQueueQuarantine quarantine) {
+        ConnectionFactory connectionFactory = repositoryResource.getComponent("connectionFactory");
+        TransactionFactory transactionFactory = repositoryResource.getComponent("jdbcTransactionFactory");
+        SimpleDbTransactionManager manager = new SimpleDbTransactionManager();
+        manager.setDbTransactionName("quarantine");
+        manager.setConnectionFactory(connectionFactory);
+        manager.setTransactionFactory(transactionFactory);
+        return quarantine
+                .setTransactionManager(manager)
+                .setTableName("BATCH_REQUEST_TABLE")
+                .setStatusColumnName("STATUS")
+                .setQuarantineStatus("9");
+    }
+
+    private DatabaseTableQueueReader createReader(TableQueueQuarantine quarantine) {
+        DatabaseRecordReader reader = new DatabaseRecordReader();
+        reader.setStatement(connection.prepareStatement(
+                "SELECT * FROM BATCH_REQUEST_TABLE WHERE STATUS = '0' ORDER BY ID"));
+        return new DatabaseTableQueueReader(reader, 0, "ID").setQuarantine(quarantine);
+    }
+
+    private void complete(int id) {
+        SqlPStatement statement = updateConnection.prepareStatement("UPDATE BATCH_REQUEST_TABLE SET STATUS = '1' WHERE ID = ?");
+        statement.setInt(1, id);
+        statement.executeUpdate();
+        updateConnection.commit();
+    }
+
+    private String findStatus(int id) {
+        List<BatchRequestTable> rows = VariousDbTestHelper.findAll(BatchRequestTable.class, "id");
+        for (BatchRequestTable row : rows) {
+            if (row.id == id) {
+                return row.status;
+            }
+        }
+        throw new IllegalArgumentException("id = " + id);
+    }
+}